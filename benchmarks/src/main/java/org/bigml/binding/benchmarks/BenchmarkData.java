@@ -0,0 +1,288 @@
+package org.bigml.binding.benchmarks;
+
+import org.bigml.binding.utils.Utils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The resources used by the benchmarks.
+ *
+ * Everything is built from the files in the data directory of the
+ * project, so no BigML account nor network access is needed. The
+ * directory is read from the bigml.benchmarks.data system property
+ * and defaults to ../data (the benchmarks are expected to be run from
+ * the benchmarks folder).
+ *
+ * The cluster and the anomaly detector are synthetic resources built from
+ * the fields of the iris model, with the same structure the API returns.
+ */
+public class BenchmarkData {
+
+    public static final String DATA_DIR_PROPERTY = "bigml.benchmarks.data";
+
+    public static final String IRIS_MODEL = "iris_model.json";
+    public static final String IRIS_DATA = "iris.csv";
+
+    // The input fields of the iris model
+    private static final String[] INPUT_FIELDS = {
+            "000000", "000001", "000002", "000003" };
+    private static final String OBJECTIVE_FIELD = "000004";
+
+    // The centers of the three species in the iris dataset
+    private static final double[][] IRIS_CENTERS = {
+            { 5.006, 3.428, 1.462, 0.246 },
+            { 5.936, 2.770, 4.260, 1.326 },
+            { 6.588, 2.974, 5.552, 2.026 } };
+
+    // Numbers are kept as Long, as the JSON parser does
+    private static final long FINISHED = 5L;
+
+    public static File getDataDir() {
+        return new File(System.getProperty(DATA_DIR_PROPERTY, "../data"));
+    }
+
+    /**
+     * The JSON structure of the bundled iris model
+     */
+    public static JSONObject irisModel() {
+        File file = new File(getDataDir(), IRIS_MODEL);
+        if( !file.exists() ) {
+            throw new IllegalStateException(String.format("Cannot find %s. " +
+                    "Please, set the %s system property to the data directory " +
+                    "of the project.", file.getAbsolutePath(), DATA_DIR_PROPERTY));
+        }
+        return (JSONObject) JSONValue.parse(Utils.readFile(file.getPath()));
+    }
+
+    /**
+     * Copies of the iris model to be used as the models of an ensemble.
+     *
+     * @param numberOfModels the number of models in the ensemble
+     */
+    public static List<JSONObject> irisEnsembleModels(int numberOfModels) {
+        List<JSONObject> models = new ArrayList<JSONObject>();
+        for (int i = 0; i < numberOfModels; i++) {
+            JSONObject model = irisModel();
+            model.put("resource", String.format("model/%024d", i));
+            models.add(model);
+        }
+        return models;
+    }
+
+    /**
+     * The rows of the iris dataset keyed by field name, without
+     * the objective field.
+     */
+    public static List<JSONObject> irisRows() {
+        File file = new File(getDataDir(), IRIS_DATA);
+
+        List<JSONObject> rows = new ArrayList<JSONObject>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            String[] headers = reader.readLine().split(",");
+            String line;
+            while( (line = reader.readLine()) != null ) {
+                if( line.trim().length() == 0 ) {
+                    continue;
+                }
+                String[] values = line.split(",");
+                JSONObject row = new JSONObject();
+                for (int i = 0; i < INPUT_FIELDS.length; i++) {
+                    row.put(headers[i], Double.valueOf(values[i]));
+                }
+                rows.add(row);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Cannot read %s",
+                    file.getAbsolutePath()), e);
+        } finally {
+            if( reader != null ) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Removes the value of a field from some of the rows, so the missing
+     * values are exercised too.
+     *
+     * @param rows the rows to be changed
+     * @param fieldName the name of the field to be removed
+     * @param every the field is removed from one in every given rows
+     */
+    public static List<JSONObject> removeField(List<JSONObject> rows,
+                                               String fieldName, int every) {
+        for (int i = 0; i < rows.size(); i += every) {
+            rows.get(i).remove(fieldName);
+        }
+        return rows;
+    }
+
+    /**
+     * A finished cluster with one centroid per iris species.
+     */
+    public static JSONObject irisCluster() {
+        JSONObject fields = irisFields();
+
+        JSONObject scales = new JSONObject();
+        for (String fieldId : INPUT_FIELDS) {
+            scales.put(fieldId, 1.0);
+        }
+
+        JSONArray centroids = new JSONArray();
+        for (int i = 0; i < IRIS_CENTERS.length; i++) {
+            JSONObject center = new JSONObject();
+            for (int j = 0; j < INPUT_FIELDS.length; j++) {
+                center.put(INPUT_FIELDS[j], IRIS_CENTERS[i][j]);
+            }
+
+            JSONObject centroid = new JSONObject();
+            centroid.put("id", String.format("%06d", i));
+            centroid.put("name", String.format("Cluster %d", i));
+            centroid.put("count", 50L);
+            centroid.put("center", center);
+            centroids.add(centroid);
+        }
+
+        JSONObject clusters = new JSONObject();
+        clusters.put("fields", fields);
+        clusters.put("clusters", centroids);
+
+        JSONArray summaryFields = new JSONArray();
+        summaryFields.add(OBJECTIVE_FIELD);
+
+        JSONObject cluster = new JSONObject();
+        cluster.put("resource", "cluster/000000000000000000000000");
+        cluster.put("status", status());
+        cluster.put("scales", scales);
+        cluster.put("summary_fields", summaryFields);
+        cluster.put("clusters", clusters);
+        return cluster;
+    }
+
+    /**
+     * A finished anomaly detector with random isolation trees over
+     * the numeric fields of the iris dataset.
+     *
+     * @param numberOfTrees the number of trees in the iforest
+     * @param maxDepth the maximum depth of the trees
+     * @param seed the seed used to build the trees
+     */
+    public static JSONObject irisAnomaly(int numberOfTrees, int maxDepth, long seed) {
+        JSONObject fields = irisFields();
+        fields.remove(OBJECTIVE_FIELD);
+
+        Random random = new Random(seed);
+        JSONArray trees = new JSONArray();
+        for (int i = 0; i < numberOfTrees; i++) {
+            JSONObject tree = new JSONObject();
+            tree.put("root", isolationNode(null, random, maxDepth, fields));
+            trees.add(tree);
+        }
+
+        JSONObject model = new JSONObject();
+        model.put("fields", fields);
+        model.put("mean_depth", 6.5);
+        model.put("top_anomalies", new JSONArray());
+        model.put("trees", trees);
+
+        JSONArray inputFields = new JSONArray();
+        for (String fieldId : INPUT_FIELDS) {
+            inputFields.add(fieldId);
+        }
+
+        JSONObject anomaly = new JSONObject();
+        anomaly.put("resource", "anomaly/000000000000000000000000");
+        anomaly.put("status", status());
+        anomaly.put("sample_size", 128L);
+        anomaly.put("input_fields", inputFields);
+        anomaly.put("model", model);
+        return anomaly;
+    }
+
+    /**
+     * Builds a node splitting the range of a random field in two.
+     */
+    private static JSONObject isolationNode(JSONArray predicates, Random random,
+                                            int depth, JSONObject fields) {
+        JSONObject node = new JSONObject();
+        node.put("predicates", (predicates != null ? predicates : Boolean.TRUE));
+
+        if( depth > 0 ) {
+            String fieldId = INPUT_FIELDS[random.nextInt(INPUT_FIELDS.length)];
+            JSONObject summary = (JSONObject) Utils.getJSONObject(fields,
+                    fieldId + ".summary");
+            double minimum = ((Number) summary.get("minimum")).doubleValue();
+            double maximum = ((Number) summary.get("maximum")).doubleValue();
+            double split = minimum + random.nextDouble() * (maximum - minimum);
+
+            JSONArray children = new JSONArray();
+            children.add(isolationNode(splitPredicates(fieldId, "<", split),
+                    random, depth - 1 - random.nextInt(2), fields));
+            children.add(isolationNode(splitPredicates(fieldId, ">=", split),
+                    random, depth - 1 - random.nextInt(2), fields));
+            node.put("children", children);
+        }
+
+        return node;
+    }
+
+    private static JSONArray splitPredicates(String fieldId, String operator,
+                                             double value) {
+        JSONObject predicate = new JSONObject();
+        predicate.put("op", operator);
+        predicate.put("field", fieldId);
+        predicate.put("value", value);
+
+        JSONArray predicates = new JSONArray();
+        predicates.add(predicate);
+        return predicates;
+    }
+
+    /**
+     * The fields of the iris dataset, taken from the iris model
+     */
+    private static JSONObject irisFields() {
+        JSONObject fields = new JSONObject();
+        fields.putAll((JSONObject) Utils.getJSONObject(irisModel(),
+                "object.model.fields"));
+
+        // The model only keeps the fields used in its splits
+        if( !fields.containsKey("000000") ) {
+            JSONObject summary = new JSONObject();
+            summary.put("minimum", 4.3);
+            summary.put("maximum", 7.9);
+            summary.put("missing_count", 0L);
+
+            JSONObject sepalLength = new JSONObject();
+            sepalLength.put("name", "sepal length");
+            sepalLength.put("optype", "numeric");
+            sepalLength.put("datatype", "double");
+            sepalLength.put("column_number", 0L);
+            sepalLength.put("summary", summary);
+            fields.put("000000", sepalLength);
+        }
+        return fields;
+    }
+
+    private static JSONObject status() {
+        JSONObject status = new JSONObject();
+        status.put("code", FINISHED);
+        return status;
+    }
+}
@@ -0,0 +1,44 @@
+package org.bigml.binding.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options.
+ *
+ * The gc profiler is added when no other profiler is given, so the
+ * allocation rate of every benchmark is always reported, and the data
+ * directory is passed on to the forked JVMs.
+ *
+ *  java -jar target/benchmarks.jar [JMH options] [benchmarks regexp]
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if( commandLine.shouldHelp() ) {
+            commandLine.showHelp();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if( commandLine.getProfilers().isEmpty() ) {
+            options.addProfiler(GCProfiler.class);
+        }
+        if( !commandLine.getJvmArgsAppend().hasValue() ) {
+            options.jvmArgsAppend(String.format("-D%s=%s",
+                    BenchmarkData.DATA_DIR_PROPERTY,
+                    BenchmarkData.getDataDir().getAbsolutePath()));
+        }
+
+        Runner runner = new Runner(options.build());
+        if( commandLine.shouldList() ) {
+            runner.list();
+            return;
+        }
+        runner.run();
+    }
+}
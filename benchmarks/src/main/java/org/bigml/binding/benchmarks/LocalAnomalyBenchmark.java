@@ -0,0 +1,61 @@
+package org.bigml.binding.benchmarks;
+
+import org.bigml.binding.LocalAnomaly;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Anomaly scores of a local anomaly detector with random isolation
+ * trees over the iris fields.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalAnomalyBenchmark {
+
+    @Param({"128"})
+    public int numberOfTrees;
+
+    @Param({"10"})
+    public int maxDepth;
+
+    private LocalAnomaly localAnomaly;
+    private JSONObject[] rows;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        localAnomaly = new LocalAnomaly(
+                BenchmarkData.irisAnomaly(numberOfTrees, maxDepth, 42L));
+
+        List<JSONObject> irisRows = BenchmarkData.irisRows();
+        rows = irisRows.toArray(new JSONObject[irisRows.size()]);
+    }
+
+    @Benchmark
+    public double score() {
+        return localAnomaly.score(nextRow(), true);
+    }
+
+    private JSONObject nextRow() {
+        next = (next + 1) % rows.length;
+        // The input data is changed while scoring
+        return new JSONObject(rows[next]);
+    }
+}
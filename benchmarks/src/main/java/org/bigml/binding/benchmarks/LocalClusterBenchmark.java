@@ -0,0 +1,53 @@
+package org.bigml.binding.benchmarks;
+
+import org.bigml.binding.LocalCluster;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest centroid search in a local cluster with one centroid per
+ * iris species.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalClusterBenchmark {
+
+    private LocalCluster localCluster;
+    private JSONObject[] rows;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        localCluster = new LocalCluster(BenchmarkData.irisCluster());
+
+        List<JSONObject> irisRows = BenchmarkData.irisRows();
+        rows = irisRows.toArray(new JSONObject[irisRows.size()]);
+    }
+
+    @Benchmark
+    public JSONObject calculateCentroid() {
+        return localCluster.calculateCentroid(nextRow(), true);
+    }
+
+    private JSONObject nextRow() {
+        next = (next + 1) % rows.length;
+        // The input data is changed while looking for the centroid
+        return new JSONObject(rows[next]);
+    }
+}
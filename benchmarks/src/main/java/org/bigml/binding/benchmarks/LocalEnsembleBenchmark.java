@@ -0,0 +1,63 @@
+package org.bigml.binding.benchmarks;
+
+import org.bigml.binding.LocalEnsemble;
+import org.bigml.binding.PredictionMethod;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predictions of a local ensemble whose models are copies of the
+ * bundled iris model.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalEnsembleBenchmark {
+
+    @Param({"10", "50"})
+    public int numberOfModels;
+
+    @Param({"PLURALITY", "CONFIDENCE", "PROBABILITY"})
+    public PredictionMethod method;
+
+    private LocalEnsemble localEnsemble;
+    private JSONObject[] rows;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        localEnsemble = new LocalEnsemble(
+                BenchmarkData.irisEnsembleModels(numberOfModels), null);
+
+        List<JSONObject> irisRows = BenchmarkData.irisRows();
+        rows = irisRows.toArray(new JSONObject[irisRows.size()]);
+    }
+
+    @Benchmark
+    public Map<Object, Object> predict() throws Exception {
+        return localEnsemble.predict(nextRow(), true, method, false);
+    }
+
+    private JSONObject nextRow() {
+        next = (next + 1) % rows.length;
+        // The input data is changed while predicting
+        return new JSONObject(rows[next]);
+    }
+}
@@ -0,0 +1,75 @@
+package org.bigml.binding.benchmarks;
+
+import org.bigml.binding.LocalPredictiveModel;
+import org.bigml.binding.MissingStrategy;
+import org.bigml.binding.localmodel.Prediction;
+import org.bigml.binding.localmodel.PredictionBatch;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predictions of a local model built from the bundled iris model.
+ *
+ * One in every four rows has no petal width, so the missing strategy
+ * is used in some of the predictions. The batch benchmark predicts the
+ * 150 rows in every operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalPredictiveModelBenchmark {
+
+    @Param({"LAST_PREDICTION", "PROPORTIONAL"})
+    public MissingStrategy strategy;
+
+    private LocalPredictiveModel localModel;
+    private List<JSONObject> batch;
+    private JSONObject[] rows;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        localModel = new LocalPredictiveModel(BenchmarkData.irisModel());
+
+        List<JSONObject> irisRows = BenchmarkData.removeField(
+                BenchmarkData.irisRows(), "petal width", 4);
+        rows = irisRows.toArray(new JSONObject[irisRows.size()]);
+        batch = irisRows;
+    }
+
+    @Benchmark
+    public Prediction predict() throws Exception {
+        return localModel.predict(nextRow(), true, strategy);
+    }
+
+    /**
+     * Predicts all the rows at once. Only the Last Prediction strategy
+     * is available in batches.
+     */
+    @Benchmark
+    public PredictionBatch predictBatch() {
+        return localModel.predictBatch(batch, true);
+    }
+
+    private JSONObject nextRow() {
+        next = (next + 1) % rows.length;
+        // The input data is changed while predicting
+        return new JSONObject(rows[next]);
+    }
+}
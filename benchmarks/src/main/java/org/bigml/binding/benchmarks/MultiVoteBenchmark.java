@@ -0,0 +1,61 @@
+package org.bigml.binding.benchmarks;
+
+import org.bigml.binding.MultiModel;
+import org.bigml.binding.MultiVote;
+import org.bigml.binding.PredictionMethod;
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combination of the votes of an ensemble of iris models. The votes are
+ * generated once for every row, so only the combination is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiVoteBenchmark {
+
+    @Param({"10", "50"})
+    public int numberOfModels;
+
+    @Param({"PLURALITY", "CONFIDENCE", "PROBABILITY"})
+    public PredictionMethod method;
+
+    private MultiVote[] votes;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        MultiModel multiModel = new MultiModel(
+                BenchmarkData.irisEnsembleModels(numberOfModels));
+
+        List<JSONObject> irisRows = BenchmarkData.irisRows();
+        votes = new MultiVote[irisRows.size()];
+        for (int i = 0; i < votes.length; i++) {
+            votes[i] = multiModel.generateVotes(irisRows.get(i), true, null, false);
+        }
+    }
+
+    @Benchmark
+    public HashMap<Object, Object> combine() {
+        next = (next + 1) % votes.length;
+        return votes[next].combine(method, false, null, null, null, null, null);
+    }
+}
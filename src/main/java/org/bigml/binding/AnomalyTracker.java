@@ -0,0 +1,251 @@
+package org.bigml.binding;
+
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Tracks the most anomalous rows of a stream.
+ *
+ * The rows are scored with a LocalAnomaly and the K rows with the highest
+ * scores are kept in a bounded min-heap, so every row is compared to the
+ * lowest of the top scores and only replaces it when it's higher. The
+ * distribution of all the scores is kept in a histogram of fixed-width bins
+ * over [0, 1], the range of the anomaly scores, so the quantiles of the
+ * scores can be estimated with an error lower than the width of a bin using
+ * the same memory regardless of the length of the stream.
+ *
+ * The tracker can be fed from several threads.
+ *
+ * Example usage:
+ *
+ *  AnomalyTracker tracker = new AnomalyTracker(localAnomaly, 1000);
+ *  for (JSONObject event : events) {
+ *      tracker.add(event, true);
+ *  }
+ *  List<AnomalyTracker.ScoredRow> top = tracker.getTopAnomalies();
+ *  double p99 = tracker.quantile(0.99);
+ */
+public class AnomalyTracker {
+
+    public static final int DEFAULT_BINS = 1000;
+
+    private final LocalAnomaly anomaly;
+    private final int maxAnomalies;
+
+    private final PriorityQueue<ScoredRow> topAnomalies;
+
+    // Scores histogram
+    private final long[] bins;
+    private long count = 0;
+    private double minimum = Double.POSITIVE_INFINITY;
+    private double maximum = Double.NEGATIVE_INFINITY;
+
+    /**
+     * A row of the stream and its anomaly score
+     */
+    public static class ScoredRow {
+        private final Object row;
+        private final double score;
+        private final long index;
+
+        ScoredRow(Object row, double score, long index) {
+            this.row = row;
+            this.score = score;
+            this.index = index;
+        }
+
+        public Object getRow() {
+            return row;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * The position of the row in the stream
+         */
+        public long getIndex() {
+            return index;
+        }
+    }
+
+    private static final Comparator<ScoredRow> BY_SCORE = new Comparator<ScoredRow>() {
+        @Override
+        public int compare(ScoredRow o1, ScoredRow o2) {
+            int result = Double.compare(o1.score, o2.score);
+            if( result == 0 ) {
+                // The first rows found are kept in ties
+                result = (o1.index < o2.index ? 1 : (o1.index > o2.index ? -1 : 0));
+            }
+            return result;
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param anomaly the anomaly detector used to score the rows
+     * @param maxAnomalies the number of top anomalies to keep
+     */
+    public AnomalyTracker(LocalAnomaly anomaly, int maxAnomalies) {
+        this(anomaly, maxAnomalies, DEFAULT_BINS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param anomaly the anomaly detector used to score the rows
+     * @param maxAnomalies the number of top anomalies to keep
+     * @param bins the number of bins of the scores histogram
+     */
+    public AnomalyTracker(LocalAnomaly anomaly, int maxAnomalies, int bins) {
+        super();
+
+        if( maxAnomalies < 1 ) {
+            throw new IllegalArgumentException("At least one anomaly must be kept.");
+        }
+        if( bins < 1 ) {
+            throw new IllegalArgumentException("The histogram needs at least one bin.");
+        }
+
+        this.anomaly = anomaly;
+        this.maxAnomalies = maxAnomalies;
+        this.topAnomalies = new PriorityQueue<ScoredRow>(maxAnomalies, BY_SCORE);
+        this.bins = new long[bins];
+    }
+
+    /**
+     * Scores a row and tracks it.
+     *
+     * @param inputData the row to be scored
+     * @param byName true if the row is keyed by field name
+     * @return the anomaly score of the row
+     */
+    public double add(JSONObject inputData, boolean byName) {
+        // The input data is cleaned by the anomaly detector, so the
+        // row is kept as it was given
+        JSONObject row = new JSONObject(inputData);
+        double score = anomaly.score(inputData, byName);
+        add(row, score);
+        return score;
+    }
+
+    /**
+     * Scores a batch of rows and tracks them.
+     *
+     * @param inputData the rows to be scored
+     * @param byName true if the rows are keyed by field name
+     * @return the anomaly scores of the rows
+     * @see LocalAnomaly#scoreBatch(List, boolean)
+     */
+    public double[] addAll(List<JSONObject> inputData, boolean byName) throws Exception {
+        List<JSONObject> rows = new ArrayList<JSONObject>(inputData.size());
+        for (JSONObject rowData : inputData) {
+            rows.add(new JSONObject(rowData));
+        }
+
+        double[] scores = anomaly.scoreBatch(inputData, byName);
+        synchronized (this) {
+            for (int i = 0; i < scores.length; i++) {
+                add(rows.get(i), scores[i]);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Tracks a row that was already scored.
+     *
+     * @param row the row
+     * @param score the anomaly score of the row
+     */
+    public synchronized void add(Object row, double score) {
+        long index = count++;
+
+        minimum = Math.min(minimum, score);
+        maximum = Math.max(maximum, score);
+        bins[binOf(score)]++;
+
+        if( topAnomalies.size() < maxAnomalies ) {
+            topAnomalies.add(new ScoredRow(row, score, index));
+        } else if( score > topAnomalies.peek().score ) {
+            topAnomalies.poll();
+            topAnomalies.add(new ScoredRow(row, score, index));
+        }
+    }
+
+    private int binOf(double score) {
+        int bin = (int) (score * bins.length);
+        return Math.max(0, Math.min(bins.length - 1, bin));
+    }
+
+    /**
+     * Returns the rows with the highest scores, from the highest to
+     * the lowest.
+     */
+    public synchronized List<ScoredRow> getTopAnomalies() {
+        List<ScoredRow> anomalies = new ArrayList<ScoredRow>(topAnomalies);
+        Collections.sort(anomalies, Collections.reverseOrder(BY_SCORE));
+        return anomalies;
+    }
+
+    /**
+     * The lowest of the top scores, or NaN if no row was tracked
+     */
+    public synchronized double getThreshold() {
+        return (topAnomalies.isEmpty() ? Double.NaN : topAnomalies.peek().score);
+    }
+
+    /**
+     * The number of rows tracked
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMinimum() {
+        return (count > 0 ? minimum : Double.NaN);
+    }
+
+    public synchronized double getMaximum() {
+        return (count > 0 ? maximum : Double.NaN);
+    }
+
+    /**
+     * Estimates a quantile of the scores of all the tracked rows.
+     *
+     * The score is interpolated linearly inside the bin that holds the
+     * quantile, so the error is lower than the width of a bin.
+     *
+     * @param quantile the quantile, between 0 and 1
+     * @return the estimated score, or NaN if no row was tracked
+     */
+    public synchronized double quantile(double quantile) {
+        if( quantile < 0 || quantile > 1 ) {
+            throw new IllegalArgumentException(String.format(
+                    "The quantile must be between 0 and 1 (%s given).", quantile));
+        }
+        if( count == 0 ) {
+            return Double.NaN;
+        }
+
+        double rank = quantile * count;
+        double width = 1.0 / bins.length;
+        long cumulative = 0;
+        for (int bin = 0; bin < bins.length; bin++) {
+            if( bins[bin] > 0 && cumulative + bins[bin] >= rank ) {
+                double fraction = (rank - cumulative) / bins[bin];
+                double score = (bin + fraction) * width;
+                return Math.max(minimum, Math.min(maximum, score));
+            }
+            cumulative += bins[bin];
+        }
+        return maximum;
+    }
+}
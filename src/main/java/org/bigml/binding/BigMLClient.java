@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Future;
 
 /**
  * Entry point to create, retrieve, list, update, and delete sources, datasets,
@@ -547,6 +548,87 @@ public class BigMLClient {
         return cacheManager;
     }
 
+    /**
+     * Waits for a resource of any type to be finished without blocking
+     * the caller.
+     *
+     * The pending resources are checked in batches by a shared poller, so
+     * no thread needs to sleep while they are being built. The returned
+     * future can be waited for with get() or notify a listener.
+     *
+     * @param resourceId
+     *            a unique identifier in the form type/id
+     * @return the future completed with the finished resource
+     */
+    public ResourceFuture whenReady(final String resourceId) {
+        return whenReady(resourceId, 0);
+    }
+
+    /**
+     * Waits for a resource of any type to be finished without blocking
+     * the caller.
+     *
+     * @param resourceId
+     *            a unique identifier in the form type/id
+     * @param timeout
+     *            the maximum time to wait, in milliseconds. Zero means
+     *            no limit.
+     * @return the future completed with the finished resource
+     */
+    public ResourceFuture whenReady(final String resourceId, final long timeout) {
+        return getHandler(resourceId).whenReady(resourceId, timeout);
+    }
+
+    /**
+     * Checks whether a resource of any type is FINISHED without blocking
+     * the caller. The future is true once the resource is finished, and
+     * false if it is faulty, cannot be retrieved or the timeout expires.
+     *
+     * @param resourceId
+     *            a unique identifier in the form type/id
+     * @param timeout
+     *            the maximum time to wait, in milliseconds. Zero means
+     *            no limit.
+     */
+    public Future<Boolean> isReadyAsync(final String resourceId,
+                                        final long timeout) {
+        return getHandler(resourceId).isReadyAsync(resourceId, timeout);
+    }
+
+    /**
+     * The handler of the type of a resource
+     */
+    private AbstractResource getHandler(final String resourceId) {
+        JSONObject resource = new JSONObject();
+        resource.put("resource", resourceId);
+
+        AbstractResource[] handlers = new AbstractResource[] {
+                source, dataset, model, prediction, evaluation, ensemble,
+                anomaly, anomalyScore, batchAnomalyScore, batchPrediction,
+                cluster, centroid, batchCentroid, project, sample, correlation,
+                statisticalTest, logisticRegression, script, execution, library,
+                association, associationSet, topicModel, topicDistribution,
+                batchTopicDistribution, configuration };
+        for (AbstractResource handler : handlers) {
+            if( resourceId != null && handler.isInstance(resource) ) {
+                return handler;
+            }
+        }
+        throw new IllegalArgumentException("Wrong resource id: " + resourceId);
+    }
+
+    /**
+     * Waits for a resource of any type to be finished without blocking
+     * the caller.
+     *
+     * @param resource
+     *            a resource JSONObject
+     * @return the future completed with the finished resource
+     */
+    public ResourceFuture whenReady(final JSONObject resource) {
+        return whenReady((String) resource.get("resource"), 0);
+    }
+
     // ################################################################
     // #
     // # Sources
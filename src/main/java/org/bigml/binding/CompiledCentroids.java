@@ -0,0 +1,371 @@
+package org.bigml.binding;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The centroids of a cluster compiled into dense arrays.
+ *
+ * The numeric components of the centers are stored as a matrix with one row
+ * per centroid, already multiplied by the scale of each field. Categorical
+ * components are stored as category codes and text components as the codes
+ * of their terms, so the squared distance from a row to a centroid is
+ * computed with primitive loops only. The search of the nearest centroid
+ * stops adding components as soon as the distance exceeds the best one.
+ *
+ * Rows are encoded once with encode() and can then be compared to all the
+ * centroids. The distances are the same computed by LocalCentroid.distance2.
+ *
+ * Example usage:
+ *
+ *  CompiledCentroids compiled = CompiledCentroids.compile(centroids, scales);
+ *  CompiledCentroids.Row row = compiled.encode(inputData, uniqueTerms);
+ *  String centroidId = compiled.getCentroidId(compiled.nearest(row));
+ */
+public class CompiledCentroids {
+
+    private final String[] centroidIds;
+    private final String[] names;
+
+    // Numeric components: [centroid][field], scaled
+    private final String[] numericFields;
+    private final double[] numericScales;
+    private final double[][] numericCenters;
+
+    // Categorical components: [centroid][field] category codes
+    private final String[] categoricalFields;
+    private final double[] categoricalWeights;
+    private final List<Map<Object, Integer>> categoryCodes;
+    private final int[][] categoricalCenters;
+
+    // Text components: [centroid][field] term codes
+    private final String[] textFields;
+    private final double[] textScales;
+    private final List<Map<String, Integer>> termCodes;
+    private final int[][][] textCenters;
+
+    /**
+     * An input row encoded with the layout of the compiled centroids
+     */
+    public static class Row {
+        private final double[] numeric;
+        private final int[] categories;
+        private final boolean[][] terms;
+        private final int[] termsCount;
+
+        private Row(double[] numeric, int[] categories, boolean[][] terms,
+                    int[] termsCount) {
+            this.numeric = numeric;
+            this.categories = categories;
+            this.terms = terms;
+            this.termsCount = termsCount;
+        }
+    }
+
+    /**
+     * Compiles the centroids of a cluster.
+     *
+     * @param centroids the centroids of the cluster
+     * @param scales the scale of each field
+     * @return the compiled centroids, or null if the centers of the
+     *          centroids don't have the same fields and types
+     */
+    public static CompiledCentroids compile(List<LocalCentroid> centroids, JSONObject scales) {
+        if( centroids.isEmpty() ) {
+            return null;
+        }
+
+        // The type of each component is the type of its value in the
+        // centers, which must be the same for all the centroids
+        Map<String, Class> layout = new LinkedHashMap<String, Class>();
+        for (Object fieldId : centroids.get(0).getCenter().keySet()) {
+            Class type = componentType(centroids.get(0).getCenter().get(fieldId));
+            if( type == null || !scales.containsKey(fieldId) ) {
+                return null;
+            }
+            layout.put(fieldId.toString(), type);
+        }
+        for (LocalCentroid centroid : centroids) {
+            JSONObject center = centroid.getCenter();
+            if( center.size() != layout.size() ) {
+                return null;
+            }
+            for (Object fieldId : center.keySet()) {
+                if( layout.get(fieldId) != componentType(center.get(fieldId)) ) {
+                    return null;
+                }
+            }
+        }
+
+        return new CompiledCentroids(centroids, scales, layout);
+    }
+
+    private static Class componentType(Object value) {
+        if( value == null ) {
+            return null;
+        }
+        if( value instanceof JSONArray ) {
+            return JSONArray.class;
+        }
+        if( value instanceof String ) {
+            return String.class;
+        }
+        return Number.class;
+    }
+
+    private CompiledCentroids(List<LocalCentroid> centroids, JSONObject scales,
+                              Map<String, Class> layout) {
+        super();
+
+        int size = centroids.size();
+        centroidIds = new String[size];
+        names = new String[size];
+
+        List<String> numeric = new ArrayList<String>();
+        List<String> categorical = new ArrayList<String>();
+        List<String> text = new ArrayList<String>();
+        for (Map.Entry<String, Class> component : layout.entrySet()) {
+            if( component.getValue() == JSONArray.class ) {
+                text.add(component.getKey());
+            } else if( component.getValue() == String.class ) {
+                categorical.add(component.getKey());
+            } else {
+                numeric.add(component.getKey());
+            }
+        }
+
+        numericFields = numeric.toArray(new String[numeric.size()]);
+        numericScales = scalesOf(numericFields, scales);
+        numericCenters = new double[size][numericFields.length];
+
+        categoricalFields = categorical.toArray(new String[categorical.size()]);
+        categoricalWeights = scalesOf(categoricalFields, scales);
+        for (int j = 0; j < categoricalWeights.length; j++) {
+            categoricalWeights[j] = Math.pow(categoricalWeights[j], 2);
+        }
+        categoryCodes = new ArrayList<Map<Object, Integer>>(categoricalFields.length);
+        for (int j = 0; j < categoricalFields.length; j++) {
+            categoryCodes.add(new HashMap<Object, Integer>());
+        }
+        categoricalCenters = new int[size][categoricalFields.length];
+
+        textFields = text.toArray(new String[text.size()]);
+        textScales = scalesOf(textFields, scales);
+        termCodes = new ArrayList<Map<String, Integer>>(textFields.length);
+        for (int j = 0; j < textFields.length; j++) {
+            termCodes.add(new HashMap<String, Integer>());
+        }
+        textCenters = new int[size][textFields.length][];
+
+        for (int c = 0; c < size; c++) {
+            LocalCentroid centroid = centroids.get(c);
+            JSONObject center = centroid.getCenter();
+            centroidIds[c] = centroid.getCentroidId();
+            names[c] = centroid.getName();
+
+            for (int j = 0; j < numericFields.length; j++) {
+                numericCenters[c][j] = ((Number) center.get(numericFields[j])).doubleValue()
+                        * numericScales[j];
+            }
+
+            for (int j = 0; j < categoricalFields.length; j++) {
+                categoricalCenters[c][j] = code(categoryCodes.get(j),
+                        center.get(categoricalFields[j]));
+            }
+
+            for (int j = 0; j < textFields.length; j++) {
+                JSONArray terms = (JSONArray) center.get(textFields[j]);
+                textCenters[c][j] = new int[terms.size()];
+                for (int k = 0; k < terms.size(); k++) {
+                    textCenters[c][j][k] = code(termCodes.get(j), (String) terms.get(k));
+                }
+            }
+        }
+    }
+
+    private static double[] scalesOf(String[] fieldIds, JSONObject scales) {
+        double[] values = new double[fieldIds.length];
+        for (int j = 0; j < fieldIds.length; j++) {
+            values[j] = ((Number) scales.get(fieldIds[j])).doubleValue();
+        }
+        return values;
+    }
+
+    private static <T> int code(Map<T, Integer> codes, T value) {
+        Integer code = codes.get(value);
+        if( code == null ) {
+            code = codes.size();
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    public int size() {
+        return centroidIds.length;
+    }
+
+    public String getCentroidId(int centroid) {
+        return centroidIds[centroid];
+    }
+
+    public String getName(int centroid) {
+        return names[centroid];
+    }
+
+    /**
+     * Encodes the input data of a row.
+     *
+     * @param inputData the cleaned and casted input data, keyed by field id.
+     *                  It must contain all the numeric fields.
+     * @param uniqueTerms the unique terms found in each text field
+     * @return the encoded row
+     */
+    public Row encode(Map<String, Object> inputData, Map<String, Object> uniqueTerms) {
+        double[] numeric = new double[numericFields.length];
+        for (int j = 0; j < numericFields.length; j++) {
+            numeric[j] = ((Number) inputData.get(numericFields[j])).doubleValue()
+                    * numericScales[j];
+        }
+
+        // Unknown categories never match a center
+        int[] categories = new int[categoricalFields.length];
+        for (int j = 0; j < categoricalFields.length; j++) {
+            Integer code = categoryCodes.get(j).get(inputData.get(categoricalFields[j]));
+            categories[j] = (code != null ? code : -1);
+        }
+
+        boolean[][] terms = new boolean[textFields.length][];
+        int[] termsCount = new int[textFields.length];
+        for (int j = 0; j < textFields.length; j++) {
+            Map<String, Integer> codes = termCodes.get(j);
+            terms[j] = new boolean[codes.size()];
+
+            Collection<String> fieldTerms = (Collection<String>) uniqueTerms.get(textFields[j]);
+            if( fieldTerms != null ) {
+                termsCount[j] = fieldTerms.size();
+                for (String term : fieldTerms) {
+                    Integer code = codes.get(term);
+                    if( code != null ) {
+                        terms[j][code] = true;
+                    }
+                }
+            }
+        }
+
+        return new Row(numeric, categories, terms, termsCount);
+    }
+
+    /**
+     * Squared distance from the row to the centroid.
+     *
+     * @param centroid the index of the centroid
+     * @param row the encoded row
+     * @param stopDistance2 the distance at which the computation stops
+     * @return the distance, or a partial distance not lower than
+     *          stopDistance2 when the computation was stopped
+     */
+    public double distance2(int centroid, Row row, double stopDistance2) {
+        double distance2 = 0.0;
+
+        double[] center = numericCenters[centroid];
+        double[] numeric = row.numeric;
+        for (int j = 0; j < center.length; j++) {
+            double delta = numeric[j] - center[j];
+            distance2 += delta * delta;
+            if( distance2 >= stopDistance2 ) {
+                return distance2;
+            }
+        }
+
+        int[] categories = categoricalCenters[centroid];
+        for (int j = 0; j < categories.length; j++) {
+            if( categories[j] != row.categories[j] ) {
+                distance2 += categoricalWeights[j];
+            }
+        }
+        if( distance2 >= stopDistance2 ) {
+            return distance2;
+        }
+
+        int[][] texts = textCenters[centroid];
+        for (int j = 0; j < texts.length; j++) {
+            distance2 += cosineDistance2(texts[j], row.terms[j], row.termsCount[j],
+                    textScales[j]);
+        }
+
+        return distance2;
+    }
+
+    /**
+     * Returns the index of the nearest centroid to the row
+     */
+    public int nearest(Row row) {
+        int nearest = -1;
+        double nearestDistance2 = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < centroidIds.length; c++) {
+            double distance2 = distance2(c, row, nearestDistance2);
+            if( distance2 < nearestDistance2 ) {
+                nearest = c;
+                nearestDistance2 = distance2;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Finds the nearest centroid to each of the rows.
+     *
+     * @param rows the encoded rows
+     * @param distances2 if not null, it's filled with the squared distance
+     *                   of every row to its nearest centroid
+     * @return the index of the nearest centroid of every row
+     */
+    public int[] nearest(Row[] rows, double[] distances2) {
+        int[] nearest = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            nearest[i] = nearest(rows[i]);
+            if( distances2 != null ) {
+                distances2[i] = (nearest[i] >= 0 ?
+                        distance2(nearest[i], rows[i], Double.POSITIVE_INFINITY) :
+                        Double.POSITIVE_INFINITY);
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the distance defined by cosine similarity, as
+     * LocalCentroid.cosineDistance2
+     */
+    private static double cosineDistance2(int[] centroidTerms, boolean[] terms,
+                                          int termsCount, double scale) {
+        if( centroidTerms.length == 0 && termsCount == 0 ) {
+            return 0;
+        }
+
+        if( centroidTerms.length == 0 || termsCount == 0 ) {
+            return Math.pow(scale, 2);
+        }
+
+        int inputCount = 0;
+        for (int term : centroidTerms) {
+            if( terms[term] ) {
+                inputCount++;
+            }
+        }
+
+        double cosineSimilarity = inputCount /
+                Math.sqrt(termsCount * centroidTerms.length);
+
+        double similarityDistance = scale * (1 - cosineSimilarity);
+
+        return Math.pow(similarityDistance, 2);
+    }
+}
@@ -1,5 +1,6 @@
 package org.bigml.binding;
 
+import org.bigml.binding.localmodel.CompiledTreeModel;
 import org.bigml.binding.resources.AbstractResource;
 import org.bigml.binding.resources.Dataset;
 import org.bigml.binding.resources.Model;
@@ -55,6 +56,7 @@ public class Fields {
     private JSONObject fieldsByName = null;
     private Map<Long, String> fieldsByColumnNumber = null;
     private List<String> missingTokens = null;
+    private Set<String> missingTokensSet = null;
     private List<Long> fieldsColumns = null;
     private List<String> filteredFields = null;
 
@@ -193,17 +195,16 @@ public class Fields {
         this.locale = Utils.findLocale(dataLocale, true);
 
         this.missingTokens = missingTokens;
+        this.missingTokensSet = new HashSet<String>(missingTokens);
 
         this.fieldsColumns = new ArrayList<Long>(fieldsByColumnNumber.keySet());
         Collections.sort(this.fieldsColumns);
 
-        // Ids of the fields to be included
+        // Ids of the fields to be included, all of them by default
         this.filteredFields = new ArrayList<String>();
-        if( includeFields != null ) {
-            for (Object fieldName : this.fields.keySet()) {
-                if( includeFields.contains( fieldName.toString() ) ) {
-                    this.filteredFields.add( fieldName.toString() );
-                }
+        for (Object fieldName : this.fields.keySet()) {
+            if( includeFields == null || includeFields.contains( fieldName.toString() ) ) {
+                this.filteredFields.add( fieldName.toString() );
             }
         }
 
@@ -269,10 +270,13 @@ public class Fields {
             this.headers = new ArrayList<String>(headers);
         }
 
+        // Fields that are not found in the row are skipped
         filteredIndexes = new ArrayList<Long>();
         for (String filteredField : filteredFields) {
             long index = rowIds.indexOf(filteredField);
-            filteredIndexes.add(index);
+            if( index >= 0 ) {
+                filteredIndexes.add(index);
+            }
         }
     }
 
@@ -459,6 +463,48 @@ public class Fields {
         return pair;
     }
 
+    /**
+     * Prepares the mapping of the records of a CSV file to the rows of
+     * a compiled model.
+     *
+     * The header is bound only once, so the records can be mapped with no
+     * per row pairing. The columns of the objective field and of the fields
+     * that are not included are skipped, as in pair.
+     *
+     * @param headers the names or ids of the fields in the columns, or null
+     *                if the records contain the input fields sorted by
+     *                column number
+     * @param compiled the compiled model
+     * @return the mapper of the records
+     */
+    public RowMapper prepare(List<String> headers, CompiledTreeModel compiled) {
+        String objectiveFieldId = fieldsByColumnNumber.get(this.objectiveField);
+
+        List<String> columnIds = new ArrayList<String>();
+        if( headers == null ) {
+            for (Long fieldColumnIndex : fieldsColumns) {
+                if( !fieldColumnIndex.equals(this.objectiveField) ) {
+                    columnIds.add(fieldsByColumnNumber.get(fieldColumnIndex));
+                }
+            }
+        } else {
+            for (String header : headers) {
+                columnIds.add(getFieldId(header));
+            }
+        }
+
+        String[] fieldIds = new String[columnIds.size()];
+        for (int i = 0; i < fieldIds.length; i++) {
+            String fieldId = columnIds.get(i);
+            if( fieldId != null && !fieldId.equals(objectiveFieldId) &&
+                    filteredFields.contains(fieldId) ) {
+                fieldIds[i] = fieldId;
+            }
+        }
+
+        return new RowMapper(compiled, fieldIds, fields, missingTokensSet);
+    }
+
     /**
      * Validates whether types for input data match types in the
      *  fields definition.
@@ -495,7 +541,7 @@ public class Fields {
      */
     public Object normalize(Object value) {
         if( value instanceof String ) {
-            return (missingTokens.contains(value) ? null : value);
+            return (missingTokensSet.contains(value) ? null : value);
         }
 
         return null;
@@ -0,0 +1,151 @@
+package org.bigml.binding;
+
+import org.bigml.binding.utils.CacheManager;
+import org.bigml.binding.utils.MemoryCache;
+import org.json.simple.JSONObject;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * The local models of an ensemble, built only when they are needed.
+ *
+ * Every model is retrieved and built the first time it's used and kept in
+ * a MemoryCache, whose maximum weight is the memory budget for the models.
+ * The least recently used models are evicted when the budget is exceeded
+ * and are retrieved again when they are needed, so a client with a storage
+ * directory should be used to read them again from the CacheManager
+ * instead of the API. The weight of a model is the size of its cached file,
+ * or the length of its JSON when the client has no storage.
+ *
+ * The JSON of the models is not kept by the memory tier of the client's
+ * CacheManager, so the models only use the budget of the MemoryCache.
+ *
+ * The same MemoryCache can be shared by several ensembles, so all of them
+ * share the same budget.
+ */
+public class LazyLocalModels extends AbstractList<LocalPredictiveModel> {
+
+    private static final String KEY_PREFIX = "local:";
+
+    private final String[] modelsIds;
+    private final MemoryCache cache;
+
+    // The client used to retrieve the models, the default one if null
+    private final BigMLClient client;
+
+    // Avoids retrieving the same model twice when it's used by several
+    // threads at the same time
+    private final Object[] locks;
+
+    /**
+     * Constructor
+     *
+     * @param modelsIds the model/id of every model
+     * @param cache the cache where the local models are kept
+     */
+    public LazyLocalModels(List<String> modelsIds, MemoryCache cache) {
+        this(modelsIds, cache, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param modelsIds the model/id of every model
+     * @param cache the cache where the local models are kept
+     * @param client the client used to retrieve the models or null to use
+     *               the default instance
+     */
+    public LazyLocalModels(List<String> modelsIds, MemoryCache cache,
+                           BigMLClient client) {
+        super();
+
+        if( cache == null ) {
+            throw new IllegalArgumentException("A cache is needed to keep " +
+                    "the local models.");
+        }
+
+        this.modelsIds = modelsIds.toArray(new String[modelsIds.size()]);
+        this.cache = cache;
+        this.client = client;
+        this.locks = new Object[this.modelsIds.length];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * The local model at the given position, built if it's not in the cache
+     */
+    @Override
+    public LocalPredictiveModel get(int index) {
+        String key = KEY_PREFIX + modelsIds[index];
+
+        LocalPredictiveModel localModel = (LocalPredictiveModel) cache.get(key);
+        if( localModel != null ) {
+            return localModel;
+        }
+
+        synchronized (locks[index]) {
+            localModel = (LocalPredictiveModel) cache.get(key);
+            if( localModel == null ) {
+                long weight;
+                try {
+                    BigMLClient bigmlClient = getClient();
+                    JSONObject model = getModel(bigmlClient, index);
+                    localModel = new LocalPredictiveModel(model);
+
+                    CacheManager cacheManager = bigmlClient.getCacheManager();
+                    weight = (cacheManager != null ?
+                            cacheManager.getSize(modelsIds[index], null) : -1);
+                    if( weight < 0 ) {
+                        weight = model.toJSONString().length();
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(String.format(
+                            "Cannot build the local model for %s",
+                            modelsIds[index]), e);
+                }
+                cache.put(key, localModel, weight);
+            }
+        }
+        return localModel;
+    }
+
+    /**
+     * Retrieves the JSON structure of the model at the given position.
+     * It's not kept by this object.
+     */
+    public JSONObject getModel(int index) throws Exception {
+        return getModel(getClient(), index);
+    }
+
+    private JSONObject getModel(BigMLClient bigmlClient, int index) {
+        JSONObject model = bigmlClient.getModel(modelsIds[index]);
+        if( model == null || model.get("object") == null ) {
+            throw new IllegalStateException(String.format(
+                    "The model %s couldn't be retrieved (code %s)",
+                    modelsIds[index], (model != null ? model.get("code") : null)));
+        }
+
+        // The local model is what's kept, in the budget of this cache
+        CacheManager cacheManager = bigmlClient.getCacheManager();
+        if( cacheManager != null ) {
+            cacheManager.release(modelsIds[index], null);
+        }
+        return model;
+    }
+
+    private BigMLClient getClient() throws Exception {
+        return (client != null ? client : BigMLClient.getInstance());
+    }
+
+    public String getModelId(int index) {
+        return modelsIds[index];
+    }
+
+    @Override
+    public int size() {
+        return modelsIds.length;
+    }
+}
@@ -1,7 +1,9 @@
 package org.bigml.binding;
 
 import org.bigml.binding.localanomaly.AnomalyTree;
+import org.bigml.binding.localanomaly.CompiledIsolationForest;
 import org.bigml.binding.resources.AbstractResource;
+import org.bigml.binding.utils.JSONPath;
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -11,6 +13,13 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A local Predictive Anomaly Detector.
@@ -45,6 +54,11 @@ public class LocalAnomaly extends ModelFields implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private static final JSONPath FIELD_OPTYPE = JSONPath.compile("optype");
+
+    // The pool shared by the batches scored with no executor
+    private static volatile ExecutorService scorers;
+
     private JSONObject anomaly;
 
     private String anomalyId;
@@ -61,6 +75,8 @@ public class LocalAnomaly extends ModelFields implements Serializable {
 
     private List<AnomalyTree> iforest;
 
+    private transient volatile CompiledIsolationForest compiledForest;
+
     public LocalAnomaly(JSONObject anomalyData) throws Exception {
         super();
 
@@ -147,21 +163,134 @@ public class LocalAnomaly extends ModelFields implements Serializable {
         // Strips affixes for numeric values and casts to the final field type
         Utils.cast(inputData, fields);
 
-        int depthSum = 0;
+        CompiledIsolationForest compiled = compile();
+        return compiled.score(compiled.toRow(inputData));
+    }
+
+    /**
+     * Returns the anomaly scores of a batch of rows using all the
+     * available processors.
+     *
+     * The rows are scored by a pool of daemon threads shared by all the
+     * anomaly detectors. It's created the first time it's needed.
+     *
+     * @param inputData the rows to be scored
+     * @param byName true if the rows are keyed by field name
+     * @return the scores, in the same order as the rows
+     */
+    public double[] scoreBatch(List<JSONObject> inputData, boolean byName)
+            throws Exception {
+        return scoreBatch(inputData, byName, getScorers());
+    }
 
-        if( this.iforest == null || this.iforest.isEmpty() ) {
-            throw new IllegalStateException("We could not find the iforest information to " +
-                    "compute the anomaly score. Please, rebuild your " +
-                    "Anomaly object from a complete anomaly detector " +
-                    "resource.");
+    /**
+     * The pool shared by the batches scored with no executor
+     */
+    private static ExecutorService getScorers() {
+        ExecutorService result = scorers;
+        if( result == null ) {
+            synchronized (LocalAnomaly.class) {
+                if( scorers == null ) {
+                    scorers = Executors.newFixedThreadPool(
+                            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                                private final AtomicInteger count = new AtomicInteger();
+
+                                public Thread newThread(Runnable runnable) {
+                                    Thread thread = new Thread(runnable,
+                                            "bigml-anomaly-scorer-" + count.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+                }
+                result = scorers;
+            }
         }
+        return result;
+    }
 
-        for (AnomalyTree anomalyTree : this.iforest) {
-            depthSum += anomalyTree.depth(inputData).getDepth();
+    /**
+     * Returns the anomaly scores of a batch of rows, as score does for
+     * each of them.
+     *
+     * The rows are cleaned and cast in blocks and then scored against the
+     * compiled iforest, both of them as tasks submitted to the executor.
+     *
+     * The calling thread waits for the tasks, so it must not be one of the
+     * threads of a bounded executor it submits them to: if all of its
+     * threads are waiting for their own batches, none of the tasks can
+     * run and the batches never finish.
+     *
+     * @param inputData the rows to be scored
+     * @param byName true if the rows are keyed by field name
+     * @param executor the executor service (a ForkJoinPool can be used too)
+     * @return the scores, in the same order as the rows
+     */
+    public double[] scoreBatch(final List<JSONObject> inputData, final boolean byName,
+                               ExecutorService executor) throws Exception {
+        final CompiledIsolationForest compiled = compile();
+        final Object[][] rows = new Object[inputData.size()][];
+
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int from = 0; from < rows.length; from += CompiledIsolationForest.ROWS_BLOCK_SIZE) {
+            final int fromRow = from;
+            final int toRow = Math.min(from + CompiledIsolationForest.ROWS_BLOCK_SIZE, rows.length);
+
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = fromRow; i < toRow; i++) {
+                        // Checks and cleans input_data leaving the fields used in the model
+                        JSONObject row = filterInputData(inputData.get(i), byName);
+
+                        // Strips affixes for numeric values and casts to the final field type
+                        Utils.cast(row, fields);
+                        rows[i] = compiled.toRow(row);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Void> result : results) {
+                result.cancel(true);
+            }
+            if( e.getCause() instanceof Exception ) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
         }
 
-        double observedMeanDepth = ((double) depthSum) / ((double) this.iforest.size());
-        return Math.pow(2, (- observedMeanDepth / this.expectedMeanDepth));
+        return compiled.scoreBatch(rows, executor);
+    }
+
+    /**
+     * Compiles the trees of the iforest into flat arrays that can be used
+     * to score rows with no map lookups and without building the rules of
+     * the paths. The compiled iforest is built once and reused in later
+     * calls.
+     *
+     * @return the compiled version of the iforest
+     */
+    public CompiledIsolationForest compile() {
+        CompiledIsolationForest compiled = compiledForest;
+        if( compiled == null ) {
+            if( this.iforest == null || this.iforest.isEmpty() ) {
+                throw new IllegalStateException("We could not find the iforest information to " +
+                        "compute the anomaly score. Please, rebuild your " +
+                        "Anomaly object from a complete anomaly detector " +
+                        "resource.");
+            }
+
+            compiled = new CompiledIsolationForest(iforest, fields, expectedMeanDepth);
+            compiledForest = compiled;
+        }
+        return compiled;
     }
 
     /**
@@ -182,7 +311,7 @@ public class LocalAnomaly extends ModelFields implements Serializable {
                 if( value == null ) {
                     filterRules.add(String.format("(missing? \"%s\")", fieldId));
                 } else {
-                    String optType = (String) Utils.getJSONObject(super.fields, String.format("%s.optype",fieldId));
+                    String optType = (String) FIELD_OPTYPE.getField(super.fields, fieldId);
                     if ( "categorical".equals(optType) || "text".equals(optType) ) {
                         value = String.format("\"%s\"", value.toString());
                     }
@@ -4,6 +4,7 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.bigml.binding.localmodel.Predicate;
 import org.bigml.binding.resources.AbstractResource;
+import org.bigml.binding.utils.JSONPath;
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -54,6 +55,9 @@ public class LocalCluster extends ModelFields {
     protected static final String[] CSV_STATISTICS = {"minimum", "mean", "median", "maximum", "standard_deviation",
             "sum", "sum_squares", "variance" };
 
+    private static final JSONPath CASE_SENSITIVE = JSONPath.compile("term_analysis.case_sensitive");
+    private static final JSONPath TOKEN_MODE = JSONPath.compile("term_analysis.token_mode");
+
 
     private String clusterId;
 
@@ -67,8 +71,14 @@ public class LocalCluster extends ModelFields {
     private Map<String, Map<String, Integer>> tagClouds;
     private JSONObject termAnalysis;
 
+    // Term analysis options of each text field, resolved at construction
+    private Map<String, Boolean> caseSensitive;
+    private Map<String, String> tokenModes;
+
     private JSONArray summaryFields;
 
+    private CompiledCentroids compiledCentroids;
+
     public LocalCluster(JSONObject clusterData) throws Exception {
         super((JSONObject) Utils.getJSONObject(clusterData, "clusters.fields"));
 
@@ -104,6 +114,8 @@ public class LocalCluster extends ModelFields {
                 termForms = new JSONObject();
                 tagClouds = new HashMap<String, Map<String, Integer>>();
                 termAnalysis = new JSONObject();
+                caseSensitive = new HashMap<String, Boolean>();
+                tokenModes = new HashMap<String, String>();
 
                 summaryFields = (JSONArray) Utils.getJSONObject(cluster, "summary_fields");
 
@@ -128,6 +140,10 @@ public class LocalCluster extends ModelFields {
 
 
                         termAnalysis.put(fieldId, Utils.getJSONObject(field, "term_analysis", new JSONObject()));
+                        caseSensitive.put(fieldId.toString(),
+                                (Boolean) CASE_SENSITIVE.get(field, Boolean.TRUE));
+                        tokenModes.put(fieldId.toString(),
+                                (String) TOKEN_MODE.get(field, Predicate.TM_ALL));
                     }
                 }
 
@@ -141,6 +157,8 @@ public class LocalCluster extends ModelFields {
                     }
                 }
 
+                compiledCentroids = CompiledCentroids.compile(centroids, scales);
+
             } else {
                 throw new Exception("The cluster isn't finished yet");
             }
@@ -166,26 +184,17 @@ public class LocalCluster extends ModelFields {
             byName = true;
         }
 
-        // Checks and cleans input_data leaving the fields used in the model
-        inputData = filterInputData(inputData, byName);
+        inputData = prepareInputData(inputData, byName);
+        Map<String, Object> uniqueTerms = getUniqueTerms(inputData);
 
-        // Checks that all numeric fields are present in input data
-        for (Object fieldId : fields.keySet()) {
-            JSONObject field = (JSONObject) fields.get(fieldId);
-            if( Arrays.binarySearch(OPTIONAL_FIELDS, field.get("optype")) == -1 &&
-                !inputData.containsKey(fieldId) ) {
-                 throw new IllegalArgumentException("Failed to predict a centroid. Input" +
-                                     " data must contain values for all " +
-                                     "numeric fields to find a centroid.");
-            }
+        if( compiledCentroids != null ) {
+            CompiledCentroids.Row row = compiledCentroids.encode(inputData, uniqueTerms);
+            int nearest = compiledCentroids.nearest(row);
+            return nearestCentroid(nearest, (nearest >= 0 ?
+                    compiledCentroids.distance2(nearest, row, Double.POSITIVE_INFINITY) :
+                    Double.POSITIVE_INFINITY));
         }
 
-        // Strips affixes for numeric values and casts to the final field type
-        Utils.cast(inputData, fields);
-        inputData = new JSONObject(inputData);
-
-        Map<String, Object> uniqueTerms = getUniqueTerms(inputData);
-
         JSONObject nearest = new JSONObject();
         nearest.put("centroid_id", null);
         nearest.put("centroid_name", null);
@@ -206,6 +215,72 @@ public class LocalCluster extends ModelFields {
         return nearest;
     }
 
+    /**
+     * Returns the nearest centroid of each of the rows, as
+     * calculateCentroid does.
+     *
+     * The rows are encoded first and then all of them are compared to
+     * the compiled centroids.
+     */
+    public List<JSONObject> calculateCentroids(List<JSONObject> inputData, Boolean byName) {
+        if(byName == null) {
+            byName = true;
+        }
+
+        List<JSONObject> nearest = new ArrayList<JSONObject>(inputData.size());
+        if( compiledCentroids == null ) {
+            for (JSONObject rowData : inputData) {
+                nearest.add(calculateCentroid(rowData, byName));
+            }
+            return nearest;
+        }
+
+        CompiledCentroids.Row[] rows = new CompiledCentroids.Row[inputData.size()];
+        for (int i = 0; i < rows.length; i++) {
+            JSONObject rowData = prepareInputData(inputData.get(i), byName);
+            rows[i] = compiledCentroids.encode(rowData, getUniqueTerms(rowData));
+        }
+
+        double[] distances2 = new double[rows.length];
+        int[] indexes = compiledCentroids.nearest(rows, distances2);
+        for (int i = 0; i < rows.length; i++) {
+            nearest.add(nearestCentroid(indexes[i], distances2[i]));
+        }
+        return nearest;
+    }
+
+    private JSONObject nearestCentroid(int index, double distance2) {
+        JSONObject nearest = new JSONObject();
+        nearest.put("centroid_id", (index >= 0 ? compiledCentroids.getCentroidId(index) : null));
+        nearest.put("centroid_name", (index >= 0 ? compiledCentroids.getName(index) : null));
+        nearest.put("distance", Math.sqrt(distance2));
+        return nearest;
+    }
+
+    /**
+     * Checks and cleans the input data leaving the fields used in the
+     * model and casts the values to the type of their fields
+     */
+    private JSONObject prepareInputData(JSONObject inputData, boolean byName) {
+        // Checks and cleans input_data leaving the fields used in the model
+        inputData = filterInputData(inputData, byName);
+
+        // Checks that all numeric fields are present in input data
+        for (Object fieldId : fields.keySet()) {
+            JSONObject field = (JSONObject) fields.get(fieldId);
+            if( Arrays.binarySearch(OPTIONAL_FIELDS, field.get("optype")) == -1 &&
+                !inputData.containsKey(fieldId) ) {
+                 throw new IllegalArgumentException("Failed to predict a centroid. Input" +
+                                     " data must contain values for all " +
+                                     "numeric fields to find a centroid.");
+            }
+        }
+
+        // Strips affixes for numeric values and casts to the final field type
+        Utils.cast(inputData, fields);
+        return new JSONObject(inputData);
+    }
+
     /**
      * Parses the input data to find the list of unique terms in the
      * tag cloud
@@ -219,10 +294,8 @@ public class LocalCluster extends ModelFields {
                 inputDataField = (inputDataField != null ? inputDataField : "");
 
                 if( inputDataField instanceof String ) {
-                    boolean caseSensitive = (Boolean) Utils.getJSONObject(termAnalysis,
-                            fieldId + ".case_sensitive", Boolean.TRUE);
-                    String tokenMode = (String) Utils.getJSONObject(termAnalysis,
-                            fieldId + ".token_mode", "all");
+                    boolean caseSensitive = this.caseSensitive.get(fieldId.toString());
+                    String tokenMode = tokenModes.get(fieldId.toString());
 
                     List<String> terms = new ArrayList<String>();
                     if( !Predicate.TM_FULL_TERM.equals(tokenMode) ) {
@@ -24,7 +24,9 @@ package org.bigml.binding;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
+import org.bigml.binding.utils.MemoryCache;
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -54,12 +56,19 @@ public class LocalEnsemble implements Serializable {
     private JSONObject fields;
     private Map<String, String> fieldNames = new HashMap<String, String>();
 
-    private final List<JSONArray> models_split = new ArrayList<JSONArray>();
+    private final List<MultiModel> splitMultiModels = new ArrayList<MultiModel>();
 
     private final MultiModel multiModel;
 
     private JSONArray distribution = null;
 
+    /**
+     * The cache of the local models when they are built lazily
+     */
+    private transient MemoryCache membersCache;
+
+    private transient volatile ThreadLocal<VoteAccumulator> voteAccumulators;
+
     public LocalEnsemble(JSONObject ensemble, String storage, Integer max)
             throws Exception {
         this(ensemble, max);
@@ -72,39 +81,7 @@ public class LocalEnsemble implements Serializable {
      *            the json representation for the remote ensemble
      */
     public LocalEnsemble(JSONObject ensemble) throws Exception {
-
-        if (ensemble.get("objects") != null) {
-            throw new IllegalArgumentException("Embedded objects unsupported");
-        } else {
-            String prefix = Utils.getJSONObject(ensemble, "object") != null ? "object."
-                    : "";
-
-            this.ensembleId = (String) Utils.getJSONObject(ensemble,
-                    prefix + "resource");
-
-            JSONArray modelsJson = (JSONArray) Utils.getJSONObject(ensemble,
-                    prefix + "models");
-            distribution = (JSONArray) Utils.getJSONObject(ensemble,
-                    prefix + "distributions");
-
-
-            int mn = modelsJson.size();
-            modelsIds = new String[mn];
-            for (int i = 0; i < mn; i++) {
-                modelsIds[i] = (String) modelsJson.get(i);
-            }
-        }
-
-        BigMLClient bigmlClient = BigMLClient.getInstance();
-        models = new JSONArray();
-
-        for (String id : modelsIds) {
-            models.add(bigmlClient.getModel(id));
-        }
-
-        multiModel = new MultiModel(models);
-
-        calculateFields();
+        this(ensemble, (Integer) null);
     }
 
     /**
@@ -115,6 +92,24 @@ public class LocalEnsemble implements Serializable {
      *            the json representation for the remote ensemble
      */
     public LocalEnsemble(JSONObject ensemble, Integer maxModels) throws Exception {
+        this(ensemble, maxModels, (BigMLClient) null);
+    }
+
+    /**
+     * Constructor with an Ensemble reference whose models are retrieved
+     * with the given client, and the number of max models to use
+     *
+     * @param ensemble
+     *            the json representation for the remote ensemble
+     * @param maxModels
+     *            the maximum number of models we will use in the ensemble
+     *            null if we do not want a maxModels value
+     * @param client
+     *            the client used to retrieve the models or null to use
+     *            the default instance
+     */
+    public LocalEnsemble(JSONObject ensemble, Integer maxModels,
+                         BigMLClient client) throws Exception {
 
         if (ensemble.get("objects") != null) {
             throw new IllegalArgumentException("Embedded objects unsupported");
@@ -136,67 +131,259 @@ public class LocalEnsemble implements Serializable {
             }
         }
 
-        BigMLClient bigmlClient = BigMLClient.getInstance();
-        models = new JSONArray();
+        models = ModelFetcher.getDefault().fetch(Arrays.asList(modelsIds),
+                client);
+        multiModel = new MultiModel(models);
+        splitModels(maxModels);
 
-        for (String id : modelsIds) {
-            models.add(bigmlClient.getModel(id));
-        }
-        int numberOfModels = models.size();
+        calculateFields();
+    }
 
-        if( maxModels != null && maxModels > 1 ) {
-            int[] items = Utils.getRange(0, numberOfModels, maxModels);
-            for (int item : items) {
-                if( item+maxModels <= numberOfModels ) {
-                    JSONArray arrayOfModels = new JSONArray();
-                    arrayOfModels.addAll(models.subList(item, item + maxModels));
-                    models_split.add(arrayOfModels);
-                }
-            }
+    /**
+     * Constructor with a list of model references and the number
+     *  of max models to use
+     *
+     * @param modelsIds
+     *            the model/id of each model to be used in the ensemble or
+     *            the JSON structure of the already retrieved model
+     * @param maxModels
+     *            the maximum number of models we will use in the ensemble
+     *            null if we do not want a maxModels value
+     */
+    public LocalEnsemble(List modelsIds, Integer maxModels) throws Exception {
+        this(modelsIds, maxModels, (BigMLClient) null);
+    }
+
+    /**
+     * Constructor with a list of model references retrieved with the
+     * given client, and the number of max models to use
+     *
+     * @param modelsIds
+     *            the model/id of each model to be used in the ensemble or
+     *            the JSON structure of the already retrieved model
+     * @param maxModels
+     *            the maximum number of models we will use in the ensemble
+     *            null if we do not want a maxModels value
+     * @param client
+     *            the client used to retrieve the models or null to use
+     *            the default instance
+     */
+    public LocalEnsemble(List modelsIds, Integer maxModels, BigMLClient client)
+            throws Exception {
+        this.modelsIds = new String[modelsIds.size()];
+        for (int i = 0; i < this.modelsIds.length; i++) {
+            Object model = modelsIds.get(i);
+            this.modelsIds[i] = (String) (model instanceof JSONObject ?
+                    ((JSONObject) model).get("resource") : model);
         }
 
+        // The models already available are not retrieved again
+        models = ModelFetcher.getDefault().fetch(modelsIds, client);
         multiModel = new MultiModel(models);
+        splitModels(maxModels);
 
         calculateFields();
     }
 
     /**
-     * Constructor with a list of model references and the number
-     *  of max models to use
+     * Constructor with an Ensemble reference whose models are retrieved
+     * and built only when they are needed. See
+     * {@link #LocalEnsemble(List, Integer, MemoryCache)}.
+     *
+     * @param ensemble
+     *            the json representation for the remote ensemble
+     * @param maxModels
+     *            the maximum number of models we will use in the ensemble
+     *            null if we do not want a maxModels value
+     * @param membersCache
+     *            the cache where the local models are kept
+     */
+    public LocalEnsemble(JSONObject ensemble, Integer maxModels,
+                         MemoryCache membersCache) throws Exception {
+        this(ensemble, maxModels, membersCache, null);
+    }
+
+    /**
+     * Constructor with an Ensemble reference whose models are retrieved
+     * and built only when they are needed. See
+     * {@link #LocalEnsemble(List, Integer, MemoryCache, BigMLClient)}.
+     *
+     * The fields of the ensemble are taken from the ensemble when it
+     * includes them, so no model is retrieved until a prediction is made.
+     *
+     * @param ensemble
+     *            the json representation for the remote ensemble
+     * @param maxModels
+     *            the maximum number of models we will use in the ensemble
+     *            null if we do not want a maxModels value
+     * @param membersCache
+     *            the cache where the local models are kept
+     * @param client
+     *            the client used to retrieve the models or null to use
+     *            the default instance
+     */
+    public LocalEnsemble(JSONObject ensemble, Integer maxModels,
+                         MemoryCache membersCache, BigMLClient client)
+            throws Exception {
+        this(getModelsIds(ensemble), maxModels, membersCache, client);
+
+        String prefix = Utils.getJSONObject(ensemble, "object") != null ? "object."
+                : "";
+        this.ensembleId = (String) Utils.getJSONObject(ensemble,
+                prefix + "resource");
+        distribution = (JSONArray) Utils.getJSONObject(ensemble,
+                prefix + "distributions");
+
+        JSONObject ensembleFields = (JSONObject) Utils.getJSONObject(ensemble,
+                prefix + "ensemble.fields");
+        if( ensembleFields != null ) {
+            setFields(ensembleFields);
+        }
+    }
+
+    /**
+     * Constructor with a list of model references whose models are
+     * retrieved and built only when they are needed.
+     *
+     * The local models are kept in the membersCache, whose maximum weight
+     * is the memory budget for them, and the least recently used ones are
+     * evicted when it's exceeded. The evicted models are retrieved again
+     * when needed, so the client should have a storage directory to read
+     * them from the CacheManager. The cache can be shared by several
+     * ensembles.
+     *
+     * No model is retrieved at construction. The fields of the ensemble are
+     * computed the first time they are needed, retrieving the models one at
+     * a time and keeping only their fields.
      *
      * @param modelsIds
-     *            the model/id of each model to be used in the ensemble
+     *            the model/id of each model to be used in the ensemble or
+     *            the JSON structure of the already retrieved model
      * @param maxModels
      *            the maximum number of models we will use in the ensemble
      *            null if we do not want a maxModels value
+     * @param membersCache
+     *            the cache where the local models are kept
      */
-    public LocalEnsemble(List modelsIds, Integer maxModels) throws Exception {
-        this.modelsIds = (String[]) modelsIds.toArray(new String[modelsIds.size()]);
-        BigMLClient bigmlClient = BigMLClient.getInstance();
-        models = new JSONArray();
+    public LocalEnsemble(List modelsIds, Integer maxModels,
+                         MemoryCache membersCache) throws Exception {
+        this(modelsIds, maxModels, membersCache, null);
+    }
 
-        for (String id : this.modelsIds) {
-            models.add(bigmlClient.getModel(id));
+    /**
+     * Constructor with a list of model references whose models are
+     * retrieved with the given client and built only when they are needed.
+     * See {@link #LocalEnsemble(List, Integer, MemoryCache)}.
+     *
+     * @param modelsIds
+     *            the model/id of each model to be used in the ensemble or
+     *            the JSON structure of the already retrieved model
+     * @param maxModels
+     *            the maximum number of models we will use in the ensemble
+     *            null if we do not want a maxModels value
+     * @param membersCache
+     *            the cache where the local models are kept
+     * @param client
+     *            the client used to retrieve the models or null to use
+     *            the default instance
+     */
+    public LocalEnsemble(List modelsIds, Integer maxModels,
+                         MemoryCache membersCache, BigMLClient client)
+            throws Exception {
+        if( membersCache == null ) {
+            throw new IllegalArgumentException("A cache is needed to keep " +
+                    "the local models.");
         }
+        this.membersCache = membersCache;
 
-        int numberOfModels = models.size();
+        this.modelsIds = new String[modelsIds.size()];
+        for (int i = 0; i < this.modelsIds.length; i++) {
+            Object model = modelsIds.get(i);
+            this.modelsIds[i] = (String) (model instanceof JSONObject ?
+                    ((JSONObject) model).get("resource") : model);
+        }
+
+        multiModel = new MultiModel(Arrays.asList(this.modelsIds), membersCache,
+                client);
+        models = multiModel.listModels();
+        splitModels(maxModels);
+    }
+
+    /**
+     * The model/id of every model of the ensemble
+     */
+    private static List<String> getModelsIds(JSONObject ensemble) {
+        if (ensemble.get("objects") != null) {
+            throw new IllegalArgumentException("Embedded objects unsupported");
+        }
 
-        if( maxModels != null && maxModels > 1 ) {
-            int[] items = Utils.getRange(0, numberOfModels, maxModels);
-            for (int item : items) {
-                JSONArray arrayOfModels = new JSONArray();
-                arrayOfModels.addAll(models.subList(item, item+maxModels));
-                models_split.add(arrayOfModels);
+        String prefix = Utils.getJSONObject(ensemble, "object") != null ? "object."
+                : "";
+        JSONArray modelsJson = (JSONArray) Utils.getJSONObject(ensemble,
+                prefix + "models");
+
+        List<String> modelsIds = new ArrayList<String>(modelsJson.size());
+        for (Object modelId : modelsJson) {
+            modelsIds.add((String) modelId);
+        }
+        return modelsIds;
+    }
+
+    /**
+     * The accumulator of the votes of the current thread, reused by all
+     * its predictions
+     */
+    private VoteAccumulator getVoteAccumulator() {
+        if( voteAccumulators == null ) {
+            synchronized (this) {
+                if( voteAccumulators == null ) {
+                    voteAccumulators = new ThreadLocal<VoteAccumulator>() {
+                        @Override
+                        protected VoteAccumulator initialValue() {
+                            return new VoteAccumulator();
+                        }
+                    };
+                }
             }
         }
+        return voteAccumulators.get();
+    }
 
-        multiModel = new MultiModel(models);
+    /**
+     * The JSON structure of the model at the given position. When the models
+     * are built lazily, it's retrieved again and not kept.
+     */
+    private JSONObject getModel(int index) {
+        if( membersCache == null ) {
+            return (JSONObject) models.get(index);
+        }
 
-        calculateFields();
+        try {
+            return ((LazyLocalModels) multiModel.getLocalModels()).getModel(index);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
     }
 
+    /**
+     * Splits the models in groups of maxModels. The groups share the local
+     * models of the multiModel and are built only once. The last group
+     * keeps the remaining models when they are less than maxModels.
+     */
+    private void splitModels(Integer maxModels) {
+        if( maxModels == null || maxModels <= 1 ) {
+            return;
+        }
+
+        int numberOfModels = models.size();
+        for (int item = 0; item < numberOfModels; item += maxModels) {
+            splitMultiModels.add(new MultiModel(multiModel, item,
+                    Math.min(item + maxModels, numberOfModels)));
+        }
+    }
 
     public List<JSONArray> getFieldImportanceData() {
+        ensureFields();
         Map<String, Double> fieldImportance = new HashMap<String, Double>();
 
         boolean useDistribution = false;
@@ -232,8 +419,8 @@ public class LocalEnsemble implements Serializable {
                 }
             }
         } else {
-            for (Object model : models) {
-                JSONObject modelObj = (JSONObject) model;
+            for (int i = 0; i < models.size(); i++) {
+                JSONObject modelObj = getModel(i);
                 JSONArray fieldImportanceInfo = (JSONArray) Utils.getJSONObject(modelObj,
                         "object.model.importance");;
                 for (Object fieldInfo : fieldImportanceInfo) {
@@ -283,6 +470,7 @@ public class LocalEnsemble implements Serializable {
      * from the union of fields in all models of the ensemble.
      */
     public JSONObject getFields() {
+        ensureFields();
         return fields;
     }
 
@@ -291,29 +479,81 @@ public class LocalEnsemble implements Serializable {
      * from the union of fields in all models of the ensemble.
      */
     public Map<String, String> getFieldNames() {
+        ensureFields();
         return fieldNames;
     }
 
+    /**
+     * Sets the executor used to evaluate the models of the ensemble in
+     * parallel. Ensembles with less models than parallelThreshold are
+     * evaluated in the calling thread.
+     *
+     * The predicting thread waits for the models it submits, so it must
+     * not be one of the threads of a bounded executor: if all of its
+     * threads are waiting for their own ensembles, none of the models can
+     * be evaluated and the predictions never finish.
+     *
+     * @param executor the executor service (a ForkJoinPool can be used too)
+     *                 or null to evaluate the models in the calling thread
+     * @param parallelThreshold the minimum number of models needed to use
+     *                          the executor
+     */
+    public void setExecutor(ExecutorService executor, int parallelThreshold) {
+        multiModel.setExecutor(executor, parallelThreshold);
+    }
+
+    /**
+     * Releases the local models built for the models in the ensemble.
+     *
+     * They are kept between predictions to avoid building them again
+     * and will be built when a new prediction is requested.
+     */
+    public void release() {
+        multiModel.release();
+    }
+
     /**
      * Calculates the full list of fields used by this ensemble. It's obtained
      * from the union of fields in all models of the ensemble.
      */
-    protected void  calculateFields() {
-        fields = new JSONObject();
-        fieldNames.clear();
+    protected synchronized void  calculateFields() {
+        JSONObject allFields = new JSONObject();
 
+        // When the models are built lazily, they are retrieved one at
+        // a time and only their fields are kept
         for (int i = 0; i < this.modelsIds.length; i++) {
-            JSONObject model = (JSONObject) this.models.get(i);
-            JSONObject fields = (JSONObject) Utils.getJSONObject(model,
+            JSONObject modelFields = (JSONObject) Utils.getJSONObject(getModel(i),
                     "object.model.fields");
-            for (Object k : fields.keySet()) {
-                if (null != fields.get(k)) {
-                    String fieldName = (String) ((JSONObject) fields.get(k)).get("name");
-                    this.fields.put(k, fields.get(k));
-                    this.fieldNames.put((String) k, fieldName);
+            for (Object k : modelFields.keySet()) {
+                if (null != modelFields.get(k)) {
+                    allFields.put(k, modelFields.get(k));
                 }
             }
         }
+
+        setFields(allFields);
+    }
+
+    /**
+     * Computes the fields the first time they are needed
+     */
+    private synchronized void ensureFields() {
+        if( fields == null ) {
+            calculateFields();
+        }
+    }
+
+    private synchronized void setFields(JSONObject allFields) {
+        Map<String, String> allFieldNames = new HashMap<String, String>();
+        for (Object k : allFields.keySet()) {
+            if (null != allFields.get(k)) {
+                allFieldNames.put((String) k,
+                        (String) ((JSONObject) allFields.get(k)).get("name"));
+            }
+        }
+
+        this.fields = allFields;
+        this.fieldNames = allFieldNames;
     }
 
     /**
@@ -392,35 +632,27 @@ public class LocalEnsemble implements Serializable {
             addMedian = false;
         }
 
-        MultiVote votes = null;
-
-        if( models_split != null && !models_split.isEmpty() ) {
-            votes = new MultiVote();
-            for (JSONArray splitModels : models_split) {
-                MultiModel splitMultiModel = new MultiModel(splitModels);
-                MultiVote splitVotes = splitMultiModel.generateVotes(inputData,
-                        byName, missingStrategy, addMedian);
-
-                if( addMedian ) {
-                    for (HashMap<Object, Object> prediction : splitVotes.getPredictions()) {
-                        prediction.put("prediction", prediction.get("median"));
-                    }
-                }
-
-                votes.extend(splitVotes);
-            }
-        } else {
-            // When only one group of models is found you use the
-            // corresponding multimodel to predict
-            votes = this.multiModel.generateVotes(inputData, byName, missingStrategy, addMedian);
-            if( addMedian ) {
-                for (HashMap<Object, Object> prediction : votes.getPredictions()) {
-                    prediction.put("prediction", prediction.get("median"));
+        VoteAccumulator votes = getVoteAccumulator();
+        try {
+            if( !splitMultiModels.isEmpty() ) {
+                // The votes of every group are appended in order to the
+                // same accumulator
+                for (MultiModel splitMultiModel : splitMultiModels) {
+                    splitMultiModel.generateVotes(inputData, byName,
+                            missingStrategy, addMedian, votes);
                 }
+            } else {
+                // When only one group of models is found you use the
+                // corresponding multimodel to predict
+                this.multiModel.generateVotes(inputData, byName, missingStrategy,
+                        addMedian, votes);
             }
-        }
 
-        return votes.combine(method, withConfidence, addConfidence, addDistribution, addCount, addMedian, options);
+            return votes.combine(method, withConfidence, addConfidence,
+                    addDistribution, addCount, addMedian, options);
+        } finally {
+            votes.reset();
+        }
 
     }
 
@@ -35,8 +35,10 @@ package org.bigml.binding;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.bigml.binding.localmodel.CompiledTreeModel;
 import org.bigml.binding.localmodel.Predicate;
 import org.bigml.binding.localmodel.Prediction;
+import org.bigml.binding.localmodel.PredictionBatch;
 import org.bigml.binding.localmodel.Tree;
 import org.bigml.binding.localmodel.TreeNodeFilter;
 import org.bigml.binding.utils.Utils;
@@ -101,6 +103,7 @@ public class LocalPredictiveModel extends BaseModel implements PredictionConvert
     private Map<String, Tree> idsMap;
     private Map<String, List<String>> terms = new HashMap<String, List<String>>();
     private int maxBins = 0;
+    private transient CompiledTreeModel compiledTree;
 
 
     /**
@@ -148,6 +151,20 @@ public class LocalPredictiveModel extends BaseModel implements PredictionConvert
         return tree.isRegression();
     }
 
+    /**
+     * Compiles the tree into flat arrays that can be used to make
+     * predictions with no map lookups. The compiled model is built
+     * once and reused in later calls.
+     *
+     * @return the compiled version of the tree
+     */
+    public synchronized CompiledTreeModel compile() {
+        if( compiledTree == null ) {
+            compiledTree = new CompiledTreeModel(tree, fields, objectiveField);
+        }
+        return compiledTree;
+    }
+
     /**
      * Returns a list that includes all the leaves of the model.
      *
@@ -380,6 +397,184 @@ public class LocalPredictiveModel extends BaseModel implements PredictionConvert
         }
     }
 
+    /**
+     * Makes a lean prediction based on a number of field values using the
+     * specified Missing Strategy.
+     *
+     * The prediction only holds the output, the confidence and the count,
+     * so no rules are formatted while the tree is traversed. The path,
+     * distribution, distribution unit, median and children are built when
+     * their getters are called, and the next field is not set.
+     *
+     * By default the input fields must be keyed by field name but you can use
+     *  `byName` to input them directly keyed by id.
+     */
+    public Prediction predictLean(final JSONObject args, Boolean byName, MissingStrategy strategy)
+            throws InputDataParseException {
+        if (byName == null) {
+            byName = true;
+        }
+
+        if (args == null) {
+            throw new InputDataParseException("Input data format not valid");
+        }
+
+        // Checks and cleans inputData leaving the fields used in the model
+        JSONObject inputData = filterInputData(args, byName);
+
+        // Strips affixes for numeric values and casts to the final field type
+        Utils.cast(inputData, fields);
+
+        return tree.predictLean(inputData, strategy);
+    }
+
+    /**
+     * Makes the predictions for a batch of rows using the Last Prediction
+     * strategy.
+     *
+     * The fields of the rows are resolved once for the whole batch, the values
+     * are cast column by column and the predictions are made with the compiled
+     * version of the tree, so no intermediate input data is built per row.
+     *
+     * @param rows the rows to be predicted, keyed by field name or id
+     * @param byName true if the rows are keyed by field name
+     * @return the predictions, in the same order as the rows
+     */
+    public PredictionBatch predictBatch(final List<? extends Map> rows, Boolean byName) {
+        if (byName == null) {
+            byName = true;
+        }
+
+        CompiledTreeModel compiled = compile();
+        Object[][] columns = new Object[compiled.getFieldIds().length][rows.size()];
+
+        // The position of every key in the compiled layout, -1 for the
+        // keys that are not used as predictors in the model
+        Map<Object, Integer> keysIndex = new HashMap<Object, Integer>();
+        for (int row = 0; row < rows.size(); row++) {
+            for (Object entry : rows.get(row).entrySet()) {
+                Map.Entry field = (Map.Entry) entry;
+                Integer index = keysIndex.get(field.getKey());
+                if( index == null ) {
+                    index = layoutIndex(compiled, field.getKey(), byName);
+                    keysIndex.put(field.getKey(), index);
+                }
+                if( index >= 0 ) {
+                    columns[index][row] = field.getValue();
+                }
+            }
+        }
+
+        return predictColumns(compiled, columns, rows.size());
+    }
+
+    /**
+     * Makes the predictions for a batch of rows given as columns using
+     * the Last Prediction strategy.
+     *
+     * @param header the name or id of the field in every column
+     * @param columns the values of each column, all of them with the same
+     *                number of rows
+     * @param byName true if the header contains field names
+     * @return the predictions, in the same order as the rows
+     */
+    public PredictionBatch predictBatch(final String[] header, final Object[][] columns,
+                                        Boolean byName) {
+        if (byName == null) {
+            byName = true;
+        }
+        if( header.length != columns.length ) {
+            throw new IllegalArgumentException(String.format("The header has %d " +
+                    "fields but %d columns were given.", header.length, columns.length));
+        }
+
+        int size = (columns.length > 0 ? columns[0].length : 0);
+        CompiledTreeModel compiled = compile();
+        Object[][] layoutColumns = new Object[compiled.getFieldIds().length][];
+        for (int i = 0; i < header.length; i++) {
+            if( columns[i].length != size ) {
+                throw new IllegalArgumentException(String.format("The column \"%s\" " +
+                        "has %d rows but %d were expected.", header[i], columns[i].length, size));
+            }
+            int index = layoutIndex(compiled, header[i], byName);
+            if( index >= 0 ) {
+                layoutColumns[index] = columns[i];
+            }
+        }
+
+        return predictColumns(compiled, layoutColumns, size);
+    }
+
+    /**
+     * The position in the compiled layout of a field given by name or id
+     */
+    private int layoutIndex(CompiledTreeModel compiled, Object key, boolean byName) {
+        Object fieldId = (byName ? fieldsIdByName.get(key.toString()) : key);
+        return (fieldId != null ? compiled.getFieldIndex(fieldId.toString()) : -1);
+    }
+
+    /**
+     * Casts the columns in the layout of the compiled model and predicts
+     * every row. Missing columns are given as null.
+     */
+    private PredictionBatch predictColumns(CompiledTreeModel compiled,
+                                           Object[][] columns, int size) {
+        String[] fieldIds = compiled.getFieldIds();
+        boolean numericRows = compiled.isNumericOnly();
+        Set<Object> missing = new HashSet<Object>(missingTokens);
+
+        // Casts every column at once, resolving the field only once
+        double[][] numericColumns = new double[fieldIds.length][];
+        for (int i = 0; i < fieldIds.length; i++) {
+            if( columns[i] == null ) {
+                continue;
+            }
+
+            JSONObject field = (JSONObject) fields.get(fieldIds[i]);
+            boolean numeric = Constants.OPTYPE_NUMERIC.equals(field.get("optype"));
+            Object[] column = new Object[size];
+            double[] numericColumn = (numeric && numericRows ? new double[size] : null);
+            for (int row = 0; row < size; row++) {
+                Object value = columns[i][row];
+                if( value == null || missing.contains(value) ) {
+                    value = null;
+                } else if( numeric ? !(value instanceof Number) : !(value instanceof String) ) {
+                    value = Utils.cast(value, field);
+                }
+                column[row] = value;
+
+                if( numericColumn != null ) {
+                    numericColumn[row] = (value != null ?
+                            ((Number) value).doubleValue() : Double.NaN);
+                }
+            }
+            columns[i] = column;
+            numericColumns[i] = numericColumn;
+            numericRows &= numeric;
+        }
+
+        int[] nodes = new int[size];
+        if( numericRows ) {
+            double[] row = new double[fieldIds.length];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < fieldIds.length; j++) {
+                    row[j] = (numericColumns[j] != null ? numericColumns[j][i] : Double.NaN);
+                }
+                nodes[i] = compiled.findNode(row);
+            }
+        } else {
+            Object[] row = new Object[fieldIds.length];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < fieldIds.length; j++) {
+                    row[j] = (columns[j] != null ? columns[j][i] : null);
+                }
+                nodes[i] = compiled.findNode(row);
+            }
+        }
+
+        return new PredictionBatch(compiled, nodes);
+    }
+
     /**
      * Convenience version of predict that take as inputs a map from field ids
      * or names to their values as Java objects. See also predict(String,
@@ -0,0 +1,257 @@
+package org.bigml.binding;
+
+import org.bigml.binding.resources.AbstractResource;
+import org.bigml.binding.utils.CacheManager;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Retrieves the models of an ensemble concurrently.
+ *
+ * The models found in the cache of the client are read in the calling
+ * thread and the rest are retrieved using an executor, with no more than
+ * maxConcurrency requests running at the same time. When no executor is
+ * given, a pool of daemon threads is created for every fetch and shut
+ * down when it ends.
+ *
+ * All the models are retrieved even if some of them fail, and the
+ * failures are reported together in a single exception.
+ */
+public class ModelFetcher {
+
+    // Logging
+    static Logger logger = LoggerFactory.getLogger(ModelFetcher.class);
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+
+    private static volatile ModelFetcher defaultFetcher;
+
+    private final ExecutorService executor;
+    private final int maxConcurrency;
+
+    public ModelFetcher() {
+        this(null, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    public ModelFetcher(int maxConcurrency) {
+        this(null, maxConcurrency);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param executor the executor used to retrieve the models or null to
+     *                 create a new pool for every fetch
+     * @param maxConcurrency the maximum number of models retrieved at
+     *                       the same time
+     */
+    public ModelFetcher(ExecutorService executor, int maxConcurrency) {
+        super();
+
+        if( maxConcurrency < 1 ) {
+            throw new IllegalArgumentException(
+                    "The maximum concurrency must be positive.");
+        }
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * The fetcher used by the ensembles. It's created the first time
+     * it's needed.
+     */
+    public static ModelFetcher getDefault() {
+        ModelFetcher result = defaultFetcher;
+        if( result == null ) {
+            synchronized (ModelFetcher.class) {
+                if( defaultFetcher == null ) {
+                    defaultFetcher = new ModelFetcher();
+                }
+                result = defaultFetcher;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the fetcher used by the ensembles.
+     *
+     * @param fetcher the fetcher or null to use a new default one
+     */
+    public static void setDefault(ModelFetcher fetcher) {
+        defaultFetcher = fetcher;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Retrieves the models, keeping their order.
+     *
+     * @param models the model/id of every model or the JSON structure of
+     *               the models already retrieved
+     * @return the JSON structure of every model
+     * @throws Exception if any of the models can't be retrieved
+     */
+    public JSONArray fetch(List<?> models) throws Exception {
+        return fetch(models, null);
+    }
+
+    /**
+     * Retrieves the models with the given client, keeping their order.
+     *
+     * @param models the model/id of every model or the JSON structure of
+     *               the models already retrieved
+     * @param client the client used to retrieve the models or null to use
+     *               the default instance
+     * @return the JSON structure of every model
+     * @throws Exception if any of the models can't be retrieved
+     */
+    public JSONArray fetch(List<?> models, BigMLClient client) throws Exception {
+        int numberOfModels = models.size();
+        JSONObject[] fetched = new JSONObject[numberOfModels];
+        List<Integer> remote = new ArrayList<Integer>();
+
+        BigMLClient bigmlClient = null;
+        CacheManager cacheManager = null;
+        for (int i = 0; i < numberOfModels; i++) {
+            Object model = models.get(i);
+            if( model instanceof JSONObject ) {
+                // The model is already available, no need to retrieve it
+                fetched[i] = (JSONObject) model;
+                continue;
+            }
+
+            if( bigmlClient == null ) {
+                bigmlClient = (client != null ? client : BigMLClient.getInstance());
+                cacheManager = bigmlClient.getCacheManager();
+            }
+            // The cache is read only once, so a model is not counted as
+            // a hit of the memory tier twice
+            JSONObject cached = (cacheManager != null ?
+                    cacheManager.get((String) model, null) : null);
+            if( cached != null ) {
+                fetched[i] = cachedModel(bigmlClient, (String) model, cached);
+            } else {
+                remote.add(i);
+            }
+        }
+
+        List<String> errors = new ArrayList<String>();
+        if( remote.size() == 1 || (remote.size() > 1 && maxConcurrency == 1) ) {
+            for (Integer i : remote) {
+                fetched[i] = bigmlClient.getModel((String) models.get(i));
+            }
+        } else if( remote.size() > 1 ) {
+            fetchInParallel(bigmlClient, models, remote, fetched, errors);
+        }
+
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < numberOfModels; i++) {
+            JSONObject model = fetched[i];
+            if( model == null ) {
+                continue;
+            }
+            if( !(models.get(i) instanceof JSONObject) &&
+                    model.get("object") == null ) {
+                errors.add(String.format("%s (code %s)", models.get(i),
+                        model.get("code")));
+                continue;
+            }
+            result.add(model);
+        }
+
+        if( !errors.isEmpty() ) {
+            throw new Exception(String.format(
+                    "%d of %d models couldn't be retrieved: %s", errors.size(),
+                    numberOfModels, errors));
+        }
+        return result;
+    }
+
+    /**
+     * The model read from the cache, with the same structure as the
+     * models retrieved by the client
+     */
+    private static JSONObject cachedModel(BigMLClient bigmlClient,
+                                          String modelId, JSONObject model) {
+        JSONObject result = new JSONObject();
+        result.put("code", AbstractResource.HTTP_OK);
+        result.put("resource", modelId);
+        result.put("location", bigmlClient.getBigMLUrl() + modelId);
+        result.put("object", model);
+        result.put("error", new JSONObject());
+        return result;
+    }
+
+    private void fetchInParallel(final BigMLClient bigmlClient, List<?> models,
+                                 List<Integer> remote, JSONObject[] fetched,
+                                 List<String> errors) throws Exception {
+        ExecutorService pool = executor;
+        if( pool == null ) {
+            pool = Executors.newFixedThreadPool(
+                    Math.min(maxConcurrency, remote.size()), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "bigml-model-fetcher-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+
+        final Semaphore permits = new Semaphore(maxConcurrency);
+        List<Future<JSONObject>> futures = new ArrayList<Future<JSONObject>>();
+        try {
+            for (Integer i : remote) {
+                final String modelId = (String) models.get(i);
+                permits.acquire();
+                try {
+                    futures.add(pool.submit(new Callable<JSONObject>() {
+                        public JSONObject call() throws Exception {
+                            try {
+                                return bigmlClient.getModel(modelId);
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            for (int j = 0; j < futures.size(); j++) {
+                int i = remote.get(j);
+                try {
+                    fetched[i] = futures.get(j).get();
+                } catch (ExecutionException e) {
+                    logger.error("Error retrieving " + models.get(i), e.getCause());
+                    errors.add(String.format("%s (%s)", models.get(i),
+                            e.getCause()));
+                }
+            }
+        } finally {
+            if( pool != executor ) {
+                pool.shutdownNow();
+            }
+        }
+    }
+}
@@ -21,12 +21,17 @@ package org.bigml.binding;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
 import org.bigml.binding.localmodel.Prediction;
+import org.bigml.binding.utils.MemoryCache;
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -44,9 +49,50 @@ public class MultiModel implements Serializable {
 
     private static String PREDICTIONS_FILE_SUFFIX = "_predictions.csv";
 
+    /**
+     * Minimum number of models needed to generate the votes in parallel
+     * when an executor is set
+     */
+    public static int DEFAULT_PARALLEL_THRESHOLD = 8;
+
     private JSONArray models;
     private MultiVote votes;
 
+    /**
+     * The local models built from the remote ones. They are built
+     * the first time they are needed and kept until release is called.
+     * The list is published through the volatile field, so the
+     * predictions read it without locking.
+     */
+    private transient volatile List<LocalPredictiveModel> localModels;
+
+    /**
+     * The cache of the local models when they are built lazily
+     */
+    private transient MemoryCache localModelsCache;
+    private transient BigMLClient client;
+
+    /**
+     * The multi model whose local models are shared when this one is
+     * a group of its models
+     */
+    private MultiModel parent;
+    private int from;
+    private int to;
+
+    /**
+     * The local models of the group, resolved once for every list of
+     * local models of the parent
+     */
+    private transient volatile GroupModels groupModels;
+
+    /**
+     * The executor used to generate the votes in parallel and the
+     * minimum number of models needed to use it.
+     */
+    private transient ExecutorService executor;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
     /**
      * Constructor
      * 
@@ -67,6 +113,76 @@ public class MultiModel implements Serializable {
         }
     }
 
+    /**
+     * Constructor for a multi model whose local models are built only
+     * when they are needed and kept in the given cache.
+     *
+     * @param models
+     *              the model/id of every model or their json representation.
+     *              Only the resource of the json representation is kept.
+     * @param localModelsCache
+     *              the cache where the local models are kept. See
+     *              {@link LazyLocalModels}.
+     */
+    public MultiModel(List models, MemoryCache localModelsCache)
+            throws Exception {
+        this(models, localModelsCache, null);
+    }
+
+    /**
+     * Constructor for a multi model whose local models are built only
+     * when they are needed and kept in the given cache.
+     *
+     * @param models
+     *              the model/id of every model or their json representation.
+     *              Only the resource of the json representation is kept.
+     * @param localModelsCache
+     *              the cache where the local models are kept. See
+     *              {@link LazyLocalModels}.
+     * @param client
+     *              the client used to retrieve the models or null to use
+     *              the default instance
+     */
+    public MultiModel(List models, MemoryCache localModelsCache,
+                      BigMLClient client) throws Exception {
+        super();
+
+        if( localModelsCache == null ) {
+            throw new IllegalArgumentException("A cache is needed to keep " +
+                    "the local models.");
+        }
+        this.localModelsCache = localModelsCache;
+        this.client = client;
+
+        this.models = new JSONArray();
+        for (Object model : models) {
+            JSONObject resource = new JSONObject();
+            resource.put("resource", (model instanceof JSONObject ?
+                    ((JSONObject) model).get("resource") : model));
+            this.models.add(resource);
+        }
+    }
+
+    /**
+     * Constructor for a group of the models of another multi model.
+     *
+     * The local models are shared with the other multi model, so they are
+     * built only once, and its executor is used to generate the votes.
+     *
+     * @param multiModel the multi model with all the models
+     * @param from the position of the first model of the group
+     * @param to the position after the last model of the group
+     */
+    MultiModel(MultiModel multiModel, int from, int to) {
+        super();
+
+        this.models = new JSONArray();
+        this.models.addAll(multiModel.models.subList(from, to));
+        this.parent = multiModel;
+        this.from = from;
+        this.to = to;
+    }
+
     /**
      * Lists all the model/ids that compound the multi model.
      */
@@ -74,6 +190,113 @@ public class MultiModel implements Serializable {
         return this.models;
     }
 
+    /**
+     * Returns the local models built for each of the models in the
+     * multi model.
+     *
+     * The local models are built only once and reused in every
+     * prediction until they are released. Only the thread that builds
+     * them takes the lock of the multi model.
+     */
+    public List<LocalPredictiveModel> getLocalModels() throws Exception {
+        if( parent != null ) {
+            return getGroupModels();
+        }
+
+        List<LocalPredictiveModel> result = localModels;
+        if( result == null ) {
+            synchronized (this) {
+                result = localModels;
+                if( result == null ) {
+                    result = buildLocalModels();
+                    localModels = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The models of the group in the local models of the parent. The
+     * sublist is resolved again only when the parent's models have been
+     * released and built again.
+     */
+    private List<LocalPredictiveModel> getGroupModels() throws Exception {
+        List<LocalPredictiveModel> parentModels = parent.getLocalModels();
+
+        GroupModels group = groupModels;
+        if( group == null || group.parentModels != parentModels ) {
+            group = new GroupModels(parentModels,
+                    parentModels.subList(from, to));
+            groupModels = group;
+        }
+        return group.models;
+    }
+
+    private List<LocalPredictiveModel> buildLocalModels() throws Exception {
+        if( localModelsCache != null ) {
+            List<String> modelsIds = new ArrayList<String>(models.size());
+            for (Object model : models) {
+                modelsIds.add((String) ((JSONObject) model).get("resource"));
+            }
+            return new LazyLocalModels(modelsIds, localModelsCache, client);
+        }
+
+        List<LocalPredictiveModel> newLocalModels =
+                new ArrayList<LocalPredictiveModel>(models.size());
+        for (Object model : models) {
+            newLocalModels.add(new LocalPredictiveModel((JSONObject) model));
+        }
+        return newLocalModels;
+    }
+
+    /**
+     * Sets the executor used to generate the votes of the models in
+     * parallel. The votes are generated in the calling thread when
+     * the number of models is below the DEFAULT_PARALLEL_THRESHOLD.
+     *
+     * The predicting thread waits for the tasks it submits, so it must not
+     * be one of the threads of a bounded executor: if all of its threads
+     * are waiting for their own votes, none of the tasks can run and the
+     * predictions never finish.
+     *
+     * @param executor the executor service (a ForkJoinPool can be used too)
+     *                 or null to generate the votes in the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        setExecutor(executor, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Sets the executor used to generate the votes of the models in
+     * parallel. See {@link #setExecutor(ExecutorService)} for the threads
+     * that can predict with it.
+     *
+     * @param executor the executor service (a ForkJoinPool can be used too)
+     *                 or null to generate the votes in the calling thread
+     * @param parallelThreshold the minimum number of models needed to use
+     *                          the executor. Below it, the votes are
+     *                          generated in the calling thread
+     */
+    public void setExecutor(ExecutorService executor, int parallelThreshold) {
+        this.executor = executor;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Releases the local models kept by the multi model.
+     *
+     * They will be built again if a new prediction is requested. The
+     * predictions already running keep using the released models.
+     */
+    public synchronized void release() {
+        localModels = null;
+    }
+
     /**
      * Makes a prediction based on the prediction made by every model.
      * 
@@ -237,10 +460,12 @@ public class MultiModel implements Serializable {
         }
 
         List<MultiVote> votes = new ArrayList<MultiVote>();
+        List<LocalPredictiveModel> localModels = getLocalModels();
         int order = 0;
 
-        for (Object model : models) {
-            JSONObject modelObj = (JSONObject) model;
+        for (int modelIndex = 0; modelIndex < models.size(); modelIndex++) {
+            JSONObject modelObj = (JSONObject) models.get(modelIndex);
+            LocalPredictiveModel localModel = localModels.get(modelIndex);
 
             order += 1;
 
@@ -252,8 +477,6 @@ public class MultiModel implements Serializable {
             try {
                 int index = 0;
                 for (Object inputData : inputDataList) {
-                    LocalPredictiveModel localModel = new LocalPredictiveModel(modelObj);
-
                     Prediction prediction =
                             localModel.predict((JSONObject) inputData, byName, strategy);
 
@@ -340,6 +563,106 @@ public class MultiModel implements Serializable {
         return votes;
     }
 
+    /**
+     * Makes predictions for the rows of a CSV file, streaming them.
+     *
+     * The rows are read one by one from the input, which must have a header
+     * row with the names of the fields. Every row is paired with the fields
+     * of the models, predicted by all the models and the combined prediction
+     * is written to the output before the next row is read, so the memory
+     * used does not depend on the size of the input.
+     *
+     * The output is a CSV file with the columns of the input followed by the
+     * prediction of every model (when addVotes is true), the combined
+     * prediction and its confidence.
+     *
+     * The method parameter is a numeric key to the following combination
+     * methods in classifications/regressions: 0 - majority vote (plurality)/
+     * average: PLURALITY_CODE 1 - confidence weighted majority vote / error
+     * weighted: CONFIDENCE_CODE 2 - probability weighted majority vote /
+     * average: PROBABILITY_CODE
+     *
+     * @param input the CSV with the rows to be predicted. It is not closed.
+     * @param output where the predictions are written. It is flushed but
+     *               not closed.
+     * @param method the method used to combine the votes of the models
+     * @param strategy the missing strategy used by the models
+     * @param addVotes true to add the prediction of every model
+     * @return the number of predicted rows
+     */
+    public long batchPredict(final Reader input, final Writer output,
+                             PredictionMethod method, MissingStrategy strategy,
+                             Boolean addVotes) throws Exception {
+        if (method == null) {
+            method = PredictionMethod.PLURALITY;
+        }
+        if (addVotes == null) {
+            addVotes = false;
+        }
+
+        // Fields of all the models, used to pair the values of every row
+        JSONObject allFields = new JSONObject();
+        List<LocalPredictiveModel> localModels = getLocalModels();
+        for (LocalPredictiveModel localModel : localModels) {
+            allFields.putAll(localModel.getFields());
+        }
+        String objectiveField = localModels.get(0).getObjectiveField();
+        Fields fields = new Fields(allFields, null, null, false,
+                objectiveField, false, null);
+
+        CSVParser parser = new CSVParser(input, CSVFormat.DEFAULT.withHeader());
+
+        List<String> headers = new ArrayList<String>(parser.getHeaderMap().keySet());
+        Boolean objectiveFieldPresent = headers.contains(
+                fields.getFieldName(objectiveField));
+
+        List<String> outputHeaders = new ArrayList<String>(headers);
+        if( addVotes ) {
+            for (Object model : models) {
+                outputHeaders.add(((JSONObject) model).get("resource").toString());
+            }
+        }
+        outputHeaders.add("prediction");
+        outputHeaders.add("confidence");
+
+        CSVPrinter printer = new CSVPrinter(output, CSVFormat.DEFAULT.withHeader(
+                outputHeaders.toArray(new String[outputHeaders.size()])));
+
+        long rows = 0;
+        Object[] values = new Object[outputHeaders.size()];
+        for (CSVRecord record : parser) {
+            JSONArray row = new JSONArray();
+            for (String value : record) {
+                row.add(value);
+            }
+
+            JSONObject inputData = new JSONObject();
+            inputData.putAll(fields.pair(row, headers, null, objectiveFieldPresent));
+
+            MultiVote votes = generateVotes(inputData, true, strategy, false);
+            HashMap<Object, Object> combined = votes.combine(method, true,
+                    null, null, null, null, null);
+
+            int column = 0;
+            for (; column < headers.size(); column++) {
+                values[column] = (column < row.size() ? row.get(column) : null);
+            }
+            if( addVotes ) {
+                for (HashMap<Object, Object> vote : votes.getPredictions()) {
+                    values[column++] = vote.get("prediction");
+                }
+            }
+            values[column++] = combined.get("prediction");
+            values[column] = combined.get("confidence");
+
+            printer.printRecord(values);
+            rows++;
+        }
+        printer.flush();
+
+        return rows;
+    }
+
     /**
      * Generates a MultiVote object that contains the predictions made by each
      * of the models.
@@ -354,10 +677,10 @@ public class MultiModel implements Serializable {
             withConfidence = false;
         }
 
+        List<LocalPredictiveModel> localModels = getLocalModels();
         HashMap<Object, Object>[] votes = new HashMap[models.size()];
         for (int i = 0; i < models.size(); i++) {
-            JSONObject model = (JSONObject) models.get(i);
-            LocalPredictiveModel localModel = new LocalPredictiveModel(model);
+            LocalPredictiveModel localModel = localModels.get(i);
 
             Prediction prediction = localModel.predict(inputData, byName);
 
@@ -385,6 +708,20 @@ public class MultiModel implements Serializable {
      */
     public MultiVote generateVotes(final JSONObject inputData, Boolean byName,
             MissingStrategy strategy, Boolean addMedian) throws Exception {
+        return generateVotes(inputData, byName, strategy, addMedian,
+                new MultiVote());
+    }
+
+    /**
+     * Appends the predictions made by each of the models to the given
+     * MultiVote, so the votes of several multi models can be collected
+     * without copying them.
+     *
+     * @return the votes
+     */
+    public MultiVote generateVotes(final JSONObject inputData, Boolean byName,
+            MissingStrategy strategy, Boolean addMedian, MultiVote votes)
+            throws Exception {
         if (byName == null) {
             byName = true;
         }
@@ -395,12 +732,19 @@ public class MultiModel implements Serializable {
             addMedian = false;
         }
 
-        MultiVote votes = new MultiVote();
+        List<LocalPredictiveModel> localModels = getLocalModels();
 
-        for (int i = 0; i < models.size(); i++) {
-            JSONObject model = (JSONObject) models.get(i);
-            LocalPredictiveModel localModel = new LocalPredictiveModel(model);
+        MultiModel settings = (parent != null ? parent : this);
+        ExecutorService executor = settings.executor;
+        if( executor != null && localModels.size() >= settings.parallelThreshold ) {
+            for (Prediction predictionInfo : predictInParallel(executor,
+                    localModels, inputData, byName, strategy)) {
+                votes.append(predictionInfo);
+            }
+            return votes;
+        }
 
+        for (LocalPredictiveModel localModel : localModels) {
             Prediction predictionInfo = localModel.predict(inputData, byName, strategy);
 
             votes.append(predictionInfo);
@@ -409,6 +753,119 @@ public class MultiModel implements Serializable {
         return votes;
     }
 
+    /**
+     * Adds the predictions made by each of the models to the given
+     * accumulator.
+     *
+     * @param useMedian if true, the median of every prediction is used as
+     *                  its predicted value
+     * @return the votes
+     */
+    public VoteAccumulator generateVotes(final JSONObject inputData, Boolean byName,
+            MissingStrategy strategy, boolean useMedian, VoteAccumulator votes)
+            throws Exception {
+        if (byName == null) {
+            byName = true;
+        }
+        if (strategy == null) {
+            strategy = MissingStrategy.LAST_PREDICTION;
+        }
+
+        List<LocalPredictiveModel> localModels = getLocalModels();
+
+        MultiModel settings = (parent != null ? parent : this);
+        ExecutorService executor = settings.executor;
+        if( executor != null && localModels.size() >= settings.parallelThreshold ) {
+            for (Prediction predictionInfo : predictInParallel(executor,
+                    localModels, inputData, byName, strategy)) {
+                if( useMedian ) {
+                    predictionInfo.put("prediction", predictionInfo.get("median"));
+                }
+                votes.add(predictionInfo);
+            }
+            return votes;
+        }
+
+        for (LocalPredictiveModel localModel : localModels) {
+            Prediction predictionInfo = localModel.predict(inputData, byName, strategy);
+            if( useMedian ) {
+                predictionInfo.put("prediction", predictionInfo.get("median"));
+            }
+            votes.add(predictionInfo);
+        }
+
+        return votes;
+    }
+
+    /**
+     * Generates the predictions of the local models using the executor.
+     *
+     * The models are split in as many chunks as available processors and
+     * each chunk stores its predictions in its own slots of the result, so
+     * they keep the models order and no synchronization is needed. All the
+     * chunks but the last one are submitted to the executor.
+     */
+    private Prediction[] predictInParallel(ExecutorService executor,
+            final List<LocalPredictiveModel> localModels, final JSONObject inputData,
+            final Boolean byName, final MissingStrategy strategy) throws Exception {
+
+        final Prediction[] predictions = new Prediction[localModels.size()];
+
+        int chunks = Math.min(localModels.size(),
+                Runtime.getRuntime().availableProcessors());
+        int chunkSize = (localModels.size() + chunks - 1) / chunks;
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks);
+        for (int start = 0; start < localModels.size(); start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(start + chunkSize, localModels.size());
+
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = from; i < to; i++) {
+                        // The local models clean the input data they
+                        // receive, so every thread needs its own copy
+                        JSONObject modelInput = new JSONObject();
+                        modelInput.putAll(inputData);
+                        predictions[i] = localModels.get(i).predict(
+                                modelInput, byName, strategy);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        // The last chunk is evaluated in the calling thread, that would
+        // be waiting for the others otherwise
+        List<Future<Void>> results = new ArrayList<Future<Void>>(chunks);
+        try {
+            for (Callable<Void> task : tasks.subList(0, tasks.size() - 1)) {
+                results.add(executor.submit(task));
+            }
+            tasks.get(tasks.size() - 1).call();
+
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Void> result : results) {
+                result.cancel(true);
+            }
+            if( e.getCause() instanceof Exception ) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } catch (Exception e) {
+            for (Future<Void> result : results) {
+                result.cancel(true);
+            }
+            throw e;
+        }
+
+        return predictions;
+    }
+
 
     /**
      * Adds the votes for predictions generated by the models.
@@ -428,8 +885,7 @@ public class MultiModel implements Serializable {
                     predictionsFilePath));
         }
 
-        return readVotes(votesFiles, new LocalPredictiveModel((JSONObject) models.get(0)),
-                dataLocale);
+        return readVotes(votesFiles, getLocalModels().get(0), dataLocale);
     }
 
     /**
@@ -525,4 +981,18 @@ public class MultiModel implements Serializable {
                 PREDICTIONS_FILE_SUFFIX);
     }
 
+    /**
+     * The local models of a group and the list of the parent they
+     * were taken from
+     */
+    private static class GroupModels {
+        final List<LocalPredictiveModel> parentModels;
+        final List<LocalPredictiveModel> models;
+
+        GroupModels(List<LocalPredictiveModel> parentModels,
+                    List<LocalPredictiveModel> models) {
+            this.parentModels = parentModels;
+            this.models = models;
+        }
+    }
 }
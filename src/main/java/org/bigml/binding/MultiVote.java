@@ -434,9 +434,20 @@ public class MultiVote implements Serializable {
 
             order = (Integer) prediction.get("order");
 
-            HashMap map = (HashMap)prediction.get("distribution");
+            // The distribution can be a map or a list of [category, instances]
+            // pairs, as found in the predictions of the local models
+            Object distribution = prediction.get("distribution");
+            Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+            if (distribution instanceof Map) {
+                map.putAll((Map) distribution);
+            } else {
+                for (Object bin : (List) distribution) {
+                    map.put(((List) bin).get(0), ((List) bin).get(1));
+                }
+            }
+
             for (Object key : map.keySet()) {
-                Integer count = (Integer)map.get(key);
+                Number count = (Number) map.get(key);
                 HashMap<Object, Object> predictionHash = new HashMap<Object, Object>();
                 predictionHash.put("prediction", key);
                 predictionHash.put("probability", count.doubleValue() / total);
@@ -1057,13 +1068,26 @@ public class MultiVote implements Serializable {
      * Returns a distribution formed by grouping the distributions of each predicted node.
      */
     protected static Map<String, Object> getGroupedDistribution(MultiVote multiVoteInstance) {
+        HashMap<Object, Object>[] predictions = multiVoteInstance.getPredictions();
+        Object[] distributions = new Object[predictions.length];
+        for (int i = 0; i < predictions.length; i++) {
+            distributions[i] = predictions[i].get("distribution");
+        }
+        return getGroupedDistribution(distributions, distributions.length);
+    }
+
+    /**
+     * Returns a distribution formed by grouping the first size distributions.
+     */
+    static Map<String, Object> getGroupedDistribution(Object[] distributions,
+                                                      int size) {
         Map<Object, Number> joinedDist = new HashMap<Object, Number>();
         String distributionUnit = "counts";
 
-        for (HashMap<Object, Object> prediction : multiVoteInstance.getPredictions()) {
+        for (int i = 0; i < size; i++) {
 //            JSONArray predictionDist = (JSONArray) prediction.get("distribution");
             HashMap<Object, Number> predictionDist = null;
-            Object distribution = prediction.get("distribution");
+            Object distribution = distributions[i];
 
             if( distribution instanceof Map ) {
                 predictionDist = (HashMap<Object, Number>) distribution;
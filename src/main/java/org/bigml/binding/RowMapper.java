@@ -0,0 +1,188 @@
+package org.bigml.binding;
+
+import org.bigml.binding.localmodel.CompiledTreeModel;
+import org.json.simple.JSONObject;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Maps the records of a CSV file to the rows of a compiled model.
+ *
+ * The layout of the header is bound only once, when the mapper is prepared:
+ * the position of every column in the compiled row, the type of its field
+ * and its prefix and suffix are resolved for the whole file. Every record is
+ * then turned straight into the typed row used by CompiledTreeModel, with no
+ * intermediate input data. Missing tokens are looked up in a hash set.
+ *
+ * The values are the same that Fields.pair and the casting of the input data
+ * give for the record. A mapper doesn't change after it's prepared, so it
+ * can be shared by several threads.
+ *
+ * Example usage:
+ *
+ *  CompiledTreeModel compiled = localModel.compile();
+ *  RowMapper mapper = fields.prepare(headers, compiled);
+ *  for (CSVRecord record : parser) {
+ *      Object prediction = compiled.predict(mapper.map(record));
+ *  }
+ */
+public class RowMapper {
+
+    private final CompiledTreeModel compiled;
+    private final Set<String> missingTokens;
+
+    // Position in the compiled row of every column of the header, -1 for
+    // the columns that are not used by the model
+    private final int[] columnIndex;
+
+    // Resolved fields of the compiled row
+    private final boolean[] numeric;
+    private final String[] names;
+    private final String[] prefixes;
+    private final String[] suffixes;
+
+    /**
+     * Constructor
+     *
+     * @param compiled the compiled model
+     * @param fieldIds the id of the field in every column of the header or
+     *                 null for the columns to be skipped
+     * @param fields the fields structure
+     * @param missingTokens the tokens considered as missing values
+     */
+    RowMapper(CompiledTreeModel compiled, String[] fieldIds, JSONObject fields,
+              Set<String> missingTokens) {
+        super();
+
+        this.compiled = compiled;
+        this.missingTokens = missingTokens;
+
+        columnIndex = new int[fieldIds.length];
+        for (int i = 0; i < fieldIds.length; i++) {
+            columnIndex[i] = (fieldIds[i] != null ? compiled.getFieldIndex(fieldIds[i]) : -1);
+        }
+
+        String[] layout = compiled.getFieldIds();
+        numeric = new boolean[layout.length];
+        names = new String[layout.length];
+        prefixes = new String[layout.length];
+        suffixes = new String[layout.length];
+        for (int j = 0; j < layout.length; j++) {
+            JSONObject field = (JSONObject) fields.get(layout[j]);
+            if( field == null ) {
+                continue;
+            }
+            numeric[j] = Constants.OPTYPE_NUMERIC.equals(field.get("optype"));
+            names[j] = (String) field.get("name");
+            prefixes[j] = (String) field.get("prefix");
+            suffixes[j] = (String) field.get("suffix");
+        }
+    }
+
+    public CompiledTreeModel getCompiledModel() {
+        return compiled;
+    }
+
+    /**
+     * Checks if the records can be mapped to double[] rows
+     */
+    public boolean isNumeric() {
+        return compiled.isNumericOnly();
+    }
+
+    /**
+     * Maps a record to a row of the compiled model.
+     *
+     * @param record the values of the record in the header order
+     * @return the row in the getFieldIds() order of the compiled model
+     */
+    public Object[] map(Iterable<?> record) {
+        return map(record, new Object[numeric.length]);
+    }
+
+    /**
+     * Maps a record to a row of the compiled model, reusing the given row.
+     *
+     * @param record the values of the record in the header order
+     * @param row the row to be filled
+     * @return the filled row
+     */
+    public Object[] map(Iterable<?> record, Object[] row) {
+        Arrays.fill(row, null);
+
+        Iterator<?> values = record.iterator();
+        for (int i = 0; i < columnIndex.length && values.hasNext(); i++) {
+            Object value = values.next();
+            int index = columnIndex[i];
+            if( index >= 0 ) {
+                row[index] = cast(index, value);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Maps a record to a row of numeric values of the compiled model.
+     * Missing values and the values of non-numeric fields are given as NaN.
+     *
+     * @param record the values of the record in the header order
+     * @param row the row to be filled or null to create a new one
+     * @return the row in the getFieldIds() order of the compiled model
+     */
+    public double[] mapNumeric(Iterable<?> record, double[] row) {
+        if( !compiled.isNumericOnly() ) {
+            throw new IllegalStateException("The model has non-numeric " +
+                    "splits. Please, use Object[] rows.");
+        }
+
+        if( row == null ) {
+            row = new double[numeric.length];
+        }
+        Arrays.fill(row, Double.NaN);
+
+        Iterator<?> values = record.iterator();
+        for (int i = 0; i < columnIndex.length && values.hasNext(); i++) {
+            Object value = values.next();
+            int index = columnIndex[i];
+            if( index >= 0 && numeric[index] ) {
+                Object castValue = cast(index, value);
+                if( castValue != null ) {
+                    row[index] = ((Number) castValue).doubleValue();
+                }
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Cleans the missing tokens, strips the affixes of the numeric values
+     * and casts the value to the type of the field, as Utils.cast
+     */
+    private Object cast(int index, Object value) {
+        if( !(value instanceof String) || missingTokens.contains(value) ) {
+            return null;
+        }
+
+        String text = (String) value;
+        if( !numeric[index] ) {
+            return text;
+        }
+
+        if( prefixes[index] != null && text.startsWith(prefixes[index]) ) {
+            text = text.substring(prefixes[index].length());
+        }
+        if( suffixes[index] != null && text.endsWith(suffixes[index]) ) {
+            text = text.substring(0, text.length() - suffixes[index].length());
+        }
+
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(
+                    String.format("Mismatch input data type in field " +
+                            "\"%s\" for value %s.", names[index], value));
+        }
+    }
+}
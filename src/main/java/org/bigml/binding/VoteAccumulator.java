@@ -0,0 +1,561 @@
+package org.bigml.binding;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Combines the votes of the models of an ensemble, as MultiVote does,
+ * keeping the figures needed by every combination method in primitive
+ * arrays.
+ *
+ * The categories of the classifications are given an ordinal the first
+ * time they are found, and the weight of every category for the plurality,
+ * confidence and probability methods is added up while the votes are
+ * appended, so no intermediate maps are built to combine them. The
+ * arrays grow as needed and are kept when the accumulator is reset, so
+ * an accumulator reused for many predictions stops allocating once it
+ * has seen the models and categories.
+ *
+ * The combined predictions are the same MultiVote would return, but for
+ * the rounding of the probability based confidences. The votes are kept
+ * too, and {@link #toMultiVote()} builds the equivalent MultiVote when
+ * the map based form is needed. The votes that lack the information
+ * needed by a method are combined by MultiVote, so the same errors are
+ * raised.
+ *
+ * Only the tie between two categories that are first found in the same
+ * vote is broken differently: by the order in which the categories were
+ * first found instead of the iteration order of a HashMap.
+ *
+ * An accumulator must not be shared by several threads.
+ */
+public class VoteAccumulator {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final double TOP_RANGE = 10.0d;
+    private static final double Z = 1.96d;
+
+    // The ordinal of every category and the categories by ordinal
+    private final Map<Object, Integer> categoryIndex = new HashMap<Object, Integer>();
+    private Object[] categories = new Object[INITIAL_CAPACITY];
+    private int categoriesCount = 0;
+
+    // By category: the number of votes, the sum of their confidences and
+    // of their squares, the sum of the probabilities and the order of the
+    // first vote and of the first distribution where it's found
+    private double[] votes = new double[INITIAL_CAPACITY];
+    private double[] confidenceSum = new double[INITIAL_CAPACITY];
+    private double[] confidenceSquares = new double[INITIAL_CAPACITY];
+    private double[] probability = new double[INITIAL_CAPACITY];
+    private int[] firstVote = new int[INITIAL_CAPACITY];
+    private int[] firstDistribution = new int[INITIAL_CAPACITY];
+
+    // The total number of instances in the distributions of the votes
+    private int distributionCount;
+
+    // By vote
+    private HashMap<Object, Object>[] predictions = new HashMap[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private double[] confidences = new double[INITIAL_CAPACITY];
+    private double[] medians = new double[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private Object[] distributions = new Object[INITIAL_CAPACITY];
+    private double[] weights = new double[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private boolean regression = true;
+    private boolean missingConfidence = false;
+    private boolean missingCount = false;
+    private boolean missingDistribution = false;
+    private boolean missingMedian = false;
+    private boolean wrongCount = false;
+
+    public VoteAccumulator() {
+        super();
+
+        Arrays.fill(firstVote, -1);
+        Arrays.fill(firstDistribution, -1);
+    }
+
+    /**
+     * Removes all the votes. The categories and arrays are kept to be
+     * reused by the next votes.
+     */
+    public void reset() {
+        for (int i = 0; i < size; i++) {
+            predictions[i] = null;
+            distributions[i] = null;
+        }
+        size = 0;
+        clearCategories();
+
+        regression = true;
+        missingConfidence = false;
+        missingCount = false;
+        missingDistribution = false;
+        missingMedian = false;
+        wrongCount = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isRegression() {
+        return regression;
+    }
+
+    /**
+     * Appends a vote. It should contain at least the prediction and may
+     * contain the confidence, distribution, count and median, as the
+     * predictions of the local models do.
+     *
+     * @param prediction the vote of a model
+     * @return this accumulator
+     */
+    public VoteAccumulator add(HashMap<Object, Object> prediction) {
+        if( prediction == null || !prediction.containsKey("prediction") ) {
+            throw new IllegalArgumentException("Failed to add the prediction.\n" +
+                    "The minimal key for the prediction is 'prediction'" +
+                    ":\n{'prediction': 'Iris-virginica'");
+        }
+
+        if( size == predictions.length ) {
+            growVotes();
+        }
+
+        int index = size++;
+        predictions[index] = prediction;
+
+        Number confidence = (Number) prediction.get("confidence");
+        missingConfidence |= (confidence == null);
+        confidences[index] = (confidence != null ? confidence.doubleValue() : 0.0d);
+
+        Number count = (Number) prediction.get("count");
+        missingCount |= (count == null);
+        counts[index] = (count != null ? count.longValue() : 0L);
+
+        Number median = (Number) prediction.get("median");
+        missingMedian |= (median == null);
+        medians[index] = (median != null ? median.doubleValue() : Double.NaN);
+
+        distributions[index] = prediction.get("distribution");
+        missingDistribution |= (distributions[index] == null);
+
+        Object output = prediction.get("prediction");
+        if( regression && output instanceof Number ) {
+            values[index] = ((Number) output).doubleValue();
+        } else if( regression ) {
+            // The votes so far were numbers, but this one is a category
+            regression = false;
+            for (int i = 0; i < size; i++) {
+                addCategorical(i);
+            }
+        } else {
+            addCategorical(index);
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends all the votes in a MultiVote
+     */
+    public VoteAccumulator addAll(MultiVote multiVote) {
+        for (HashMap<Object, Object> prediction : multiVote.getPredictions()) {
+            add(prediction);
+        }
+        return this;
+    }
+
+    /**
+     * Builds the MultiVote with the same votes
+     */
+    public MultiVote toMultiVote() {
+        HashMap<Object, Object>[] votesCopy = new HashMap[size];
+        for (int i = 0; i < size; i++) {
+            votesCopy[i] = predictions[i];
+            votesCopy[i].put("order", i);
+        }
+        return new MultiVote(votesCopy);
+    }
+
+    /**
+     * Reduces the votes voting for classification and averaging
+     * predictions for regression. See
+     * {@link MultiVote#combine(PredictionMethod, Boolean, Boolean, Boolean, Boolean, Boolean, Map)}.
+     */
+    public HashMap<Object, Object> combine(PredictionMethod method,
+            Boolean withConfidence, Boolean addConfidence,
+            Boolean addDistribution, Boolean addCount,
+            Boolean addMedian, Map options) {
+        if (method == null) {
+            method = PredictionMethod.PLURALITY;
+        }
+        if (withConfidence == null) {
+            withConfidence = false;
+        }
+        if (addMedian == null) {
+            addMedian = false;
+        }
+        if (options == null) {
+            options = new HashMap();
+        }
+
+        // there must be at least one prediction to be combined
+        if (size == 0) {
+            throw new Error("No predictions to be combined.");
+        }
+
+        if( (method == PredictionMethod.CONFIDENCE && missingConfidence) ||
+                (method == PredictionMethod.PROBABILITY &&
+                        (missingDistribution || missingCount)) ) {
+            throw new Error("Not enough data to use the selected prediction method.");
+        }
+
+        if( regression ) {
+            if( missingCount || missingDistribution || (addMedian && missingMedian) ) {
+                return toMultiVote().combine(method, withConfidence, addConfidence,
+                        addDistribution, addCount, addMedian, options);
+            }
+            if (method == PredictionMethod.CONFIDENCE) {
+                return errorWeighted(addMedian);
+            }
+            return average(addMedian);
+        }
+
+        if( method == PredictionMethod.PROBABILITY ) {
+            if( wrongCount ) {
+                return toMultiVote().combine(method, withConfidence, addConfidence,
+                        addDistribution, addCount, addMedian, options);
+            }
+            return combineProbabilities(withConfidence);
+        }
+
+        if( withConfidence && missingConfidence ) {
+            return toMultiVote().combine(method, withConfidence, addConfidence,
+                    addDistribution, addCount, addMedian, options);
+        }
+
+        if( method == PredictionMethod.THRESHOLD ) {
+            return combineThreshold(withConfidence, options);
+        }
+
+        HashMap<Object, Object> result = new HashMap<Object, Object>();
+        if( method == PredictionMethod.CONFIDENCE ) {
+            int winner = best(confidenceSum, firstVote, -1);
+            result.put("prediction", categoryOf(winner));
+            if( withConfidence ) {
+                // The confidences weighted by themselves
+                result.put("confidence", (confidenceSum[winner] > 0 ?
+                        confidenceSquares[winner] / confidenceSum[winner] : null));
+            }
+            return result;
+        }
+
+        int winner = best(votes, firstVote, -1);
+        result.put("prediction", categoryOf(winner));
+        if( withConfidence ) {
+            result.put("confidence", confidenceSum[winner] / votes[winner]);
+        }
+        return result;
+    }
+
+    private HashMap<Object, Object> average(boolean addMedian) {
+        double result = 0.0d, confidence = 0.0d, medianResult = 0.0d;
+        long instances = 0;
+        for (int i = 0; i < size; i++) {
+            result += values[i];
+            if( addMedian ) {
+                medianResult += medians[i];
+            }
+            confidence += confidences[i];
+            instances += counts[i];
+        }
+
+        HashMap<Object, Object> average = new HashMap<Object, Object>();
+        average.put("prediction", result / size);
+        average.put("confidence", confidence / size);
+        average.putAll(MultiVote.getGroupedDistribution(distributions, size));
+        average.put("count", instances);
+        if( addMedian ) {
+            average.put("median", medianResult / size);
+        }
+        return average;
+    }
+
+    private HashMap<Object, Object> errorWeighted(boolean addMedian) {
+        // The errors are normalized to [0, TOP_RANGE] and weighted
+        // with e^-[scaled error]
+        double maxError = -1.0d, minError = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            maxError = Math.max(confidences[i], maxError);
+            minError = Math.min(confidences[i], minError);
+        }
+        double errorRange = maxError - minError;
+
+        double normalizationFactor = 0.0d;
+        if( errorRange > 0.0d ) {
+            for (int i = 0; i < size; i++) {
+                weights[i] = Math.exp((minError - confidences[i]) /
+                        errorRange * TOP_RANGE);
+                normalizationFactor += weights[i];
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                weights[i] = 1.0d;
+            }
+            normalizationFactor = size;
+        }
+
+        HashMap<Object, Object> newPrediction = new HashMap<Object, Object>();
+        if( normalizationFactor == 0.0d ) {
+            newPrediction.put("prediction", Double.NaN);
+            newPrediction.put("confidence", 0.0d);
+            return newPrediction;
+        }
+
+        double result = 0.0d, combinedError = 0.0d, medianResult = 0.0d;
+        long instances = 0;
+        for (int i = 0; i < size; i++) {
+            result += values[i] * weights[i];
+            if( addMedian ) {
+                medianResult += medians[i] * weights[i];
+            }
+            instances += counts[i];
+            combinedError += confidences[i] * weights[i];
+        }
+
+        newPrediction.put("prediction", result / normalizationFactor);
+        newPrediction.put("confidence", combinedError / normalizationFactor);
+        newPrediction.put("count", instances);
+        if( addMedian ) {
+            newPrediction.put("median", medianResult / normalizationFactor);
+        }
+        newPrediction.putAll(MultiVote.getGroupedDistribution(distributions, size));
+        return newPrediction;
+    }
+
+    private HashMap<Object, Object> combineProbabilities(boolean withConfidence) {
+        int winner = best(probability, firstDistribution, -1);
+
+        HashMap<Object, Object> result = new HashMap<Object, Object>();
+        result.put("prediction", categoryOf(winner));
+        if( withConfidence ) {
+            // Wilson score interval of the combined distribution
+            double norm = 0.0d;
+            for (int c = 0; c < categoriesCount; c++) {
+                norm += probability[c];
+            }
+            if (norm == 0.0d) {
+                throw new Error("Invalid distribution norm: " + norm);
+            }
+            if (distributionCount < 1) {
+                throw new Error("The total of instances in the distribution must be"
+                        + " a positive integer");
+            }
+
+            double p = probability[winner];
+            if (norm != 1.0d) {
+                p = p / norm;
+            }
+            // The count is an int, as in MultiVote
+            int n = distributionCount;
+            double z2 = Z * Z;
+            double n2 = n * n;
+            double wsSqrt = Math.sqrt((p * (1 - p) / n) + (z2 / (4 * n2)));
+            result.put("confidence",
+                    (p + (z2 / (2 * n)) - (Z * wsSqrt)) / (1 + (z2 / n)));
+        }
+        return result;
+    }
+
+    private HashMap<Object, Object> combineThreshold(boolean withConfidence,
+                                                     Map options) {
+        Integer threshold = (Integer) options.get("threshold");
+        String category = (String) options.get("category");
+        if( threshold == null || category == null || category.length() == 0 ) {
+            throw new IllegalArgumentException("No category and threshold information was" +
+                    " found. Add threshold and category info." +
+                    " E.g. {\"threshold\": 6, \"category\":" +
+                    " \"Iris-virginica\"}.");
+        }
+        if( threshold > size ) {
+            throw new IllegalArgumentException(String.format(
+                    "You cannot set a threshold value larger than " +
+                    "%s. The ensemble has not enough models to use" +
+                    " this threshold value.", size)
+            );
+        }
+        if( threshold < 1 ) {
+            throw new IllegalArgumentException("The threshold must be a positive value");
+        }
+
+        // The category wins if it has enough votes. Otherwise, the rest
+        // of the categories are voted
+        Integer index = categoryIndex.get(category);
+        int winner;
+        if( index != null && index < categoriesCount && votes[index] >= threshold ) {
+            winner = index;
+        } else {
+            winner = best(votes, firstVote, (index != null ? index : -1));
+            if( winner < 0 ) {
+                throw new IndexOutOfBoundsException("No predictions to be combined.");
+            }
+        }
+
+        HashMap<Object, Object> result = new HashMap<Object, Object>();
+        result.put("prediction", categoryOf(winner));
+        if( withConfidence ) {
+            result.put("confidence", confidenceSum[winner] / votes[winner]);
+        }
+        return result;
+    }
+
+    /**
+     * The category with the largest weight. Ties are broken by the order
+     * of the first vote of the categories.
+     */
+    private int best(double[] weight, int[] order, int excluded) {
+        int winner = -1;
+        for (int c = 0; c < categoriesCount; c++) {
+            if( order[c] < 0 || c == excluded ) {
+                continue;
+            }
+            if( winner < 0 || weight[c] > weight[winner] ||
+                    (weight[c] == weight[winner] && order[c] < order[winner]) ) {
+                winner = c;
+            }
+        }
+        return winner;
+    }
+
+    private void addCategorical(int index) {
+        int category = indexOf(predictions[index].get("prediction"));
+        if( firstVote[category] < 0 ) {
+            firstVote[category] = index;
+        }
+        votes[category] += 1.0d;
+        confidenceSum[category] += confidences[index];
+        confidenceSquares[category] += confidences[index] * confidences[index];
+
+        // The probability of every category in the distribution of the vote
+        Object distribution = distributions[index];
+        if( distribution == null || predictions[index].get("count") == null ) {
+            return;
+        }
+        long total = counts[index];
+        if( total < 1 ) {
+            wrongCount = true;
+            return;
+        }
+
+        if( distribution instanceof Map ) {
+            for (Object entry : ((Map) distribution).entrySet()) {
+                addProbability(index, ((Map.Entry) entry).getKey(),
+                        (Number) ((Map.Entry) entry).getValue(), total);
+            }
+        } else {
+            List bins = (List) distribution;
+            for (int i = 0; i < bins.size(); i++) {
+                List bin = (List) bins.get(i);
+                addProbability(index, bin.get(0), (Number) bin.get(1), total);
+            }
+        }
+    }
+
+    private void addProbability(int index, Object value, Number count, long total) {
+        int category = indexOf(value);
+        if( firstDistribution[category] < 0 ) {
+            firstDistribution[category] = index;
+        }
+        probability[category] += count.doubleValue() / total;
+        distributionCount += count.intValue();
+    }
+
+    private Object categoryOf(int index) {
+        return categories[index];
+    }
+
+    /**
+     * The ordinal of the category, given one if it's new
+     */
+    private int indexOf(Object category) {
+        Integer index = categoryIndex.get(category);
+        if( index == null ) {
+            index = categoriesCount++;
+            if( index == categories.length ) {
+                growCategories();
+            }
+            categoryIndex.put(category, index);
+            categories[index] = category;
+        }
+        return index;
+    }
+
+    private void clearCategories() {
+        for (int c = 0; c < categoriesCount; c++) {
+            votes[c] = 0.0d;
+            confidenceSum[c] = 0.0d;
+            confidenceSquares[c] = 0.0d;
+            probability[c] = 0.0d;
+            firstVote[c] = -1;
+            firstDistribution[c] = -1;
+        }
+        distributionCount = 0;
+    }
+
+    private void growCategories() {
+        int capacity = categories.length * 2;
+        int previous = categories.length;
+
+        Object[] newCategories = new Object[capacity];
+        System.arraycopy(categories, 0, newCategories, 0, previous);
+        categories = newCategories;
+
+        votes = copyOf(votes, capacity);
+        confidenceSum = copyOf(confidenceSum, capacity);
+        confidenceSquares = copyOf(confidenceSquares, capacity);
+        probability = copyOf(probability, capacity);
+
+        int[] newFirstVote = new int[capacity];
+        int[] newFirstDistribution = new int[capacity];
+        System.arraycopy(firstVote, 0, newFirstVote, 0, previous);
+        System.arraycopy(firstDistribution, 0, newFirstDistribution, 0, previous);
+        for (int c = previous; c < capacity; c++) {
+            newFirstVote[c] = -1;
+            newFirstDistribution[c] = -1;
+        }
+        firstVote = newFirstVote;
+        firstDistribution = newFirstDistribution;
+    }
+
+    private void growVotes() {
+        int capacity = predictions.length * 2;
+
+        HashMap<Object, Object>[] newPredictions = new HashMap[capacity];
+        System.arraycopy(predictions, 0, newPredictions, 0, size);
+        predictions = newPredictions;
+
+        Object[] newDistributions = new Object[capacity];
+        System.arraycopy(distributions, 0, newDistributions, 0, size);
+        distributions = newDistributions;
+
+        long[] newCounts = new long[capacity];
+        System.arraycopy(counts, 0, newCounts, 0, size);
+        counts = newCounts;
+
+        values = copyOf(values, capacity);
+        confidences = copyOf(confidences, capacity);
+        medians = copyOf(medians, capacity);
+        weights = copyOf(weights, capacity);
+    }
+
+    private static double[] copyOf(double[] array, int capacity) {
+        double[] copy = new double[capacity];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+}
@@ -2,6 +2,7 @@ package org.bigml.binding.localanomaly;
 
 import com.sun.org.apache.xpath.internal.operations.Bool;
 import org.bigml.binding.localmodel.Predicate;
+import org.bigml.binding.localmodel.TermCounts;
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -44,7 +45,7 @@ public class AnomalyTree {
             treePredicatesList.add(new TruePredicate());
             this.predicates = new Predicates(treePredicatesList);
         } else if( treePredicates instanceof JSONArray ) {
-            this.predicates = new Predicates((JSONArray) treePredicates);
+            this.predicates = new Predicates((JSONArray) treePredicates, fields);
         } else {
             throw new IllegalArgumentException(String.format("Invalid predicates type. Type found %s",
                     treePredicates.getClass().getName()));
@@ -70,10 +71,22 @@ public class AnomalyTree {
         return this.predicates.apply(inputData, fields);
     }
 
+    protected boolean apply(JSONObject inputData, TermCounts termCounts) {
+        return this.predicates.apply(inputData, fields, termCounts);
+    }
+
     public String toRule() {
         return this.predicates.toRule(fields);
     }
 
+    Predicates getPredicates() {
+        return predicates;
+    }
+
+    List<AnomalyTree> getChildren() {
+        return children;
+    }
+
     /**
      * Lists a description of the model's fields.
      */
@@ -107,17 +120,22 @@ public class AnomalyTree {
      * @return
      */
     public AnomalyDepth depth(JSONObject inputData) {
-        return depth(inputData, null, 0);
+        return depth(inputData, null, 0, new TermCounts());
     }
 
     protected AnomalyDepth depth(JSONObject inputData, List<String> path, int depth) {
+        return depth(inputData, path, depth, new TermCounts());
+    }
+
+    protected AnomalyDepth depth(JSONObject inputData, List<String> path, int depth,
+                                 TermCounts termCounts) {
         if( path == null ) {
             path = new ArrayList<String>();
         }
 
         // root node: if predicates are met, depth becomes 1, otherwise is 0
         if( depth == 0 ) {
-            if( !this.apply(inputData) ) {
+            if( !this.apply(inputData, termCounts) ) {
                 return new AnomalyDepth(path, depth);
             }
 
@@ -126,9 +144,9 @@ public class AnomalyTree {
 
         if( this.children != null ) {
             for (AnomalyTree child : this.children) {
-                if( child.apply(inputData) ) {
+                if( child.apply(inputData, termCounts) ) {
                     path.add(child.toRule());
-                    return child.depth(inputData, path, depth+1);
+                    return child.depth(inputData, path, depth+1, termCounts);
                 }
             }
         }
@@ -0,0 +1,479 @@
+package org.bigml.binding.localanomaly;
+
+import org.bigml.binding.localmodel.Operator;
+import org.bigml.binding.localmodel.Predicate;
+import org.bigml.binding.localmodel.TermCounts;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The trees of an anomaly detector's iforest compiled into flat arrays.
+ *
+ * The nodes of all the trees are laid out contiguously, tree after tree, in
+ * breadth-first order, so the children of every node can be found using the
+ * firstChild and childrenCount offsets. The predicates of every node are
+ * stored in a table of field indexes, operators and unboxed thresholds
+ * addressed by the firstPredicate and predicatesCount offsets. The
+ * predicates that are always true are left out.
+ *
+ * Scoring walks every tree down to the deepest node whose predicates apply,
+ * without building any rule, and averages the depths in a single pass over
+ * the forest. The rules of the path followed in a tree are only built when
+ * getPath is called.
+ *
+ * Predicates that are not plain numeric comparisons are delegated to the
+ * original Predicate, so the depths are always the same as
+ * AnomalyTree.depth.
+ *
+ * Batches of rows are scored in blocks of ROWS_BLOCK_SIZE rows against
+ * chunks of TREES_CHUNK_SIZE trees, so the nodes of a chunk stay in the
+ * cache while the rows of a block are walked through them. The blocks
+ * can be scored in parallel using an executor.
+ *
+ * Example usage:
+ *
+ *  CompiledIsolationForest compiled = localAnomaly.compile();
+ *  double score = compiled.score(compiled.toRow(inputData));
+ */
+public class CompiledIsolationForest {
+
+    /**
+     * Number of rows scored together in a batch
+     */
+    public static final int ROWS_BLOCK_SIZE = 256;
+
+    /**
+     * Number of trees walked together in a batch
+     */
+    public static final int TREES_CHUNK_SIZE = 16;
+
+    private final JSONObject fields;
+    private final String[] fieldIds;
+    private final Map<String, Integer> fieldsIndex;
+    private final double expectedMeanDepth;
+
+    // Trees
+    private final int[] roots;
+
+    // Nodes
+    private final AnomalyTree[] nodes;
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] childrenCount;
+    private final int[] firstPredicate;
+    private final int[] predicatesCount;
+    private final boolean[] noPredicates;
+
+    // Predicates
+    private final int[] splitField;
+    private final Operator[] operator;
+    private final double[] threshold;
+    private final boolean[] numericSplit;
+    private final boolean[] missing;
+    private final Predicate[] predicates;
+
+    private final boolean textSplits;
+
+    /**
+     * Constructor
+     *
+     * @param iforest the trees of the anomaly detector
+     * @param fields the fields definition of the anomaly detector
+     * @param expectedMeanDepth the expected mean depth used to normalize
+     *                          the score
+     */
+    public CompiledIsolationForest(List<AnomalyTree> iforest, JSONObject fields,
+                                   double expectedMeanDepth) {
+        super();
+
+        this.fields = fields;
+        this.expectedMeanDepth = expectedMeanDepth;
+
+        // Breadth-first layout of the nodes of every tree
+        List<AnomalyTree> layout = new ArrayList<AnomalyTree>();
+        List<Integer> parents = new ArrayList<Integer>();
+        roots = new int[iforest.size()];
+        for (int t = 0; t < iforest.size(); t++) {
+            roots[t] = layout.size();
+
+            LinkedList<AnomalyTree> queue = new LinkedList<AnomalyTree>();
+            LinkedList<Integer> queueParents = new LinkedList<Integer>();
+            queue.add(iforest.get(t));
+            queueParents.add(-1);
+            while( !queue.isEmpty() ) {
+                layout.add(queue.removeFirst());
+                parents.add(queueParents.removeFirst());
+                for (AnomalyTree child : layout.get(layout.size() - 1).getChildren()) {
+                    queue.add(child);
+                    queueParents.add(layout.size() - 1);
+                }
+            }
+        }
+
+        // The row layout follows the order of the ids of the fields
+        // used in the predicates
+        List<Predicate> table = new ArrayList<Predicate>();
+        TreeSet<String> ids = new TreeSet<String>();
+        for (AnomalyTree node : layout) {
+            for (Predicate predicate : node.getPredicates().getPredicates()) {
+                if( !(predicate instanceof TruePredicate) ) {
+                    ids.add(predicate.getField());
+                }
+            }
+        }
+        fieldIds = ids.toArray(new String[ids.size()]);
+        fieldsIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < fieldIds.length; i++) {
+            fieldsIndex.put(fieldIds[i], i);
+        }
+
+        int size = layout.size();
+        nodes = layout.toArray(new AnomalyTree[size]);
+        parent = new int[size];
+        firstChild = new int[size];
+        childrenCount = new int[size];
+        firstPredicate = new int[size];
+        predicatesCount = new int[size];
+        noPredicates = new boolean[size];
+
+        int nextChild = 0;
+        for (int i = 0; i < size; i++) {
+            parent[i] = parents.get(i);
+            if( parent[i] < 0 ) {
+                nextChild = i + 1;
+            }
+
+            firstChild[i] = nextChild;
+            childrenCount[i] = nodes[i].getChildren().size();
+            nextChild += childrenCount[i];
+
+            // A node without predicates never applies
+            List<Predicate> nodePredicates = nodes[i].getPredicates().getPredicates();
+            noPredicates[i] = nodePredicates.isEmpty();
+            firstPredicate[i] = table.size();
+            for (Predicate predicate : nodePredicates) {
+                if( !(predicate instanceof TruePredicate) ) {
+                    table.add(predicate);
+                }
+            }
+            predicatesCount[i] = table.size() - firstPredicate[i];
+        }
+
+        int predicatesSize = table.size();
+        splitField = new int[predicatesSize];
+        operator = new Operator[predicatesSize];
+        threshold = new double[predicatesSize];
+        numericSplit = new boolean[predicatesSize];
+        missing = new boolean[predicatesSize];
+        predicates = table.toArray(new Predicate[predicatesSize]);
+
+        boolean anyText = false;
+        for (int p = 0; p < predicatesSize; p++) {
+            Predicate predicate = predicates[p];
+            splitField[p] = fieldsIndex.get(predicate.getField());
+            operator[p] = predicate.getOperatorCode();
+            missing[p] = predicate.isMissing();
+
+            anyText |= predicate.getTerm() != null;
+            Object value = predicate.getValue();
+            numericSplit[p] = value instanceof Number && operator[p] != null &&
+                    predicate.getTerm() == null && operator[p] != Operator.IN;
+            threshold[p] = (numericSplit[p] ? ((Number) value).doubleValue() : Double.NaN);
+        }
+        this.textSplits = anyText;
+    }
+
+    /**
+     * The ids of the fields in the order expected in the rows.
+     */
+    public String[] getFieldIds() {
+        return fieldIds;
+    }
+
+    /**
+     * The position in the row of the given field id or -1 if the field
+     * is not used in the iforest.
+     */
+    public int getFieldIndex(String fieldId) {
+        Integer index = fieldsIndex.get(fieldId);
+        return (index != null ? index : -1);
+    }
+
+    /**
+     * The number of trees in the iforest
+     */
+    public int size() {
+        return roots.length;
+    }
+
+    /**
+     * Builds a row from a map of input data keyed by field id.
+     *
+     * @param inputData the input data keyed by field id
+     * @return the row to be scored
+     */
+    public Object[] toRow(Map inputData) {
+        Object[] row = new Object[fieldIds.length];
+        for (int i = 0; i < fieldIds.length; i++) {
+            row[i] = inputData.get(fieldIds[i]);
+        }
+        return row;
+    }
+
+    /**
+     * Returns the anomaly score of the row, as LocalAnomaly.score
+     *
+     * @param row the values of the fields in the getFieldIds() order
+     */
+    public double score(final Object[] row) {
+        return Math.pow(2, (- meanDepth(row) / expectedMeanDepth));
+    }
+
+    /**
+     * Returns the mean of the depths reached by the row in the trees
+     *
+     * @param row the values of the fields in the getFieldIds() order
+     */
+    public double meanDepth(final Object[] row) {
+        // The tokens of the text fields are shared by all the predicates
+        TermCounts termCounts = (textSplits ? new TermCounts() : null);
+
+        int depthSum = depthSum(row, 0, roots.length, termCounts);
+        return ((double) depthSum) / ((double) roots.length);
+    }
+
+    /**
+     * Returns the anomaly scores of a batch of rows.
+     *
+     * @param rows the rows, with the values of the fields in the
+     *             getFieldIds() order
+     * @return the scores, in the same order as the rows
+     */
+    public double[] scoreBatch(final Object[][] rows) {
+        int[] depthSums = new int[rows.length];
+        for (int from = 0; from < rows.length; from += ROWS_BLOCK_SIZE) {
+            int to = Math.min(from + ROWS_BLOCK_SIZE, rows.length);
+            for (int tree = 0; tree < roots.length; tree += TREES_CHUNK_SIZE) {
+                addDepths(rows, from, to, tree,
+                        Math.min(tree + TREES_CHUNK_SIZE, roots.length), depthSums);
+            }
+        }
+        return toScores(depthSums);
+    }
+
+    /**
+     * Returns the anomaly scores of a batch of rows, scoring each block
+     * of rows against each chunk of trees as a separate task.
+     *
+     * Every chunk of trees adds its depths to its own array, so the tasks
+     * share no state and their results are added once all of them are
+     * finished.
+     *
+     * The calling thread waits for the tasks, so it must not be a thread
+     * of a bounded executor it submits them to, as it could deadlock.
+     *
+     * @param rows the rows, with the values of the fields in the
+     *             getFieldIds() order
+     * @param executor the executor service the tasks are submitted to
+     * @return the scores, in the same order as the rows
+     */
+    public double[] scoreBatch(final Object[][] rows, ExecutorService executor)
+            throws Exception {
+        int chunks = (roots.length + TREES_CHUNK_SIZE - 1) / TREES_CHUNK_SIZE;
+        final int[][] depthSums = new int[chunks][rows.length];
+
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int from = 0; from < rows.length; from += ROWS_BLOCK_SIZE) {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                final int fromRow = from;
+                final int toRow = Math.min(from + ROWS_BLOCK_SIZE, rows.length);
+                final int fromTree = chunk * TREES_CHUNK_SIZE;
+                final int toTree = Math.min(fromTree + TREES_CHUNK_SIZE, roots.length);
+                final int[] chunkDepthSums = depthSums[chunk];
+
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        addDepths(rows, fromRow, toRow, fromTree, toTree,
+                                chunkDepthSums);
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Void> result : results) {
+                result.cancel(true);
+            }
+            if( e.getCause() instanceof Exception ) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            for (int i = 0; i < rows.length; i++) {
+                depthSums[0][i] += depthSums[chunk][i];
+            }
+        }
+        return toScores(depthSums[0]);
+    }
+
+    /**
+     * Adds the depths reached by a block of rows in a chunk of trees
+     */
+    private void addDepths(Object[][] rows, int fromRow, int toRow,
+                           int fromTree, int toTree, int[] depthSums) {
+        for (int i = fromRow; i < toRow; i++) {
+            TermCounts termCounts = (textSplits ? new TermCounts() : null);
+            depthSums[i] += depthSum(rows[i], fromTree, toTree, termCounts);
+        }
+    }
+
+    private double[] toScores(int[] depthSums) {
+        double[] scores = new double[depthSums.length];
+        for (int i = 0; i < depthSums.length; i++) {
+            double observedMeanDepth = ((double) depthSums[i]) / ((double) roots.length);
+            scores[i] = Math.pow(2, (- observedMeanDepth / expectedMeanDepth));
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the sum of the depths reached by the row in a range of trees
+     */
+    private int depthSum(final Object[] row, int fromTree, int toTree,
+                         TermCounts termCounts) {
+        int depthSum = 0;
+        for (int tree = fromTree; tree < toTree; tree++) {
+            int root = roots[tree];
+
+            // root node: if predicates are met, depth becomes 1, otherwise is 0
+            if( !applies(root, row, termCounts) ) {
+                continue;
+            }
+
+            int node = root;
+            int depth = 1;
+            boolean found = true;
+            while( found ) {
+                found = false;
+                int last = firstChild[node] + childrenCount[node];
+                for (int child = firstChild[node]; child < last; child++) {
+                    if( applies(child, row, termCounts) ) {
+                        node = child;
+                        depth++;
+                        found = true;
+                        break;
+                    }
+                }
+            }
+            depthSum += depth;
+        }
+        return depthSum;
+    }
+
+    /**
+     * Returns the depth reached by the row in one of the trees and the
+     * rules of the path that leads to it, as AnomalyTree.depth
+     *
+     * @param tree the index of the tree in the iforest
+     * @param row the values of the fields in the getFieldIds() order
+     */
+    public AnomalyTree.AnomalyDepth getPath(int tree, final Object[] row) {
+        TermCounts termCounts = (textSplits ? new TermCounts() : null);
+
+        int root = roots[tree];
+        LinkedList<String> path = new LinkedList<String>();
+        if( !applies(root, row, termCounts) ) {
+            return new AnomalyTree.AnomalyDepth(path, 0);
+        }
+
+        int node = root;
+        boolean found = true;
+        while( found ) {
+            found = false;
+            int last = firstChild[node] + childrenCount[node];
+            for (int child = firstChild[node]; child < last; child++) {
+                if( applies(child, row, termCounts) ) {
+                    node = child;
+                    found = true;
+                    break;
+                }
+            }
+        }
+
+        for (int current = node; current != root; current = parent[current]) {
+            path.addFirst(nodes[current].toRule());
+        }
+        return new AnomalyTree.AnomalyDepth(new ArrayList<String>(path), path.size() + 1);
+    }
+
+    /**
+     * Checks if all the predicates of the node apply to the row
+     */
+    private boolean applies(int node, Object[] row, TermCounts termCounts) {
+        if( noPredicates[node] ) {
+            return false;
+        }
+
+        int last = firstPredicate[node] + predicatesCount[node];
+        for (int p = firstPredicate[node]; p < last; p++) {
+            Object value = row[splitField[p]];
+
+            if( numericSplit[p] ) {
+                if( value instanceof Number ) {
+                    if( !compare(p, ((Number) value).doubleValue()) ) {
+                        return false;
+                    }
+                    continue;
+                }
+                if( value == null ) {
+                    if( !missing[p] ) {
+                        return false;
+                    }
+                    continue;
+                }
+            }
+
+            if( !predicates[p].applyToValue(value, fields, termCounts) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean compare(int predicate, double value) {
+        switch (operator[predicate]) {
+            case LT:
+                return value < threshold[predicate];
+            case LE:
+                return value <= threshold[predicate];
+            case GE:
+                return value >= threshold[predicate];
+            case GT:
+                return value > threshold[predicate];
+            case EQ:
+                return value == threshold[predicate];
+            case NE:
+                return value != threshold[predicate];
+            default:
+                return false;
+        }
+    }
+}
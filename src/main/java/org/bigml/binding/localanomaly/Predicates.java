@@ -1,6 +1,7 @@
 package org.bigml.binding.localanomaly;
 
 import org.bigml.binding.localmodel.Predicate;
+import org.bigml.binding.localmodel.TermCounts;
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -24,6 +25,14 @@ public class Predicates {
     private List<Predicate> predicates;
 
     public Predicates(List treePredicates) {
+        this(treePredicates, null);
+    }
+
+    /**
+     * Builds the predicates resolving the term matching options
+     * from the fields structure
+     */
+    public Predicates(List treePredicates, JSONObject fields) {
         if( treePredicates != null ) {
             if( treePredicates instanceof JSONArray ) {
                 this.predicates = new ArrayList<Predicate>();
@@ -37,7 +46,8 @@ public class Predicates {
                                 (String) predicateJSON.get("op"),
                                 (String) predicateJSON.get("field"),
                                 predicateJSON.get("value"),
-                                (String)  predicateJSON.get("term")));
+                                (String)  predicateJSON.get("term"),
+                                fields));
                     }
                 }
             } else {
@@ -48,6 +58,10 @@ public class Predicates {
         }
     }
 
+    List<Predicate> getPredicates() {
+        return predicates;
+    }
+
     /**
      * Builds rule string from a predicate using the
      * fields NAME property as the label for the operand
@@ -90,13 +104,23 @@ public class Predicates {
      * @return true if all the predicates were true when applied
      */
     public boolean apply(JSONObject inputData, JSONObject fields) {
+        return apply(inputData, fields, null);
+    }
+
+    /**
+     * Applies the operators defined in each of the predicates to
+     * the provided input data sharing the tokens found in its text fields
+     *
+     * @return true if all the predicates were true when applied
+     */
+    public boolean apply(JSONObject inputData, JSONObject fields, TermCounts termCounts) {
         List<Boolean> result = new ArrayList<Boolean>(predicates.size());
 
         for (Predicate predicate : predicates) {
             if( predicate instanceof TruePredicate )
                 result.add(Boolean.TRUE);
             else
-                result.add(predicate.apply(inputData, fields));
+                result.add(predicate.apply(inputData, fields, termCounts));
         }
 
         return Utils.sameElement(result, true);
@@ -31,6 +31,11 @@ public class TruePredicate extends Predicate {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public boolean applyToValue(Object inputValue, JSONObject fields) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     protected boolean applyOperator(Object inputValue) {
         throw new UnsupportedOperationException();
@@ -0,0 +1,415 @@
+package org.bigml.binding.localmodel;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A decision tree compiled into flat arrays.
+ *
+ * The nodes of the tree are laid out in breadth-first order, so the children
+ * of every node are contiguous and can be found using the firstChild and
+ * childrenCount offsets. Each node keeps its split as a field index, an
+ * operator and an unboxed threshold, and the outputs of the nodes are
+ * stored in a table indexed by node.
+ *
+ * Rows are given as arrays whose positions follow the order of the field ids
+ * returned by getFieldIds(). Missing values are given as null in Object[]
+ * rows and as NaN in double[] rows. Only the LAST_PREDICTION missing strategy
+ * is supported: when no child's predicate applies to the row the prediction
+ * of the current node is returned.
+ *
+ * Predicates that are not plain comparisons (text terms, set membership or
+ * values of a different type than expected) are delegated to the original
+ * Predicate, so the results are always the same as Tree.predict.
+ *
+ * Example usage:
+ *
+ *  CompiledTreeModel compiled = localModel.compile();
+ *  Object[] row = new Object[compiled.getFieldIds().length];
+ *  row[compiled.getFieldIndex("000002")] = 2.5;
+ *  Object prediction = compiled.predict(row);
+ */
+public class CompiledTreeModel {
+
+    private final JSONObject fields;
+    private final String objectiveField;
+    private final String[] fieldIds;
+    private final Map<String, Integer> fieldsIndex;
+    private final boolean regression;
+
+    // Node splits
+    private final int[] splitField;
+    private final Operator[] operator;
+    private final double[] threshold;
+    private final boolean[] numericSplit;
+    private final boolean[] missing;
+    private final Predicate[] predicates;
+
+    // Children offsets
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] childrenCount;
+
+    // Output table
+    private final Tree[] nodes;
+    private final Object[] output;
+    private final double[] confidence;
+    private final long[] count;
+
+    private final boolean numericOnly;
+    private final boolean textSplits;
+
+    /**
+     * Constructor
+     *
+     * @param tree the root of the tree to be compiled
+     * @param fields the fields definition of the model
+     * @param objectiveField the id of the objective field
+     */
+    public CompiledTreeModel(Tree tree, JSONObject fields, String objectiveField) {
+        super();
+
+        this.fields = fields;
+        this.objectiveField = objectiveField;
+        this.regression = tree.isRegression();
+
+        // The row layout follows the field ids order
+        List<String> ids = new ArrayList<String>();
+        for (Object fieldId : fields.keySet()) {
+            if( !fieldId.equals(objectiveField) ) {
+                ids.add(fieldId.toString());
+            }
+        }
+        Collections.sort(ids);
+        this.fieldIds = ids.toArray(new String[ids.size()]);
+        this.fieldsIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < fieldIds.length; i++) {
+            fieldsIndex.put(fieldIds[i], i);
+        }
+
+        // Breadth-first layout of the nodes
+        List<Tree> layout = new ArrayList<Tree>();
+        List<Integer> parents = new ArrayList<Integer>();
+        LinkedList<Tree> queue = new LinkedList<Tree>();
+        LinkedList<Integer> queueParents = new LinkedList<Integer>();
+        queue.add(tree);
+        queueParents.add(-1);
+        while( !queue.isEmpty() ) {
+            layout.add(queue.removeFirst());
+            parents.add(queueParents.removeFirst());
+            for (Tree child : layout.get(layout.size() - 1).getChildren()) {
+                queue.add(child);
+                queueParents.add(layout.size() - 1);
+            }
+        }
+
+        int size = layout.size();
+        splitField = new int[size];
+        operator = new Operator[size];
+        threshold = new double[size];
+        numericSplit = new boolean[size];
+        missing = new boolean[size];
+        predicates = new Predicate[size];
+        parent = new int[size];
+        firstChild = new int[size];
+        childrenCount = new int[size];
+        nodes = new Tree[size];
+        output = new Object[size];
+        confidence = new double[size];
+        count = new long[size];
+
+        boolean allNumeric = true;
+        boolean anyText = false;
+        int nextChild = 1;
+        for (int i = 0; i < size; i++) {
+            Tree node = layout.get(i);
+            nodes[i] = node;
+            parent[i] = parents.get(i);
+            output[i] = node.getOutput();
+            confidence[i] = node.getConfidence();
+            count[i] = (node.getCount() != null ? node.getCount() : 0L);
+
+            firstChild[i] = nextChild;
+            childrenCount[i] = node.getChildren().size();
+            nextChild += childrenCount[i];
+
+            splitField[i] = -1;
+            Predicate predicate = node.getPredicate();
+            if( node.isPredicate() || predicate == null ) {
+                continue;
+            }
+
+            predicates[i] = predicate;
+            missing[i] = predicate.isMissing();
+            operator[i] = Operator.fromString(predicate.getOperator());
+            Integer index = fieldsIndex.get(predicate.getField());
+            splitField[i] = (index != null ? index : -1);
+
+            anyText |= predicate.getTerm() != null;
+            Object value = predicate.getValue();
+            numericSplit[i] = index != null && value instanceof Number &&
+                    predicate.getTerm() == null &&
+                    operator[i] != Operator.IN;
+            if( numericSplit[i] ) {
+                threshold[i] = ((Number) value).doubleValue();
+            } else {
+                threshold[i] = Double.NaN;
+                allNumeric = false;
+            }
+        }
+
+        this.numericOnly = allNumeric;
+        this.textSplits = anyText;
+    }
+
+    /**
+     * The ids of the fields in the order expected in the rows.
+     */
+    public String[] getFieldIds() {
+        return fieldIds;
+    }
+
+    /**
+     * The position in the row of the given field id or -1 if the field
+     * is not an input field of the model.
+     */
+    public int getFieldIndex(String fieldId) {
+        Integer index = fieldsIndex.get(fieldId);
+        return (index != null ? index : -1);
+    }
+
+    public String getObjectiveField() {
+        return objectiveField;
+    }
+
+    public boolean isRegression() {
+        return regression;
+    }
+
+    /**
+     * Checks if all the splits in the tree are numeric comparisons, so
+     * rows can be given as double[]
+     */
+    public boolean isNumericOnly() {
+        return numericOnly;
+    }
+
+    /**
+     * The number of nodes in the tree
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Builds a row from a map of input data keyed by field id.
+     *
+     * @param inputData the input data keyed by field id
+     * @return the row to be used in predict
+     */
+    public Object[] toRow(Map inputData) {
+        Object[] row = new Object[fieldIds.length];
+        for (int i = 0; i < fieldIds.length; i++) {
+            row[i] = inputData.get(fieldIds[i]);
+        }
+        return row;
+    }
+
+    /**
+     * Finds the node that predicts the given row.
+     *
+     * @param row the values of the input fields in the getFieldIds() order
+     * @return the index of the predicting node
+     */
+    public int findNode(final Object[] row) {
+        // The tokens of the text fields are shared by all the predicates
+        TermCounts termCounts = (textSplits ? new TermCounts() : null);
+
+        int node = 0;
+        boolean found = true;
+        while( found ) {
+            found = false;
+            int last = firstChild[node] + childrenCount[node];
+            for (int child = firstChild[node]; child < last; child++) {
+                if( applies(child, row, termCounts) ) {
+                    node = child;
+                    found = true;
+                    break;
+                }
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Finds the node that predicts the given row of numeric values.
+     *
+     * @param row the values of the input fields in the getFieldIds() order,
+     *            NaN for missing values
+     * @return the index of the predicting node
+     */
+    public int findNode(final double[] row) {
+        if( !numericOnly ) {
+            throw new IllegalStateException("The model has non-numeric " +
+                    "splits. Please, use Object[] rows.");
+        }
+
+        int node = 0;
+        boolean found = true;
+        while( found ) {
+            found = false;
+            int last = firstChild[node] + childrenCount[node];
+            for (int child = firstChild[node]; child < last; child++) {
+                if( applies(child, row) ) {
+                    node = child;
+                    found = true;
+                    break;
+                }
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Makes a prediction for the given row.
+     *
+     * @param row the values of the input fields in the getFieldIds() order
+     * @return the output of the predicting node
+     */
+    public Object predict(final Object[] row) {
+        return output[findNode(row)];
+    }
+
+    /**
+     * Makes a prediction for the given row of numeric values.
+     *
+     * @param row the values of the input fields in the getFieldIds() order,
+     *            NaN for missing values
+     * @return the output of the predicting node
+     */
+    public Object predict(final double[] row) {
+        return output[findNode(row)];
+    }
+
+    public Object getOutput(int node) {
+        return output[node];
+    }
+
+    public double getConfidence(int node) {
+        return confidence[node];
+    }
+
+    public long getCount(int node) {
+        return count[node];
+    }
+
+    /**
+     * The distribution of the objective field in the node, as found in
+     * the model
+     */
+    public JSONArray getDistribution(int node) {
+        return nodes[node].getDistribution();
+    }
+
+    // The splits of the nodes, used to store the model in binary form
+
+    int getSplitField(int node) {
+        return splitField[node];
+    }
+
+    Operator getOperator(int node) {
+        return operator[node];
+    }
+
+    double getThreshold(int node) {
+        return threshold[node];
+    }
+
+    boolean isMissingSplit(int node) {
+        return missing[node];
+    }
+
+    int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    int getChildrenCount(int node) {
+        return childrenCount[node];
+    }
+
+    /**
+     * Builds the full Prediction object for a node, as Tree.predict does.
+     *
+     * @param node the index of the predicting node
+     * @return the prediction, including the path to the node
+     */
+    public Prediction toPrediction(int node) {
+        Tree tree = nodes[node];
+
+        LinkedList<String> path = new LinkedList<String>();
+        for (int current = node; parent[current] >= 0; current = parent[current]) {
+            path.addFirst(predicates[current].toRule(fields));
+        }
+
+        return new Prediction(output[node], confidence[node], tree.getCount(),
+                (tree.isRegression() ? tree.getMedian() : null),
+                new ArrayList<String>(path), tree.getDistribution(),
+                tree.getDistributionUnit(), tree.getChildren());
+    }
+
+    /**
+     * Checks if the predicate of the node applies to the row
+     */
+    private boolean applies(int node, Object[] row, TermCounts termCounts) {
+        int index = splitField[node];
+        Object value = (index >= 0 ? row[index] : null);
+
+        if( numericSplit[node] ) {
+            if( value instanceof Number ) {
+                return compare(node, ((Number) value).doubleValue());
+            }
+            if( value == null ) {
+                return missing[node];
+            }
+        }
+
+        return predicates[node].applyToValue(value, fields, termCounts);
+    }
+
+    /**
+     * Checks if the numeric predicate of the node applies to the row
+     */
+    private boolean applies(int node, double[] row) {
+        double value = row[splitField[node]];
+        if( Double.isNaN(value) ) {
+            return missing[node];
+        }
+        return compare(node, value);
+    }
+
+    private boolean compare(int node, double value) {
+        switch (operator[node]) {
+            case LT:
+                return value < threshold[node];
+            case LE:
+                return value <= threshold[node];
+            case GE:
+                return value >= threshold[node];
+            case GT:
+                return value > threshold[node];
+            case EQ:
+                return value == threshold[node];
+            case NE:
+                return value != threshold[node];
+            default:
+                return false;
+        }
+    }
+}
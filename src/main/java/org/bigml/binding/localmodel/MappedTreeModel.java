@@ -0,0 +1,470 @@
+package org.bigml.binding.localmodel;
+
+import org.json.simple.JSONArray;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled decision tree stored in a compact binary file.
+ *
+ * The file holds the flat arrays of a {@link CompiledTreeModel} (splits,
+ * children offsets, outputs, confidences, counts and distributions) and
+ * the metadata of its fields. Loading it only parses a small header: the
+ * arrays are read in place from the memory-mapped file, so no JSON needs
+ * to be parsed and the pages of the file are shared by all the processes
+ * that map the same model.
+ *
+ * Only trees with numeric splits can be stored, as the rest of predicates
+ * need the original Predicate objects. Rows are given as double[] in the
+ * order of getFieldIds(), with NaN for missing values, and the missing
+ * values are handled with the LAST_PREDICTION strategy, as in the
+ * compiled model.
+ *
+ * Example usage:
+ *
+ *  MappedTreeModel.write(localModel.compile(), file);
+ *  MappedTreeModel mapped = MappedTreeModel.map(file);
+ *  Object prediction = mapped.predict(mapped.toRow(inputData));
+ */
+public class MappedTreeModel {
+
+    // "BMLT" and the version of the format
+    private static final int MAGIC = 0x424d4c54;
+    private static final int VERSION = 1;
+
+    private static final Operator[] OPERATORS = Operator.values();
+
+    private final String objectiveField;
+    private final boolean regression;
+    private final String[] fieldIds;
+    private final Map<String, Integer> fieldsIndex;
+    private final String[] categories;
+    private final int size;
+
+    // Views of the arrays in the mapped file
+    private final IntBuffer splitField;
+    private final ByteBuffer operator;
+    private final DoubleBuffer threshold;
+    private final ByteBuffer missing;
+    private final IntBuffer firstChild;
+    private final IntBuffer childrenCount;
+    private final DoubleBuffer confidence;
+    private final LongBuffer count;
+    private final DoubleBuffer output;
+    private final IntBuffer distributionOffset;
+    private final DoubleBuffer distributionValue;
+    private final LongBuffer distributionCount;
+
+    private MappedTreeModel(ByteBuffer buffer) throws IOException {
+        super();
+
+        if( buffer.getInt(0) != MAGIC ) {
+            throw new IOException("Not a compiled model file.");
+        }
+        if( buffer.getInt(4) != VERSION ) {
+            throw new IOException("Unsupported compiled model version: " +
+                    buffer.getInt(4));
+        }
+
+        // The header holds the strings, the arrays follow it
+        byte[] headerBytes = new byte[buffer.getInt(8)];
+        ByteBuffer headerBuffer = buffer.duplicate();
+        headerBuffer.position(12);
+        headerBuffer.get(headerBytes);
+        DataInputStream header = new DataInputStream(
+                new ByteArrayInputStream(headerBytes));
+
+        objectiveField = header.readUTF();
+        regression = header.readBoolean();
+        fieldIds = new String[header.readInt()];
+        fieldsIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < fieldIds.length; i++) {
+            fieldIds[i] = header.readUTF();
+            fieldsIndex.put(fieldIds[i], i);
+        }
+        categories = new String[header.readInt()];
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = header.readUTF();
+        }
+        size = header.readInt();
+        int distributionSize = header.readInt();
+
+        int position = 12 + headerBytes.length;
+        splitField = slice(buffer, position, size * 4).asIntBuffer();
+        position += size * 4;
+        operator = slice(buffer, position, size);
+        position += size;
+        threshold = slice(buffer, position, size * 8).asDoubleBuffer();
+        position += size * 8;
+        missing = slice(buffer, position, size);
+        position += size;
+        firstChild = slice(buffer, position, size * 4).asIntBuffer();
+        position += size * 4;
+        childrenCount = slice(buffer, position, size * 4).asIntBuffer();
+        position += size * 4;
+        confidence = slice(buffer, position, size * 8).asDoubleBuffer();
+        position += size * 8;
+        count = slice(buffer, position, size * 8).asLongBuffer();
+        position += size * 8;
+        output = slice(buffer, position, size * 8).asDoubleBuffer();
+        position += size * 8;
+        distributionOffset = slice(buffer, position, (size + 1) * 4).asIntBuffer();
+        position += (size + 1) * 4;
+        distributionValue = slice(buffer, position, distributionSize * 8).asDoubleBuffer();
+        position += distributionSize * 8;
+        distributionCount = slice(buffer, position, distributionSize * 8).asLongBuffer();
+    }
+
+    /**
+     * Maps a model file written by {@link #write(CompiledTreeModel, File)}.
+     *
+     * @param file the model file
+     * @return the model, backed by the mapped file
+     * @throws IOException if the file cannot be read or is not a model file
+     */
+    public static MappedTreeModel map(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            // The mapping stays valid after the channel is closed
+            return new MappedTreeModel(channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Builds the model from the contents of a model file
+     *
+     * @param buffer the contents of the file
+     */
+    public static MappedTreeModel wrap(ByteBuffer buffer) throws IOException {
+        return new MappedTreeModel(buffer);
+    }
+
+    /**
+     * Stores a compiled model in a file.
+     *
+     * The model is written to a temporary file in the same folder that is
+     * then renamed over the given one, so the models already mapped from
+     * the previous file keep reading its contents.
+     *
+     * @param compiled the compiled model. Only models with numeric
+     *                 splits can be stored
+     * @param file the file to be written
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(CompiledTreeModel compiled, File file)
+            throws IOException {
+        if( !compiled.isNumericOnly() ) {
+            throw new IllegalArgumentException("Only models with numeric " +
+                    "splits can be stored in binary form.");
+        }
+
+        int size = compiled.size();
+        boolean regression = compiled.isRegression();
+
+        // The categories used in outputs and distributions
+        List<String> categories = new ArrayList<String>();
+        Map<String, Integer> categoriesIndex = new HashMap<String, Integer>();
+        int distributionSize = 0;
+        for (int node = 0; node < size; node++) {
+            JSONArray distribution = compiled.getDistribution(node);
+            distributionSize += (distribution != null ? distribution.size() : 0);
+            if( !regression ) {
+                addCategory(compiled.getOutput(node), categories, categoriesIndex);
+                if( distribution != null ) {
+                    for (Object bin : distribution) {
+                        addCategory(((List) bin).get(0), categories,
+                                categoriesIndex);
+                    }
+                }
+            }
+        }
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        String[] fieldIds = compiled.getFieldIds();
+        header.writeUTF(compiled.getObjectiveField());
+        header.writeBoolean(regression);
+        header.writeInt(fieldIds.length);
+        for (String fieldId : fieldIds) {
+            header.writeUTF(fieldId);
+        }
+        header.writeInt(categories.size());
+        for (String category : categories) {
+            header.writeUTF(category);
+        }
+        header.writeInt(size);
+        header.writeInt(distributionSize);
+        header.flush();
+
+        File tmpFile = File.createTempFile(file.getName(), ".tmp",
+                file.getAbsoluteFile().getParentFile());
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmpFile)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(headerBytes.size());
+            headerBytes.writeTo(output);
+
+            for (int node = 0; node < size; node++) {
+                output.writeInt(compiled.getSplitField(node));
+            }
+            for (int node = 0; node < size; node++) {
+                Operator nodeOperator = compiled.getOperator(node);
+                output.writeByte(nodeOperator != null ? nodeOperator.ordinal() : -1);
+            }
+            for (int node = 0; node < size; node++) {
+                output.writeDouble(compiled.getThreshold(node));
+            }
+            for (int node = 0; node < size; node++) {
+                output.writeBoolean(compiled.isMissingSplit(node));
+            }
+            for (int node = 0; node < size; node++) {
+                output.writeInt(compiled.getFirstChild(node));
+            }
+            for (int node = 0; node < size; node++) {
+                output.writeInt(compiled.getChildrenCount(node));
+            }
+            for (int node = 0; node < size; node++) {
+                output.writeDouble(compiled.getConfidence(node));
+            }
+            for (int node = 0; node < size; node++) {
+                output.writeLong(compiled.getCount(node));
+            }
+            for (int node = 0; node < size; node++) {
+                output.writeDouble(encode(compiled.getOutput(node), regression,
+                        categoriesIndex));
+            }
+
+            // The distributions of all the nodes, one after the other
+            int offset = 0;
+            for (int node = 0; node < size; node++) {
+                output.writeInt(offset);
+                JSONArray distribution = compiled.getDistribution(node);
+                offset += (distribution != null ? distribution.size() : 0);
+            }
+            output.writeInt(offset);
+            for (int node = 0; node < size; node++) {
+                JSONArray distribution = compiled.getDistribution(node);
+                if( distribution != null ) {
+                    for (Object bin : distribution) {
+                        output.writeDouble(encode(((List) bin).get(0),
+                                regression, categoriesIndex));
+                    }
+                }
+            }
+            for (int node = 0; node < size; node++) {
+                JSONArray distribution = compiled.getDistribution(node);
+                if( distribution != null ) {
+                    for (Object bin : distribution) {
+                        output.writeLong(((Number) ((List) bin).get(1)).longValue());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            output.close();
+            tmpFile.delete();
+            throw e;
+        } finally {
+            output.close();
+        }
+
+        // Some platforms cannot rename over an existing file
+        if( !tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file)) ) {
+            tmpFile.delete();
+            throw new IOException("Unable to replace the compiled model file: " + file);
+        }
+    }
+
+    /**
+     * The ids of the fields in the order expected in the rows.
+     */
+    public String[] getFieldIds() {
+        return fieldIds;
+    }
+
+    /**
+     * The position in the row of the given field id or -1 if the field
+     * is not an input field of the model.
+     */
+    public int getFieldIndex(String fieldId) {
+        Integer index = fieldsIndex.get(fieldId);
+        return (index != null ? index : -1);
+    }
+
+    public String getObjectiveField() {
+        return objectiveField;
+    }
+
+    public boolean isRegression() {
+        return regression;
+    }
+
+    /**
+     * The number of nodes in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Builds a row from a map of numeric input data keyed by field id.
+     *
+     * @param inputData the input data keyed by field id
+     * @return the row to be used in predict
+     */
+    public double[] toRow(Map inputData) {
+        double[] row = new double[fieldIds.length];
+        for (int i = 0; i < fieldIds.length; i++) {
+            Object value = inputData.get(fieldIds[i]);
+            if( value != null && !(value instanceof Number) ) {
+                throw new IllegalArgumentException(String.format(
+                        "The value of %s is not a number: %s", fieldIds[i], value));
+            }
+            row[i] = (value != null ? ((Number) value).doubleValue() : Double.NaN);
+        }
+        return row;
+    }
+
+    /**
+     * Finds the node that predicts the given row.
+     *
+     * @param row the values of the input fields in the getFieldIds() order,
+     *            NaN for missing values
+     * @return the index of the predicting node
+     */
+    public int findNode(final double[] row) {
+        int node = 0;
+        boolean found = true;
+        while( found ) {
+            found = false;
+            int first = firstChild.get(node);
+            int last = first + childrenCount.get(node);
+            for (int child = first; child < last; child++) {
+                if( applies(child, row) ) {
+                    node = child;
+                    found = true;
+                    break;
+                }
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Makes a prediction for the given row.
+     *
+     * @param row the values of the input fields in the getFieldIds() order,
+     *            NaN for missing values
+     * @return the output of the predicting node
+     */
+    public Object predict(final double[] row) {
+        return getOutput(findNode(row));
+    }
+
+    /**
+     * The output of the node: a Double for regressions and the category
+     * otherwise
+     */
+    public Object getOutput(int node) {
+        return decode(output.get(node));
+    }
+
+    public double getConfidence(int node) {
+        return confidence.get(node);
+    }
+
+    public long getCount(int node) {
+        return count.get(node);
+    }
+
+    /**
+     * The distribution of the objective field in the node, as a list of
+     * [value, count] pairs
+     */
+    public JSONArray getDistribution(int node) {
+        JSONArray distribution = new JSONArray();
+        int last = distributionOffset.get(node + 1);
+        for (int i = distributionOffset.get(node); i < last; i++) {
+            JSONArray bin = new JSONArray();
+            bin.add(decode(distributionValue.get(i)));
+            bin.add(distributionCount.get(i));
+            distribution.add(bin);
+        }
+        return distribution;
+    }
+
+    private boolean applies(int node, double[] row) {
+        double value = row[splitField.get(node)];
+        if( Double.isNaN(value) ) {
+            return missing.get(node) != 0;
+        }
+
+        double nodeThreshold = threshold.get(node);
+        switch (OPERATORS[operator.get(node)]) {
+            case LT:
+                return value < nodeThreshold;
+            case LE:
+                return value <= nodeThreshold;
+            case GE:
+                return value >= nodeThreshold;
+            case GT:
+                return value > nodeThreshold;
+            case EQ:
+                return value == nodeThreshold;
+            case NE:
+                return value != nodeThreshold;
+            default:
+                return false;
+        }
+    }
+
+    private Object decode(double value) {
+        return (regression ? (Object) value : categories[(int) value]);
+    }
+
+    private static double encode(Object value, boolean regression,
+                                 Map<String, Integer> categoriesIndex) {
+        if( regression ) {
+            return ((Number) value).doubleValue();
+        }
+        return categoriesIndex.get(value.toString());
+    }
+
+    private static void addCategory(Object category, List<String> categories,
+                                    Map<String, Integer> categoriesIndex) {
+        String name = category.toString();
+        if( !categoriesIndex.containsKey(name) ) {
+            categoriesIndex.put(name, categories.size());
+            categories.add(name);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        slice.limit(position + length);
+        return slice.slice();
+    }
+}
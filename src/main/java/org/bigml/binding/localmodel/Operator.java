@@ -0,0 +1,60 @@
+package org.bigml.binding.localmodel;
+
+import org.bigml.binding.Constants;
+
+/**
+ * The operators that can be found in a node's predicate, resolved once
+ * from the strings used in the model's JSON structure.
+ */
+public enum Operator {
+
+    LT, LE, EQ, NE, GE, GT, IN;
+
+    /**
+     * Resolves the operator given its string representation
+     * in the model (the trailing "*" for missing values must
+     * be removed before).
+     *
+     * @param operator the operator as found in the predicate
+     * @return the resolved operator, or null if no operator was given
+     *          or it's unknown. Predicates with no operator never apply.
+     */
+    public static Operator fromString(String operator) {
+        if( operator == null ) {
+            return null;
+        }
+
+        if( Constants.OPERATOR_LT.equals(operator) ) {
+            return LT;
+        }
+        if( Constants.OPERATOR_LE.equals(operator) ) {
+            return LE;
+        }
+        if( Constants.OPERATOR_EQ.equals(operator) ) {
+            return EQ;
+        }
+        if( Constants.OPERATOR_NE.equals(operator) ||
+                Constants.OPERATOR_NE2.equals(operator) ) {
+            return NE;
+        }
+        if( Constants.OPERATOR_GE.equals(operator) ) {
+            return GE;
+        }
+        if( Constants.OPERATOR_GT.equals(operator) ) {
+            return GT;
+        }
+        if( Constants.OPERATOR_IN.equals(operator) ) {
+            return IN;
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks if the operator is one of the numeric comparisons
+     * that need an ordering between the values.
+     */
+    public boolean isComparison() {
+        return this == LT || this == LE || this == GE || this == GT;
+    }
+}
@@ -1,14 +1,10 @@
 package org.bigml.binding.localmodel;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.bigml.binding.Constants;
+import org.bigml.binding.utils.JSONPath;
 import org.bigml.binding.utils.Utils;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 /**
@@ -22,6 +18,8 @@ public class Predicate {
     public static String TM_FULL_TERM = "full_terms_only";
     public static String TM_ALL = "all";
 
+    private static final JSONPath TOKEN_MODE = JSONPath.compile("term_analysis.token_mode");
+
     private String opType;
     private String operator;
     private String field;
@@ -30,6 +28,14 @@ public class Predicate {
     private String term;
     private boolean missing = false;
 
+    // Operator and evaluator resolved when the predicate is built
+    private Operator operatorCode;
+    private PredicateEvaluator evaluator;
+
+    // Resolved from the field's structure the first time it's needed
+    private volatile TermMatcher termMatcher;
+    private volatile Boolean fullTerm;
+
     public enum RuleLanguage {
         PSEUDOCODE, JAVA, PYTHON, TABLEAU
     }
@@ -52,6 +58,25 @@ public class Predicate {
             this.operator = this.operator.substring(0, this.operator.length() - 1);
             this.missing = true;
         }
+
+        this.operatorCode = Operator.fromString(this.operator);
+        this.evaluator = PredicateEvaluator.create(operatorCode, value);
+    }
+
+    /**
+     * Constructor that resolves the term matching options from the
+     * fields structure
+     */
+    public Predicate(final String opType, final String operator,
+            final String field, final Object value, final String term,
+            final JSONObject fields) {
+        this(opType, operator, field, value, term);
+
+        if( term != null && fields != null ) {
+            this.termMatcher = new TermMatcher(field, term,
+                    (JSONObject) fields.get(field));
+            this.fullTerm = isFullTerm(fields);
+        }
     }
 
     public String getOpType() {
@@ -62,6 +87,14 @@ public class Predicate {
         return operator;
     }
 
+    public Operator getOperatorCode() {
+        return operatorCode;
+    }
+
+    public PredicateEvaluator getEvaluator() {
+        return evaluator;
+    }
+
     public String getField() {
         return field;
     }
@@ -287,19 +320,23 @@ public class Predicate {
      * @return true if the predicate field is full term
      */
     protected boolean isFullTerm(JSONObject fields) {
+        Boolean resolved = fullTerm;
+        if( resolved != null ) {
+            return resolved;
+        }
+
+        resolved = Boolean.FALSE;
         if( term != null &&  term.length() > 0 ) {
-            String tokenMode = (String) Utils.getJSONObject((JSONObject) fields.get(field),
-                    "term_analysis.token_mode");
+            String tokenMode = (String) TOKEN_MODE.getField(fields, field);
             if( Predicate.TM_FULL_TERM.equals(tokenMode) ) {
-                return true;
-            }
-
-            if( Predicate.TM_ALL.equals(tokenMode) ) {
-                return Predicate.FULL_TERM_PATTERN_RE.matcher(term).find();
+                resolved = Boolean.TRUE;
+            } else if( Predicate.TM_ALL.equals(tokenMode) ) {
+                resolved = Predicate.FULL_TERM_PATTERN_RE.matcher(term).find();
             }
         }
 
-        return false;
+        fullTerm = resolved;
+        return resolved;
     }
 
 
@@ -310,10 +347,50 @@ public class Predicate {
      * @return if the operator applies or not
      */
     public boolean apply(JSONObject inputData, JSONObject fields) {
+        return applyToValue(inputData.get(field), fields, null);
+    }
+
+    /**
+     * Applies the operators defined in the predicate as strings to
+     * the provided input data
+     *
+     * @param termCounts the tokens found in the text fields of the
+     *                   input data, shared by all the predicates
+     * @return if the operator applies or not
+     */
+    public boolean apply(JSONObject inputData, JSONObject fields,
+                         TermCounts termCounts) {
+        return applyToValue(inputData.get(field), fields, termCounts);
+    }
+
+    /**
+     * Applies the operators defined in the predicate as strings to
+     * the value of the predicate's field
+     *
+     * @param inputValue the value of the field or null if missing
+     * @param fields the fields definition of the model
+     * @return if the operator applies or not
+     */
+    public boolean applyToValue(Object inputValue, JSONObject fields) {
+        return applyToValue(inputValue, fields, null);
+    }
+
+    /**
+     * Applies the operators defined in the predicate as strings to
+     * the value of the predicate's field
+     *
+     * @param inputValue the value of the field or null if missing
+     * @param fields the fields definition of the model
+     * @param termCounts the tokens found in the text fields of the
+     *                   input data or null if they aren't shared
+     * @return if the operator applies or not
+     */
+    public boolean applyToValue(Object inputValue, JSONObject fields,
+                                TermCounts termCounts) {
         //for missing operators
-        if( inputData.get(field) == null ) {
-            return missing || (operator.equals(Constants.OPERATOR_EQ) && value == null);
-        } else if((operator.equals(Constants.OPERATOR_NE) && value == null)) {
+        if( inputValue == null ) {
+            return missing || (operatorCode == Operator.EQ && value == null);
+        } else if( operatorCode == Operator.NE && value == null ) {
             return true;
         }
 
@@ -322,152 +399,23 @@ public class Predicate {
         }
 
         if( term != null ) {
-            JSONObject allForms = (JSONObject) Utils.getJSONObject((JSONObject) fields.get(field),
-                    "summary.term_forms", new JSONObject());
-            JSONArray termForms = (JSONArray) allForms.get(term);
-            termForms = (termForms == null ? new JSONArray() : termForms);
-
-            List<String> terms = new ArrayList<String>();
-            terms.add(term);
-            terms.addAll(termForms);
-
-            JSONObject options = (JSONObject) Utils.getJSONObject((JSONObject) fields.get(field),
-                    "term_analysis");
-
-            return applyOperator(termMatches(inputData.get(field).toString(), terms, options));
-        }
-
-        return applyOperator(inputData.get(field));
-    }
-
-    protected boolean applyOperator(Object inputValue) {
-        if (operator.equals(Constants.OPERATOR_EQ) ) {
-            if( inputValue instanceof Number ) {
-                return ((Number) inputValue).doubleValue() == ((Number) value)
-                        .doubleValue();
-            } else {
-                return inputValue.toString().equals(value);
-            }
-        }
-
-        if ((operator.equals(Constants.OPERATOR_NE) || operator
-                .equals(Constants.OPERATOR_NE2))) {
-            if( inputValue instanceof Number ) {
-                return ((Number) inputValue).doubleValue() != ((Number) value)
-                        .doubleValue();
-            } else {
-                return !inputValue.toString().equals(value);
-            }
-        }
-
-        if (operator.equals(Constants.OPERATOR_LT) &&
-                ((Number) inputValue).doubleValue() < ((Number) value)
-                    .doubleValue()) {
-            return true;
-        }
-        if (operator.equals(Constants.OPERATOR_LE) &&
-                ((Number) inputValue).doubleValue() <= ((Number) value)
-                    .doubleValue()) {
-            return true;
-        }
-        if (operator.equals(Constants.OPERATOR_GE) &&
-                ((Number) inputValue).doubleValue() >= ((Number) value)
-                    .doubleValue()) {
-            return true;
-        }
-        if (operator.equals(Constants.OPERATOR_GT) &&
-                ((Number) inputValue).doubleValue() > ((Number) value)
-                    .doubleValue()) {
-            return true;
-        }
-        if (operator.equals(Constants.OPERATOR_IN) )  {
-
-            if( !(inputValue instanceof Collection) ) {
-                List newInputValue = new ArrayList();
-                newInputValue.add(inputValue);
-                inputValue = newInputValue;
+            TermMatcher matcher = termMatcher;
+            if( matcher == null ) {
+                matcher = new TermMatcher(field, term, (JSONObject) fields.get(field));
+                termMatcher = matcher;
             }
 
-            if( value instanceof Collection ) {
-                return ((Collection) inputValue).containsAll((Collection) value);
-            } else {
-                return ((Collection) inputValue).contains(value);
-            }
+            return applyOperator(matcher.count(inputValue.toString(), termCounts));
         }
 
-        return false;
+        return applyOperator(inputValue);
     }
 
-
-    private int termMatches(String text, List<String> formsList, JSONObject options) {
-
-        // Checking Full Terms Only
-        String tokenMode = (String) Utils.getJSONObject(options, "token_mode", TM_TOKENS);
-        Boolean caseSensitive = (Boolean) Utils.getJSONObject(options, "case_sensitive", Boolean.TRUE);
-
-        String firstTerm = formsList.get(0);
-
-        if (tokenMode.equals(TM_FULL_TERM)) {
-            return fullTermMatch(text, firstTerm, caseSensitive);
-        }
-
-        // In token_mode='all' we will match full terms using equals and
-        // tokens using contains
-        if ( TM_ALL.equals(tokenMode) && formsList.size() == 1 ) {
-            if( FULL_TERM_PATTERN_RE.matcher(firstTerm).find() ) {
-                return fullTermMatch(text, firstTerm, caseSensitive);
-            }
-        }
-
-        return termMatchesTokens(text, formsList, caseSensitive);
-    }
-
-    /**
-     * Counts the match for full terms according to the case_sensitive option
-     *
-     * @param text
-     * @param fullTerm
-     * @param caseSensitive
-     * @return
-     */
-    private int fullTermMatch(String text, String fullTerm, boolean caseSensitive) {
-        return (caseSensitive ? (text.equals(fullTerm) ? 1 : 0) : (text.equalsIgnoreCase(fullTerm) ? 1 : 0));
-    }
-
-    /**
-     * Counts the number of occurences of the words in forms_list in the text
-     *
-     * @param text
-     * @param formsList
-     * @param caseSensitive
-     * @return
-     */
-    private int termMatchesTokens(String text, List<String> formsList, boolean caseSensitive) {
-        String expression = String.format("(\\b|_)%s(\\b|_)", join(formsList, "(\\b|_)|(\\b|_)"));
-        Pattern pattern = Pattern.compile(expression, (caseSensitive ? Pattern.UNICODE_CASE :
-                (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)));
-        Matcher matcher = pattern.matcher(text);
-        return (matcher.find() ? matcher.groupCount() : 0);
+    protected boolean applyOperator(Object inputValue) {
+        return evaluator.evaluate(inputValue);
     }
 
-
-    /**
-     * Joins all the string items in the list using the conjunction text
-     *
-     * @param list
-     * @param conjunction
-     * @return
-     */
-    private String join(List<String> list, String conjunction) {
-        StringBuilder sb = new StringBuilder();
-        boolean first = true;
-        for (String item : list) {
-            if(first)
-                first = false;
-            else
-                sb.append(conjunction);
-            sb.append(item);
-        }
-        return sb.toString();
+    protected boolean applyOperator(int termCount) {
+        return evaluator.evaluate((double) termCount);
     }
 }
@@ -0,0 +1,296 @@
+package org.bigml.binding.localmodel;
+
+import java.util.Collection;
+
+/**
+ * Evaluates the operator of a predicate on a non-missing value.
+ *
+ * The evaluators are resolved once, when the predicate is built, from
+ * the operator and the type of the predicate's value, so the checks done
+ * while traversing the tree need no string comparisons and the numeric
+ * thresholds are kept unboxed.
+ */
+public abstract class PredicateEvaluator {
+
+    /**
+     * Checks if the operator applies to the given value.
+     *
+     * @param inputValue the value of the field, never null
+     * @return true if the operator applies
+     */
+    public abstract boolean evaluate(Object inputValue);
+
+    /**
+     * Checks if the operator applies to the given numeric value.
+     *
+     * @param inputValue the value of the field
+     * @return true if the operator applies
+     */
+    public boolean evaluate(double inputValue) {
+        return evaluate(Double.valueOf(inputValue));
+    }
+
+    /**
+     * Builds the evaluator for the operator and value of a predicate.
+     *
+     * @param operator the operator of the predicate
+     * @param value the value of the predicate, not null
+     * @return the evaluator
+     */
+    public static PredicateEvaluator create(Operator operator, Object value) {
+        if( operator == null || value == null ) {
+            return new FalseEvaluator();
+        }
+
+        if( value instanceof Number ) {
+            double threshold = ((Number) value).doubleValue();
+            switch (operator) {
+                case LT:
+                    return new LessThan(threshold);
+                case LE:
+                    return new LessOrEqual(threshold);
+                case GE:
+                    return new GreaterOrEqual(threshold);
+                case GT:
+                    return new GreaterThan(threshold);
+                case EQ:
+                    return new NumericEqual(threshold);
+                case NE:
+                    return new NumericNotEqual(threshold);
+                default:
+                    break;
+            }
+        }
+
+        switch (operator) {
+            case EQ:
+                return new CategoricalEqual(value);
+            case NE:
+                return new CategoricalNotEqual(value);
+            case IN:
+                return (value instanceof Collection ?
+                        new ContainsAll((Collection) value) :
+                        new Contains(value));
+            default:
+                // Comparisons are only defined for numbers
+                return new InvalidComparison(value);
+        }
+    }
+
+    static final class LessThan extends PredicateEvaluator {
+        private final double threshold;
+
+        LessThan(double threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            return ((Number) inputValue).doubleValue() < threshold;
+        }
+
+        @Override
+        public boolean evaluate(double inputValue) {
+            return inputValue < threshold;
+        }
+    }
+
+    static final class LessOrEqual extends PredicateEvaluator {
+        private final double threshold;
+
+        LessOrEqual(double threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            return ((Number) inputValue).doubleValue() <= threshold;
+        }
+
+        @Override
+        public boolean evaluate(double inputValue) {
+            return inputValue <= threshold;
+        }
+    }
+
+    static final class GreaterOrEqual extends PredicateEvaluator {
+        private final double threshold;
+
+        GreaterOrEqual(double threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            return ((Number) inputValue).doubleValue() >= threshold;
+        }
+
+        @Override
+        public boolean evaluate(double inputValue) {
+            return inputValue >= threshold;
+        }
+    }
+
+    static final class GreaterThan extends PredicateEvaluator {
+        private final double threshold;
+
+        GreaterThan(double threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            return ((Number) inputValue).doubleValue() > threshold;
+        }
+
+        @Override
+        public boolean evaluate(double inputValue) {
+            return inputValue > threshold;
+        }
+    }
+
+    /**
+     * Equality to a number. Values that are not numbers never match.
+     */
+    static final class NumericEqual extends PredicateEvaluator {
+        private final double threshold;
+
+        NumericEqual(double threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            return inputValue instanceof Number &&
+                    ((Number) inputValue).doubleValue() == threshold;
+        }
+
+        @Override
+        public boolean evaluate(double inputValue) {
+            return inputValue == threshold;
+        }
+    }
+
+    /**
+     * Inequality to a number. Values that are not numbers always match.
+     */
+    static final class NumericNotEqual extends PredicateEvaluator {
+        private final double threshold;
+
+        NumericNotEqual(double threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            return !(inputValue instanceof Number) ||
+                    ((Number) inputValue).doubleValue() != threshold;
+        }
+
+        @Override
+        public boolean evaluate(double inputValue) {
+            return inputValue != threshold;
+        }
+    }
+
+    /**
+     * Equality to a category, using the string representation of the value.
+     */
+    static final class CategoricalEqual extends PredicateEvaluator {
+        private final Object category;
+
+        CategoricalEqual(Object category) {
+            this.category = category;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            return inputValue.toString().equals(category);
+        }
+    }
+
+    /**
+     * Inequality to a category, using the string representation of the value.
+     */
+    static final class CategoricalNotEqual extends PredicateEvaluator {
+        private final Object category;
+
+        CategoricalNotEqual(Object category) {
+            this.category = category;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            return !inputValue.toString().equals(category);
+        }
+    }
+
+    /**
+     * Membership of a single element in the value (or values) of the field.
+     */
+    static final class Contains extends PredicateEvaluator {
+        private final Object element;
+
+        Contains(Object element) {
+            this.element = element;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            if( inputValue instanceof Collection ) {
+                return ((Collection) inputValue).contains(element);
+            }
+            return inputValue.equals(element);
+        }
+    }
+
+    /**
+     * Membership of a set of elements in the value (or values) of the field.
+     */
+    static final class ContainsAll extends PredicateEvaluator {
+        private final Collection elements;
+
+        ContainsAll(Collection elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            if( inputValue instanceof Collection ) {
+                return ((Collection) inputValue).containsAll(elements);
+            }
+            for (Object element : elements) {
+                if( !inputValue.equals(element) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Comparison operators used with non-numeric values.
+     */
+    static final class InvalidComparison extends PredicateEvaluator {
+        private final Object value;
+
+        InvalidComparison(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            throw new ClassCastException(String.format(
+                    "Cannot compare %s with the non-numeric value %s",
+                    inputValue, value));
+        }
+    }
+
+    static final class FalseEvaluator extends PredicateEvaluator {
+
+        @Override
+        public boolean evaluate(Object inputValue) {
+            return false;
+        }
+    }
+}
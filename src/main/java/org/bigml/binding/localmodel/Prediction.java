@@ -16,10 +16,31 @@ import java.util.List;
  */
 public class Prediction extends HashMap<Object, Object> {
 
+    // The node the info of lean predictions is built from when it's
+    // requested
+    private transient Tree node;
+    private transient boolean distinctRules;
+
     public Prediction() {
         super(9);
     }
 
+    /**
+     * Creates a lean prediction for the node, holding only its output,
+     * confidence and count.
+     *
+     * The path, distribution, distribution unit, median and children of
+     * the node are added the first time their getters are called.
+     */
+    Prediction(Tree node) {
+        super(9);
+
+        setPrediction(node.getOutput());
+        setConfidence(node.getConfidence());
+        setCount(node.getCount());
+        setPathNode(node, false);
+    }
+
     public Prediction(Object prediction, Double confidence, Long count, Double median,
                       List<String> path, JSONArray distribution, String distributionUnit,
                       List<Tree> children ) {
@@ -60,6 +81,9 @@ public class Prediction extends HashMap<Object, Object> {
     }
 
     public Double getMedian() {
+        if( node != null && !containsKey("median") ) {
+            setMedian(node.isRegression() ? node.getMedian() : null);
+        }
         return (Double) this.get("median");
     }
 
@@ -76,6 +100,9 @@ public class Prediction extends HashMap<Object, Object> {
     }
 
     public List<String> getPath() {
+        if( node != null && !containsKey("path") ) {
+            setPath(node.getPath(distinctRules));
+        }
         return (List<String>) this.get("path");
     }
 
@@ -84,6 +111,9 @@ public class Prediction extends HashMap<Object, Object> {
     }
 
     public JSONArray getDistribution() {
+        if( node != null && !containsKey("distribution") ) {
+            setDistribution(node.getDistribution());
+        }
         return (JSONArray) this.get("distribution");
     }
 
@@ -92,6 +122,9 @@ public class Prediction extends HashMap<Object, Object> {
     }
 
     public String getDistributionUnit() {
+        if( node != null && !containsKey("distributionUnit") ) {
+            setDistributionUnit(node.getDistributionUnit());
+        }
         return (String) this.get("distributionUnit");
     }
 
@@ -100,6 +133,9 @@ public class Prediction extends HashMap<Object, Object> {
     }
 
     public List<Tree> getChildren() {
+        if( node != null && !containsKey("children") ) {
+            setChildren(node.getChildren());
+        }
         return (List<Tree>) this.get("children");
     }
 
@@ -107,6 +143,18 @@ public class Prediction extends HashMap<Object, Object> {
         this.put("children", children);
     }
 
+    /**
+     * Sets the node the missing info of the prediction is built from.
+     *
+     * @param node the predicting node
+     * @param distinctRules if true, the repeated rules of the path are
+     *                      only added once
+     */
+    void setPathNode(Tree node, boolean distinctRules) {
+        this.node = node;
+        this.distinctRules = distinctRules;
+    }
+
     /**
      * The field that determines next split in the tree
      */
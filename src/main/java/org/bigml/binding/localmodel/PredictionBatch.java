@@ -0,0 +1,95 @@
+package org.bigml.binding.localmodel;
+
+/**
+ * The predictions made for a batch of rows.
+ *
+ * Only the index of the predicting node is kept for every row, so the
+ * batch needs a single int per row. The outputs, confidences and counts
+ * are read from the tables of the compiled model, and the full
+ * Prediction object is only built when asked for.
+ */
+public class PredictionBatch {
+
+    private final CompiledTreeModel compiledTree;
+    private final int[] nodes;
+
+    /**
+     * Constructor
+     *
+     * @param compiledTree the compiled model that made the predictions
+     * @param nodes the index of the predicting node for every row
+     */
+    public PredictionBatch(CompiledTreeModel compiledTree, int[] nodes) {
+        super();
+
+        this.compiledTree = compiledTree;
+        this.nodes = nodes;
+    }
+
+    /**
+     * The number of predictions in the batch
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * The index in the compiled model of the node that predicted the row
+     */
+    public int getNode(int row) {
+        return nodes[row];
+    }
+
+    public Object getPrediction(int row) {
+        return compiledTree.getOutput(nodes[row]);
+    }
+
+    public double getConfidence(int row) {
+        return compiledTree.getConfidence(nodes[row]);
+    }
+
+    public long getCount(int row) {
+        return compiledTree.getCount(nodes[row]);
+    }
+
+    /**
+     * The predictions of all the rows as numbers. Only available for
+     * regression models.
+     *
+     * @return the predicted values
+     */
+    public double[] getNumericPredictions() {
+        if( !compiledTree.isRegression() ) {
+            throw new IllegalStateException("Numeric predictions are only " +
+                    "available for regression models.");
+        }
+
+        double[] predictions = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            predictions[i] = ((Number) compiledTree.getOutput(nodes[i])).doubleValue();
+        }
+        return predictions;
+    }
+
+    /**
+     * The confidences of the predictions of all the rows
+     */
+    public double[] getConfidences() {
+        double[] confidences = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            confidences[i] = compiledTree.getConfidence(nodes[i]);
+        }
+        return confidences;
+    }
+
+    /**
+     * Builds the full Prediction object for a row, including the path
+     * to the predicting node.
+     *
+     * @param row the position of the row in the batch
+     * @return the prediction
+     */
+    public Prediction toPrediction(int row) {
+        return compiledTree.toPrediction(nodes[row]);
+    }
+}
@@ -0,0 +1,74 @@
+package org.bigml.binding.localmodel;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The occurrences of every token found in the text fields of an input
+ * data row.
+ *
+ * The text of each field is tokenized only once, the first time a
+ * predicate on that field needs it, and the counts are shared by all
+ * the predicates on the same field. A new instance must be used for
+ * every row.
+ */
+public class TermCounts {
+
+    private Map<String, Map<String, Integer>> countsByField;
+
+    /**
+     * Returns the number of occurrences of each token in the text of the
+     * given field, tokenizing the text if needed.
+     *
+     * @param field the id of the text field
+     * @param text the text of the field in the current row
+     * @param caseSensitive false if the tokens should be lower cased
+     * @return the occurrences of each token
+     */
+    public Map<String, Integer> get(String field, String text, boolean caseSensitive) {
+        if( countsByField == null ) {
+            countsByField = new HashMap<String, Map<String, Integer>>();
+        }
+
+        Map<String, Integer> counts = countsByField.get(field);
+        if( counts == null ) {
+            counts = tokenize(text, caseSensitive);
+            countsByField.put(field, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the occurrences of each token in the text. Tokens are the
+     * sequences of letters and digits, so any other character (including
+     * underscores) separates them.
+     *
+     * @param text the text to tokenize
+     * @param caseSensitive false if the tokens should be lower cased
+     * @return the occurrences of each token
+     */
+    public static Map<String, Integer> tokenize(String text, boolean caseSensitive) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean tokenChar = i < length &&
+                    Character.isLetterOrDigit(text.charAt(i));
+            if( tokenChar && start < 0 ) {
+                start = i;
+            } else if( !tokenChar && start >= 0 ) {
+                String token = text.substring(start, i);
+                if( !caseSensitive ) {
+                    token = token.toLowerCase(Locale.ROOT);
+                }
+                Integer count = counts.get(token);
+                counts.put(token, (count == null ? 1 : count + 1));
+                start = -1;
+            }
+        }
+
+        return counts;
+    }
+}
@@ -0,0 +1,144 @@
+package org.bigml.binding.localmodel;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts the occurrences of a term (and its forms) in the value of a
+ * text field.
+ *
+ * The forms of the term, the case sensitivity and the token mode are read
+ * from the field's summary and term_analysis only once, when the matcher
+ * is built.
+ */
+public class TermMatcher {
+
+    private final String field;
+    private final String term;
+    private final boolean caseSensitive;
+    private final boolean fullTerm;
+
+    // The term and its forms, lower cased if the field is case insensitive
+    private final String[] forms;
+
+    // Used only when some form is not a single token
+    private final Pattern pattern;
+
+    /**
+     * Constructor
+     *
+     * @param field the id of the text field
+     * @param term the term in the predicate
+     * @param fieldInfo the field's structure in the model
+     */
+    public TermMatcher(String field, String term, JSONObject fieldInfo) {
+        super();
+
+        this.field = field;
+        this.term = term;
+
+        JSONObject options = null;
+        JSONArray termForms = null;
+        if( fieldInfo != null ) {
+            options = (JSONObject) fieldInfo.get("term_analysis");
+            JSONObject summary = (JSONObject) fieldInfo.get("summary");
+            JSONObject allForms = (summary != null ?
+                    (JSONObject) summary.get("term_forms") : null);
+            termForms = (allForms != null ? (JSONArray) allForms.get(term) : null);
+        }
+
+        String tokenMode = (options != null && options.get("token_mode") != null ?
+                (String) options.get("token_mode") : Predicate.TM_TOKENS);
+        this.caseSensitive = (options == null || options.get("case_sensitive") == null ||
+                (Boolean) options.get("case_sensitive"));
+
+        Set<String> formsList = new LinkedHashSet<String>();
+        formsList.add(term);
+        if( termForms != null ) {
+            formsList.addAll(termForms);
+        }
+
+        // In token_mode='all' we will match full terms using equals and
+        // tokens using contains
+        this.fullTerm = Predicate.TM_FULL_TERM.equals(tokenMode) ||
+                (Predicate.TM_ALL.equals(tokenMode) && formsList.size() == 1 &&
+                        Predicate.FULL_TERM_PATTERN_RE.matcher(term).find());
+
+        Set<String> normalizedForms = new LinkedHashSet<String>();
+        boolean singleTokens = true;
+        for (String form : formsList) {
+            normalizedForms.add(caseSensitive ? form : form.toLowerCase(Locale.ROOT));
+            singleTokens &= isToken(form);
+        }
+        this.forms = normalizedForms.toArray(new String[normalizedForms.size()]);
+
+        if( !fullTerm && !singleTokens ) {
+            StringBuilder expression = new StringBuilder();
+            for (String form : formsList) {
+                expression.append(expression.length() > 0 ? "|" : "")
+                        .append(Pattern.quote(form));
+            }
+            this.pattern = Pattern.compile(
+                    String.format("(\\b|_)(%s)(\\b|_)", expression),
+                    (caseSensitive ? Pattern.UNICODE_CASE :
+                            (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)));
+        } else {
+            this.pattern = null;
+        }
+    }
+
+    /**
+     * Counts the occurrences of the term in the text.
+     *
+     * @param text the value of the text field
+     * @param termCounts the tokens already counted for the current row or
+     *                   null if they should not be shared
+     * @return the number of occurrences
+     */
+    public int count(String text, TermCounts termCounts) {
+        if( fullTerm ) {
+            return (caseSensitive ? text.equals(term) : text.equalsIgnoreCase(term)) ? 1 : 0;
+        }
+
+        if( pattern != null ) {
+            int count = 0;
+            Matcher matcher = pattern.matcher(text);
+            while( matcher.find() ) {
+                count++;
+            }
+            return count;
+        }
+
+        Map<String, Integer> counts = (termCounts != null ?
+                termCounts.get(field, text, caseSensitive) :
+                TermCounts.tokenize(text, caseSensitive));
+
+        int count = 0;
+        for (String form : forms) {
+            Integer formCount = counts.get(form);
+            if( formCount != null ) {
+                count += formCount;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isToken(String form) {
+        if( form.length() == 0 ) {
+            return false;
+        }
+        for (int i = 0; i < form.length(); i++) {
+            if( !Character.isLetterOrDigit(form.charAt(i)) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -4,6 +4,7 @@ import org.apache.commons.math3.distribution.ChiSquaredDistribution;
 import org.apache.commons.math3.special.Erf;
 import org.bigml.binding.Constants;
 import org.bigml.binding.MissingStrategy;
+import org.bigml.binding.utils.JSONPath;
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -79,6 +80,11 @@ public class Tree {
 
     private static final JSONObject languageConversions;
 
+    // Attributes of the fields structure
+    private static final JSONPath FIELD_NAME = JSONPath.compile("name");
+    private static final JSONPath FIELD_OPTYPE = JSONPath.compile("optype");
+    private static final JSONPath FIELD_SLUG = JSONPath.compile("slug");
+
     static {
         InputStream input = Tree.class.getResourceAsStream("/org/bigml/binding/localmodel/languageConversions.json");
         languageConversions = (JSONObject) JSONValue.parse(new InputStreamReader(input));
@@ -88,6 +94,7 @@ public class Tree {
     private final JSONObject root;
     private String id;
     private String parentId;
+    private Tree parent;
     private String objectiveField;
     private final Object output;
     private boolean isPredicate;
@@ -102,6 +109,17 @@ public class Tree {
     private double confidence;
     private JSONObject rootDistribution;
 
+    // The split fields of the subtree and whether the missing values in
+    // all of its splits are handled by merging the branches
+    private final String[] subtreeFields;
+    private final boolean mergeableSubtree;
+
+    // The merged distribution of the leaves of the subtree and the
+    // proportional prediction it leads to, built the first time they
+    // are needed
+    private volatile Map<Object, Number> mergedDistribution;
+    private volatile Prediction mergedPrediction;
+
     /**
      * Constructor
      */
@@ -128,12 +146,13 @@ public class Tree {
             isPredicate = true;
         } else {
             JSONObject predicateObj = (JSONObject) root.get("predicate");
-            predicate = new Predicate((String) Utils.getJSONObject(fields,
-                    predicateObj.get("field") + ".optype"),
+            predicate = new Predicate((String) FIELD_OPTYPE.getField(fields,
+                    predicateObj.get("field")),
                     (String) predicateObj.get("operator"),
                     (String) predicateObj.get("field"),
                     predicateObj.get("value"),
-                    (String) predicateObj.get("term"));
+                    (String) predicateObj.get("term"),
+                    fields);
         }
 
         if( root.containsKey("id") ) {
@@ -146,15 +165,37 @@ public class Tree {
             }
         }
 
-        children = new ArrayList<Tree>();
+        // The children are handed out with the predictions, so they
+        // can't be changed
+        List<Tree> childrenList = new ArrayList<Tree>();
         JSONArray childrenObj = (JSONArray) root.get("children");
         if (childrenObj != null) {
             for (int i = 0; i < childrenObj.size(); i++) {
                 JSONObject child = (JSONObject) childrenObj.get(i);
                 Tree childTree = new Tree(child, fields, objectiveField, null, id, idsMap, subtree, maxBins);
-                children.add(childTree);
+                childTree.parent = this;
+                childrenList.add(childTree);
             }
         }
+        children = Collections.unmodifiableList(childrenList);
+
+        Set<String> splitFields = new LinkedHashSet<String>();
+        boolean mergeable = true;
+        if( !children.isEmpty() ) {
+            String splitField = Utils.split(children);
+            for (Tree child : children) {
+                mergeable &= !child.isPredicate && child.mergeableSubtree;
+            }
+            mergeable &= splitField != null && !missingBranch(children) &&
+                    !noneValue(children);
+
+            splitFields.add(splitField);
+            for (Tree child : children) {
+                splitFields.addAll(Arrays.asList(child.subtreeFields));
+            }
+        }
+        this.subtreeFields = splitFields.toArray(new String[splitFields.size()]);
+        this.mergeableSubtree = mergeable;
 
         this.count = (Long) root.get("count");
         this.confidence = ((Number) root.get("confidence")).doubleValue();
@@ -505,7 +546,7 @@ public class Tree {
         }
 
         for (String header : headers) {
-            if( header.equals(Utils.getJSONObject(fields, objectiveField + ".name"))) {
+            if( header.equals(FIELD_NAME.getField(fields, objectiveField))) {
                 row.add(output);
                 continue;
             }
@@ -583,6 +624,102 @@ public class Tree {
      */
     public Prediction predict(final JSONObject inputData, List<String> path,
                                            MissingStrategy strategy) {
+        return predict(inputData, path, strategy, new TermCounts());
+    }
+
+    /**
+     * Makes a lean prediction based on a number of field values.
+     *
+     * The prediction only holds the output, the confidence and the count.
+     * The path of rules and the rest of the prediction info are built from
+     * the predicting node only when their getters are called.
+     *
+     * The input fields must be keyed by Id.
+     */
+    public Prediction predictLean(final JSONObject inputData, MissingStrategy strategy) {
+        return predictLean(inputData, strategy, new TermCounts());
+    }
+
+    protected Prediction predictLean(final JSONObject inputData, MissingStrategy strategy,
+                                     TermCounts termCounts) {
+        if (strategy == null) {
+            strategy = MissingStrategy.LAST_PREDICTION;
+        }
+
+        if( strategy == MissingStrategy.LAST_PREDICTION  ) {
+            Tree node = this;
+            Tree next = node;
+            while( next != null ) {
+                node = next;
+                next = null;
+                for (Tree child : node.children) {
+                    if( child.predicate.apply(inputData, fields, termCounts) ) {
+                        next = child;
+                        break;
+                    }
+                }
+            }
+
+            return new Prediction(node);
+        } else if( strategy == MissingStrategy.PROPORTIONAL  ) {
+            TreeHolder lastNode = new TreeHolder();
+            Map<Object, Number> finalDistribution = predictProportional(inputData, lastNode, null,
+                    false, false, termCounts);
+
+            Prediction prediction;
+            if( lastNode.getMergedTree() != null ) {
+                prediction = lastNode.getMergedTree().getMergedPrediction(null);
+            } else {
+                prediction = proportionalPrediction(finalDistribution, lastNode.getTree(), null);
+            }
+
+            // The unique path stops at the last node, skipping the
+            // rules that were already found
+            prediction.remove("path");
+            prediction.setPathNode(lastNode.getTree(), true);
+            return prediction;
+        } else {
+            throw new UnsupportedOperationException(
+                    String.format("Unsupported missing strategy %s", strategy.name()));
+        }
+    }
+
+    /**
+     * Returns the rules of the branches that lead from the root of the
+     * tree to this node.
+     */
+    public List<String> getPath() {
+        return getPath(false);
+    }
+
+    /**
+     * Returns the rules of the branches that lead from the root of the
+     * tree to this node.
+     *
+     * @param distinctRules if true, the rules that are repeated along the
+     *                      branches are only added once
+     */
+    protected List<String> getPath(boolean distinctRules) {
+        LinkedList<String> rules = new LinkedList<String>();
+        for (Tree node = this; node.parent != null; node = node.parent) {
+            rules.addFirst(node.predicate.toRule(fields));
+        }
+
+        List<String> path = new ArrayList<String>(rules.size());
+        for (String rule : rules) {
+            if( !distinctRules || !path.contains(rule) ) {
+                path.add(rule);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Makes a prediction based on a number of field values sharing the
+     * tokens found in the text fields among all the predicates.
+     */
+    protected Prediction predict(final JSONObject inputData, List<String> path,
+                                 MissingStrategy strategy, TermCounts termCounts) {
         if (strategy == null) {
             strategy = MissingStrategy.LAST_PREDICTION;
         }
@@ -597,9 +734,9 @@ public class Tree {
                 for (int i = 0; i < this.children.size(); i++) {
                     Tree child = this.children.get(i);
 
-                    if( child.predicate.apply(inputData, fields) ) {
+                    if( child.predicate.apply(inputData, fields, termCounts) ) {
                         path.add(child.predicate.toRule(fields));
-                        return child.predict(inputData, path, strategy);
+                        return child.predict(inputData, path, strategy, termCounts);
                     }
                 }
             }
@@ -611,52 +748,72 @@ public class Tree {
 
         } else if( strategy == MissingStrategy.PROPORTIONAL  ) {
             TreeHolder lastNode = new TreeHolder();
-            Map<Object, Number> finalDistribution = predictProportional(inputData, lastNode, path, false, false);
-
-            if( isRegression() ) {
-                // singular case:
-                // when the prediction is the one given in a 1-instance node
-                if( finalDistribution.size() == 1 ) {
-                    long instances = finalDistribution.values().toArray(new Number[1])[0].longValue();
-                    if(  instances == 1 ) {
-                        return new Prediction(lastNode.getTree().getOutput(), lastNode.getTree().getConfidence(),
-                                instances, lastNode.getTree().getMedian(),
-                                path, lastNode.getTree().getDistribution(), lastNode.getTree().getDistributionUnit(),
-                                lastNode.getTree().getChildren());
-                    }
+            Map<Object, Number> finalDistribution = predictProportional(inputData, lastNode, path,
+                    false, false, termCounts);
+
+            // The distribution of a single subtree leads always to
+            // the same prediction
+            if( lastNode.getMergedTree() != null ) {
+                return lastNode.getMergedTree().getMergedPrediction(path);
+            }
+
+            return proportionalPrediction(finalDistribution, lastNode.getTree(), path);
+        } else {
+            throw new UnsupportedOperationException(
+                    String.format("Unsupported missing strategy %s", strategy.name()));
+        }
+    }
+
+    /**
+     * Builds the prediction for the distribution merged by the
+     * proportional missing strategy
+     *
+     * @param finalDistribution the merged distribution
+     * @param lastNode the last node reached by a unique path
+     * @param path the rules of the unique path
+     */
+    private Prediction proportionalPrediction(Map<Object, Number> finalDistribution,
+                                              Tree lastNode, List<String> path) {
+        if( isRegression() ) {
+            // singular case:
+            // when the prediction is the one given in a 1-instance node
+            if( finalDistribution.size() == 1 ) {
+                long instances = finalDistribution.values().toArray(new Number[1])[0].longValue();
+                if(  instances == 1 ) {
+                    return new Prediction(lastNode.getOutput(), lastNode.getConfidence(),
+                            instances, lastNode.getMedian(),
+                            path, lastNode.getDistribution(), lastNode.getDistributionUnit(),
+                            lastNode.getChildren());
                 }
+            }
 
-                // when there's more instances, sort elements by their mean
-                JSONArray distribution  = Utils.convertDistributionMapToSortedArray(finalDistribution);
+            // when there's more instances, sort elements by their mean
+            JSONArray distribution  = Utils.convertDistributionMapToSortedArray(finalDistribution);
 
-                String distributionUnit = (distribution.size() > BINS_LIMIT ? "bins" : "counts");
+            String distributionUnit = (distribution.size() > BINS_LIMIT ? "bins" : "counts");
 
-                distribution = Utils.mergeBins(distribution, BINS_LIMIT);
-                long totalInstances = calculateTotalInstances(distribution);
+            distribution = Utils.mergeBins(distribution, BINS_LIMIT);
+            long totalInstances = calculateTotalInstances(distribution);
 
-                double prediction = Utils.meanOfDistribution(distribution);
+            double prediction = Utils.meanOfDistribution(distribution);
 
-                double confidence = regressionError(unbiasedSampleVariance(distribution, prediction),
-                        totalInstances, DEFAULT_RZ);
+            double confidence = regressionError(unbiasedSampleVariance(distribution, prediction),
+                    totalInstances, DEFAULT_RZ);
 
-                return new Prediction(prediction, confidence, totalInstances,
-                                distributionMedian(distribution, totalInstances),
-                                path, distribution, distributionUnit,
-                                lastNode.getTree().getChildren());
-            } else {
-                JSONArray distribution  = Utils.convertDistributionMapToSortedArray(finalDistribution);
-                long totalInstances = calculateTotalInstances(distribution);
-
-                return new Prediction(((JSONArray) distribution.get(0)).get(0),
-                        wsConfidence(((JSONArray) distribution.get(0)).get(0), distribution,
-                                totalInstances, DEFAULT_RZ),
-                        totalInstances, null,
-                        path, distribution, "categorical",
-                        lastNode.getTree().getChildren());
-            }
+            return new Prediction(prediction, confidence, totalInstances,
+                            distributionMedian(distribution, totalInstances),
+                            path, distribution, distributionUnit,
+                            lastNode.getChildren());
         } else {
-            throw new UnsupportedOperationException(
-                    String.format("Unsupported missing strategy %s", strategy.name()));
+            JSONArray distribution  = Utils.convertDistributionMapToSortedArray(finalDistribution);
+            long totalInstances = calculateTotalInstances(distribution);
+
+            return new Prediction(((JSONArray) distribution.get(0)).get(0),
+                    wsConfidence(((JSONArray) distribution.get(0)).get(0), distribution,
+                            totalInstances, DEFAULT_RZ),
+                    totalInstances, null,
+                    path, distribution, "categorical",
+                    lastNode.getChildren());
         }
     }
 
@@ -676,37 +833,52 @@ public class Tree {
      */
     protected Map<Object, Number> predictProportional(final JSONObject inputData, final TreeHolder lastNode, List<String> path,
                                                       Boolean missingFound, Boolean median) {
-        if( path == null ) {
-            path = new ArrayList<String>();
-        }
+        return predictProportional(inputData, lastNode, path, missingFound, median, new TermCounts());
+    }
 
+    protected Map<Object, Number> predictProportional(final JSONObject inputData, final TreeHolder lastNode, List<String> path,
+                                                      Boolean missingFound, Boolean median, TermCounts termCounts) {
+        // When no path is given the rules are not collected
         Map<Object, Number> finalDistribution = new HashMap<Object, Number>();
 
         // We are in a leaf node... the only thing we need to do is return distribution of the node as a Map object
         if( children.isEmpty() ) {
             lastNode.setTree(this);
-            return Utils.mergeDistributions(new HashMap<Object, Number>(), Utils.convertDistributionArrayToMap(distribution));
+            lastNode.setMergedTree(this);
+            return getMergedDistribution();
         }
 
         if( isOneBranch(children, inputData) ) {
             for (Tree child : children) {
-                if( child.getPredicate().apply(inputData, fields) ) {
-                    String newRule = child.getPredicate().toRule(fields);
-                    if( !path.contains(newRule) && !missingFound ) {
-                        path.add(newRule);
+                if( child.getPredicate().apply(inputData, fields, termCounts) ) {
+                    if( path != null && !missingFound ) {
+                        String newRule = child.getPredicate().toRule(fields);
+                        if( !path.contains(newRule) ) {
+                            path.add(newRule);
+                        }
                     }
-                    return child.predictProportional(inputData, lastNode, path, missingFound, median);
+                    return child.predictProportional(inputData, lastNode, path, missingFound, median, termCounts);
                 }
             }
         } else {
             // missing value found, the unique path stops
             missingFound = true;
+
+            // none of the splits below can be followed, so all the
+            // leaves of the subtree are merged
+            if( mergeableSubtree && !containsAny(inputData, subtreeFields) ) {
+                lastNode.setTree(this);
+                lastNode.setMergedTree(this);
+                return getMergedDistribution();
+            }
+
             for (Tree child : children) {
                 finalDistribution = Utils.mergeDistributions(finalDistribution,
-                        child.predictProportional(inputData, lastNode, path, missingFound, median));
+                        child.predictProportional(inputData, lastNode, path, missingFound, median, termCounts));
             }
 
             lastNode.setTree(this);
+            lastNode.setMergedTree(null);
             return  finalDistribution;
         }
 
@@ -715,6 +887,77 @@ public class Tree {
     }
 
 
+    /**
+     * Returns the merged distribution of all the leaves of the subtree.
+     *
+     * The distribution is computed the first time it's needed and
+     * can't be modified.
+     */
+    protected Map<Object, Number> getMergedDistribution() {
+        Map<Object, Number> merged = mergedDistribution;
+        if( merged == null ) {
+            merged = new HashMap<Object, Number>();
+            if( children.isEmpty() ) {
+                Utils.mergeDistributions(merged, Utils.convertDistributionArrayToMap(distribution));
+            } else {
+                for (Tree child : children) {
+                    Utils.mergeDistributions(merged, child.getMergedDistribution());
+                }
+            }
+            merged = Collections.unmodifiableMap(merged);
+            mergedDistribution = merged;
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the proportional prediction for the merged distribution
+     * of the subtree with the given path.
+     *
+     * The prediction kept on the node is never returned, each call gets
+     * its own copy of the distribution.
+     *
+     * @param path the rules of the unique path
+     */
+    protected Prediction getMergedPrediction(List<String> path) {
+        Prediction template = mergedPrediction;
+        if( template == null ) {
+            template = proportionalPrediction(getMergedDistribution(), this, null);
+            mergedPrediction = template;
+        }
+
+        Prediction prediction = new Prediction();
+        prediction.putAll(template);
+        prediction.setPath(path);
+
+        if( template.getDistribution() != null ) {
+            JSONArray distribution = new JSONArray();
+            for (Object bin : template.getDistribution()) {
+                JSONArray binCopy = new JSONArray();
+                binCopy.addAll((List) bin);
+                distribution.add(binCopy);
+            }
+            prediction.setDistribution(distribution);
+        }
+        return prediction;
+    }
+
+    /**
+     * Checks if any of the fields has a value in the input data
+     *
+     * @param inputData
+     * @param fieldIds
+     * @return
+     */
+    protected boolean containsAny(final JSONObject inputData, final String[] fieldIds) {
+        for (String fieldId : fieldIds) {
+            if( inputData.containsKey(fieldId) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Check if there's only one branch to be followed
      *
@@ -835,8 +1078,7 @@ public class Tree {
                 }
             }
         } else {
-            String fieldName = (String) Utils.getJSONObject(fields,
-                    objectiveField + ".slug");
+            String fieldName = (String) FIELD_SLUG.getField(fields, objectiveField);
             if( language == Predicate.RuleLanguage.PSEUDOCODE ) {
                 rules += MessageFormat.format("{0} {1} = {2}{3}\n", new String(
                                 new char[depth]).replace("\0", INDENT),
@@ -902,7 +1144,7 @@ public class Tree {
      */
     public String rules() {
         for (Object fieldId : fields.keySet()) {
-            String slug = Utils.slugify(Utils.getJSONObject(fields, fieldId + ".name", "").toString(),
+            String slug = Utils.slugify(FIELD_NAME.getField(fields, fieldId, "").toString(),
                     null, null);
             ((JSONObject) fields.get(fieldId)).put("slug", slug);
         }
@@ -914,7 +1156,7 @@ public class Tree {
      */
     public String rules(Predicate.RuleLanguage language) {
         for (Object fieldId : fields.keySet()) {
-            String slug = Utils.slugify(Utils.getJSONObject(fields, fieldId + ".name", "").toString(),
+            String slug = Utils.slugify(FIELD_NAME.getField(fields, fieldId, "").toString(),
                     null, null);
             ((JSONObject) fields.get(fieldId)).put("slug", slug);
         }
@@ -927,7 +1169,7 @@ public class Tree {
     public String rules(Predicate.RuleLanguage language, final List<String> idsPath,
                         final boolean subtree) {
         for (Object fieldId : fields.keySet()) {
-            String slug = Utils.slugify(Utils.getJSONObject(fields, fieldId + ".name", "").toString(),
+            String slug = Utils.slugify(FIELD_NAME.getField(fields, fieldId, "").toString(),
                     null, null);
             ((JSONObject) fields.get(fieldId)).put("slug", slug);
         }
@@ -962,13 +1204,13 @@ public class Tree {
             alternate = "if";
         }
 
-        String objectiveType = (String) Utils.getJSONObject(fields, objectiveField + ".optype", "");
+        String objectiveType = (String) FIELD_OPTYPE.getField(fields, objectiveField, "");
 
         List<Tree> children = filterNodes(this.children, idsPath, subtree);
 
         if (children != null && children.size() > 0) {
             String fieldId = Utils.split(children);
-            String fieldName = Utils.getJSONObject(fields, fieldId + ".name", "").toString();
+            String fieldName = FIELD_NAME.getField(fields, fieldId, "").toString();
 
             boolean hasMissingBranch = missingBranch(children) || noneValue(children);
 
@@ -1113,6 +1355,7 @@ public class Tree {
 
     protected static class TreeHolder {
         private Tree tree;
+        private Tree mergedTree;
 
         public Tree getTree() {
             return tree;
@@ -1121,5 +1364,17 @@ public class Tree {
         public void setTree(Tree tree) {
             this.tree = tree;
         }
+
+        /**
+         * The subtree whose leaves were all merged, or null when the
+         * distribution was built from partial subtrees
+         */
+        public Tree getMergedTree() {
+            return mergedTree;
+        }
+
+        public void setMergedTree(Tree mergedTree) {
+            this.mergedTree = mergedTree;
+        }
     }
 }
@@ -3,6 +3,10 @@ package org.bigml.binding.resources;
 import org.bigml.binding.AuthenticationException;
 import org.bigml.binding.BigMLClient;
 import org.bigml.binding.utils.CacheManager;
+import org.bigml.binding.utils.HttpResponse;
+import org.bigml.binding.utils.HttpTransport;
+import org.bigml.binding.utils.PooledHttpTransport;
+import org.bigml.binding.utils.ResponseReader;
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -13,10 +17,16 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
-import java.net.HttpURLConnection;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Entry point to create, retrieve, list, update, and delete sources, datasets,
@@ -196,6 +206,19 @@ public abstract class AbstractResource {
 
     public CacheManager cacheManager;
 
+    // Parses the JSON bodies while they are received, so the whole body
+    // is never held as a String
+    private static final ResponseReader JSON_READER = new ResponseReader() {
+        public Object read(int code, Reader body) throws IOException {
+            return JSONValue.parse(body);
+        }
+    };
+
+    // The transport shared by all the resources that don't set their own
+    private static volatile HttpTransport defaultTransport;
+
+    protected HttpTransport transport;
+
     protected void init(CacheManager cacheManager) {
         try {
             BIGML_URL = BigMLClient.getInstance(devMode).getBigMLUrl();
@@ -233,6 +256,49 @@ public abstract class AbstractResource {
         }
     }
 
+    /**
+     * The transport used by default by all the resources. A pooled
+     * keep-alive transport is created the first time it's needed.
+     */
+    public static HttpTransport getDefaultTransport() {
+        HttpTransport result = defaultTransport;
+        if( result == null ) {
+            synchronized (AbstractResource.class) {
+                if( defaultTransport == null ) {
+                    defaultTransport = new PooledHttpTransport();
+                }
+                result = defaultTransport;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets the transport used by all the resources that don't have their
+     * own, e.g. a PooledHttpTransport with other limits and timeouts.
+     *
+     * @param transport the transport or null to use the default one
+     */
+    public static void setDefaultTransport(HttpTransport transport) {
+        defaultTransport = transport;
+    }
+
+    /**
+     * The transport used to send the requests of this resource
+     */
+    public HttpTransport getTransport() {
+        return (transport != null ? transport : getDefaultTransport());
+    }
+
+    /**
+     * Sets the transport used to send the requests of this resource
+     *
+     * @param transport the transport or null to use the default one
+     */
+    public void setTransport(HttpTransport transport) {
+        this.transport = transport;
+    }
+
     /**
      * Check if the current resource is an instance of this resource
      *
@@ -257,21 +323,20 @@ public abstract class AbstractResource {
         error.put("status", status);
 
         try {
-            HttpURLConnection connection = Utils.processPOST(urlString + bigmlAuth, json);
+            HttpResponse response = getTransport().execute("POST",
+                    urlString + bigmlAuth, json, JSON_READER);
 
-            code = connection.getResponseCode();
+            code = response.getCode();
             if (code == HTTP_CREATED) {
-                location = connection.getHeaderField(location);
-                resource = (JSONObject) JSONValue.parse(Utils
-                        .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                location = response.getHeader(location);
+                resource = (JSONObject) response.getContent();
                 resourceId = (String) resource.get("resource");
                 error = new JSONObject();
             } else {
                 if (code == HTTP_BAD_REQUEST || code == HTTP_UNAUTHORIZED
                         || code == HTTP_PAYMENT_REQUIRED
                         || code == HTTP_NOT_FOUND) {
-                    error = (JSONObject) JSONValue.parse(Utils
-                            .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                    error = (JSONObject) response.getContent();
                 } else {
                     logger.info("Unexpected error (" + code + ")");
                     code = HTTP_INTERNAL_SERVER_ERROR;
@@ -329,9 +394,8 @@ public abstract class AbstractResource {
         // Check the cache first
         if( cacheManager != null ) {
             resourceId = urlString.substring(BIGML_URL.length(), urlString.length());
-            if( cacheManager.exists(resourceId, queryString) ) {
-                resource = cacheManager.get(resourceId, queryString);
-
+            resource = cacheManager.get(resourceId, queryString);
+            if( resource != null ) {
                 JSONObject result = new JSONObject();
                 result.put("code", HTTP_OK);
                 result.put("resource", resourceId);
@@ -347,20 +411,19 @@ public abstract class AbstractResource {
             String auth = apiUser != null && apiKey != null ? "?username="
                     + apiUser + ";api_key=" + apiKey + ";" : bigmlAuth;
 
-            HttpURLConnection connection = Utils.processGET(urlString + auth + query);
+            HttpResponse response = getTransport().execute("GET",
+                    urlString + auth + query, null, JSON_READER);
 
-            code = connection.getResponseCode();
+            code = response.getCode();
 
             if (code == HTTP_OK) {
-                resource = (JSONObject) JSONValue.parse(Utils
-                        .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                resource = (JSONObject) response.getContent();
                 resourceId = (String) resource.get("resource");
                 error = new JSONObject();
             } else {
                 if (code == HTTP_BAD_REQUEST || code == HTTP_UNAUTHORIZED
                         || code == HTTP_NOT_FOUND) {
-                    error = (JSONObject) JSONValue.parse(Utils
-                            .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                    error = (JSONObject) response.getContent();
                 } else {
                     logger.info("Unexpected error (" + code + ")");
                     code = HTTP_INTERNAL_SERVER_ERROR;
@@ -403,21 +466,20 @@ public abstract class AbstractResource {
         try {
             String query = queryString != null ? queryString : "";
 
-            HttpURLConnection connection = Utils.processGET(urlString + bigmlAuth + query);
+            HttpResponse response = getTransport().execute("GET",
+                    urlString + bigmlAuth + query, null, JSON_READER);
 
-            code = connection.getResponseCode();
+            code = response.getCode();
 
             if (code == HTTP_OK) {
-                JSONObject resource = (JSONObject) JSONValue.parse(Utils
-                        .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                JSONObject resource = (JSONObject) response.getContent();
                 meta = (JSONObject) resource.get("meta");
                 resources = (JSONArray) resource.get("objects");
                 error = new JSONObject();
             } else {
                 if (code == HTTP_BAD_REQUEST || code == HTTP_UNAUTHORIZED
                         || code == HTTP_NOT_FOUND) {
-                    error = (JSONObject) JSONValue.parse(Utils
-                            .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                    error = (JSONObject) response.getContent();
                 } else {
                     logger.info("Unexpected error (" + code + ")");
                     code = HTTP_INTERNAL_SERVER_ERROR;
@@ -450,19 +512,18 @@ public abstract class AbstractResource {
         error.put("status", status);
 
         try {
-            HttpURLConnection connection = Utils.processPUT(urlString + bigmlAuth, json);
+            HttpResponse response = getTransport().execute("PUT",
+                    urlString + bigmlAuth, json, JSON_READER);
 
-            code = connection.getResponseCode();
+            code = response.getCode();
             if (code == HTTP_ACCEPTED) {
-                resource = (JSONObject) JSONValue.parse(Utils
-                        .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                resource = (JSONObject) response.getContent();
                 resourceId = (String) resource.get("resource");
                 error = new JSONObject();
             } else {
                 if (code == HTTP_UNAUTHORIZED || code == HTTP_PAYMENT_REQUIRED
                         || code == HTTP_METHOD_NOT_ALLOWED) {
-                    error = (JSONObject) JSONValue.parse(Utils
-                            .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                    error = (JSONObject) response.getContent();
                 } else {
                     logger.info("Unexpected error (" + code + ")");
                     code = HTTP_INTERNAL_SERVER_ERROR;
@@ -501,17 +562,17 @@ public abstract class AbstractResource {
         error.put("status", status);
 
         try {
-            HttpURLConnection connection = Utils.processDELETE(urlString + bigmlAuth);
+            HttpResponse response = getTransport().execute("DELETE",
+                    urlString + bigmlAuth, null, JSON_READER);
 
-            code = connection.getResponseCode();
+            code = response.getCode();
 
             if (code == HTTP_NO_CONTENT) {
                 error = new JSONObject();
             } else {
                 if (code == HTTP_BAD_REQUEST || code == HTTP_UNAUTHORIZED
                         || code == HTTP_NOT_FOUND) {
-                    error = (JSONObject) JSONValue.parse(Utils
-                            .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                    error = (JSONObject) response.getContent();
                 } else {
                     logger.info("Unexpected error (" + code + ")");
                     code = HTTP_INTERNAL_SERVER_ERROR;
@@ -627,6 +688,87 @@ public abstract class AbstractResource {
         }
     }
 
+    /**
+     * Waits for a resource to be finished without blocking the caller.
+     *
+     * The resource is checked by the shared {@link ResourcePoller}, in
+     * the same batches as the rest of pending resources.
+     *
+     * @param resourceId
+     *            a unique identifier in the form type/id
+     * @return the future completed with the finished resource
+     */
+    public ResourceFuture whenReady(final String resourceId) {
+        return whenReady(resourceId, 0);
+    }
+
+    /**
+     * Waits for a resource to be finished without blocking the caller.
+     *
+     * @param resourceId
+     *            a unique identifier in the form type/id
+     * @param timeout
+     *            the maximum time to wait, in milliseconds. Zero means
+     *            no limit.
+     * @return the future completed with the finished resource, or failed
+     *          if the resource is faulty or the timeout expires
+     */
+    public ResourceFuture whenReady(final String resourceId, final long timeout) {
+        if (resourceId == null || resourceId.length() == 0
+                || !isInstance(resourceIdAsJSON(resourceId))) {
+            throw new IllegalArgumentException("Wrong resource id: " + resourceId);
+        }
+        return ResourcePoller.getDefault().whenReady(this,
+                BIGML_URL + resourceId, timeout);
+    }
+
+    /**
+     * Waits for a resource to be finished without blocking the caller.
+     *
+     * @param resource
+     *            a resource JSONObject
+     * @return the future completed with the finished resource
+     */
+    public ResourceFuture whenReady(final JSONObject resource) {
+        return whenReady((String) resource.get("resource"), 0);
+    }
+
+    /**
+     * Checks whether a resource's status is FINISHED without blocking the
+     * caller.
+     *
+     * It's built on {@link #whenReady(String, long)}: the future is true
+     * once the resource is finished, and false if it is faulty, cannot be
+     * retrieved or the timeout expires.
+     *
+     * @param resourceId
+     *            a unique identifier in the form type/id
+     * @param timeout
+     *            the maximum time to wait, in milliseconds. Zero means
+     *            no limit.
+     */
+    public Future<Boolean> isReadyAsync(final String resourceId,
+                                        final long timeout) {
+        return new ReadyFuture(whenReady(resourceId, timeout));
+    }
+
+    /**
+     * Checks whether a resource's status is FINISHED without blocking the
+     * caller. See {@link #isReadyAsync(String, long)}.
+     *
+     * @param resource
+     *            a resource JSONObject
+     */
+    public Future<Boolean> isReadyAsync(final JSONObject resource) {
+        return isReadyAsync((String) resource.get("resource"), 0);
+    }
+
+    private static JSONObject resourceIdAsJSON(final String resourceId) {
+        JSONObject resource = new JSONObject();
+        resource.put("resource", resourceId);
+        return resource;
+    }
+
     // ################################################################
     // #
     // # Abstract methods
@@ -709,15 +851,118 @@ public abstract class AbstractResource {
     /**
      * Builds args dictionary for the create call from a `dataset` or a list of
      * `datasets`
+     *
+     * The caller waits for the datasets for no longer than waitTime * retries.
+     * The datasets that are not ready by then are used anyway.
      */
     protected JSONObject createFromDatasets(final String[] datasets,
             JSONObject args, Integer waitTime, Integer retries, String key) {
 
-        JSONObject createArgs = new JSONObject();
-        if (args != null) {
-            createArgs = args;
+        List<String> datasetsIds = getDatasetsIds(datasets);
+        if (datasetsIds == null) {
+            return null;
+        }
+
+        // Checking status. All the datasets are waited for at the same time
+        try {
+            waitTime = waitTime != null ? waitTime : 3000;
+            retries = retries != null ? retries : 10;
+            if (waitTime > 0) {
+                ResourceFuture future = createFromDatasetsAsync(datasets,
+                        null, key, 0);
+                try {
+                    future.get((long) waitTime * retries, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // The datasets are used anyway, as before
+                } catch (ExecutionException e) {
+                    logger.info("Error waiting for the datasets", e.getCause());
+                } finally {
+                    future.cancel(false);
+                }
+            }
+        } catch (Throwable e) {
+            logger.error("Error creating object");
+            return null;
+        }
+
+        return getDatasetsArgs(datasetsIds, args, key);
+    }
+
+    /**
+     * Builds args dictionary for the create call from a `dataset` or a list of
+     * `datasets` without blocking the caller.
+     *
+     * The datasets are checked at once by the shared {@link ResourcePoller}.
+     * The future is completed with the args when all of them are finished,
+     * and fails as soon as one of them is faulty, cannot be retrieved or
+     * the timeout expires. Cancelling the future stops waiting for the
+     * datasets.
+     *
+     * @param timeout
+     *            the maximum time to wait, in milliseconds. Zero means
+     *            no limit.
+     * @return the future completed with the args, or null if any dataset
+     *          id is wrong
+     */
+    protected ResourceFuture createFromDatasetsAsync(final String[] datasets,
+            JSONObject args, String key, long timeout) {
+
+        List<String> datasetsIds = getDatasetsIds(datasets);
+        if (datasetsIds == null) {
+            return null;
         }
 
+        final JSONObject createArgs = getDatasetsArgs(datasetsIds, args, key);
+        final ResourceFuture result = new ResourceFuture(datasetsIds.toString());
+        final List<ResourceFuture> pending = new ArrayList<ResourceFuture>();
+        final AtomicInteger remaining = new AtomicInteger(datasetsIds.size());
+
+        ResourceFuture.Listener datasetListener = new ResourceFuture.Listener() {
+            public void done(ResourceFuture future) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    result.fail(e.getCause());
+                    return;
+                } catch (Exception e) {
+                    result.cancel(false);
+                    return;
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    result.complete(createArgs);
+                }
+            }
+        };
+
+        // The datasets may be already finished, so they are checked
+        // right away
+        for (String datasetId : datasetsIds) {
+            pending.add(ResourcePoller.getDefault().whenReady(this,
+                    BIGML_URL + datasetId, timeout, 0));
+        }
+
+        // The datasets still pending are not checked anymore once the
+        // result is done
+        result.addListener(new ResourceFuture.Listener() {
+            public void done(ResourceFuture future) {
+                for (ResourceFuture datasetFuture : pending) {
+                    datasetFuture.cancel(false);
+                }
+            }
+        });
+        for (ResourceFuture datasetFuture : pending) {
+            datasetFuture.addListener(datasetListener);
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks the ids of the datasets
+     *
+     * @return the list of ids, or null if any of them is wrong
+     */
+    private List<String> getDatasetsIds(final String[] datasets) {
         List<String> datasetsIds = new ArrayList<String>();
 
         for (String datasetId : datasets) {
@@ -727,26 +972,16 @@ public abstract class AbstractResource {
                 logger.info("Wrong dataset id");
                 return null;
             }
+            datasetsIds.add(datasetId);
+        }
+        return datasetsIds;
+    }
 
-            // Checking status
-            try {
-                waitTime = waitTime != null ? waitTime : 3000;
-                retries = retries != null ? retries : 10;
-                if (waitTime > 0) {
-                    int count = 0;
-                    while (count < retries
-                            && !BigMLClient.getInstance(this.devMode)
-                                    .datasetIsReady(datasetId)) {
-                        Thread.sleep(waitTime);
-                        count++;
-                    }
-                }
-                datasetsIds.add(datasetId);
-            } catch (Throwable e) {
-                logger.error("Error creating object");
-                return null;
-            }
-
+    private JSONObject getDatasetsArgs(List<String> datasetsIds,
+            JSONObject args, String key) {
+        JSONObject createArgs = new JSONObject();
+        if (args != null) {
+            createArgs = args;
         }
 
         if (datasetsIds.size() == 1) {
@@ -772,11 +1007,12 @@ public abstract class AbstractResource {
         JSONObject error = new JSONObject();
         String csv = "";
         try {
-            HttpURLConnection connection = Utils.processGET(url + bigmlAuth);
+            HttpResponse response = getTransport().execute("GET",
+                    url + bigmlAuth, null);
 
-            code = connection.getResponseCode();
+            code = response.getCode();
 
-            csv = Utils.inputStreamAsString(connection.getInputStream(), "UTF-8");
+            csv = response.getBody();
 
             if (code == HTTP_OK) {
                 if (fileName != null) {
@@ -792,8 +1028,7 @@ public abstract class AbstractResource {
             } else {
                 if (code == HTTP_BAD_REQUEST || code == HTTP_UNAUTHORIZED
                         || code == HTTP_NOT_FOUND) {
-                    error = (JSONObject) JSONValue.parse(Utils
-                            .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                    error = (JSONObject) JSONValue.parse(response.getBody());
                     logger.info("Error downloading:" + code);
                 } else {
                     logger.info("Unexpected error (" + code + ")");
@@ -827,6 +1062,8 @@ public abstract class AbstractResource {
      * Retrieves a remote async file.
      *
      * Uses HTTP GET to download a file object with a BigML `url` asynchronous.
+     * The file is waited for by the shared {@link ResourcePoller} for no
+     * longer than waitTime seconds per remaining retry.
      *
      * @param waitTime time between retries in seconds
      *
@@ -834,8 +1071,6 @@ public abstract class AbstractResource {
      */
     protected JSONObject downloadAsync(final String url, final String fileName,
                                        Long waitTime, Integer retries, Integer counter) {
-        int code = HTTP_INTERNAL_SERVER_ERROR;
-
         if( waitTime == null ) {
             waitTime = 10L;
         }
@@ -846,67 +1081,98 @@ public abstract class AbstractResource {
             counter = 0;
         }
 
+        ResourceFuture future = whenDownloaded(url, fileName,
+                1000 * waitTime * Math.max(retries - counter, 1));
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            logger.error("The maximum number of retries " +
+                    " for the download has been " +
+                    " exceeded. You can retry your " +
+                    " command again in" +
+                    " a while.");
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves a remote async file without blocking the caller.
+     *
+     * The file is requested by the shared {@link ResourcePoller} until it's
+     * ready, and saved to fileName if it's given. The future is completed
+     * with the same structure returned by download (code, error and csv),
+     * and fails only if the timeout expires.
+     *
+     * @param timeout
+     *            the maximum time to wait, in milliseconds. Zero means
+     *            no limit.
+     */
+    protected ResourceFuture whenDownloaded(final String url,
+            final String fileName, long timeout) {
+        return ResourcePoller.getDefault().schedule(url,
+                new ResourcePoller.Check() {
+                    public boolean check(ResourceFuture future) {
+                        JSONObject result = checkDownload(url, fileName, true);
+                        if( result == null ) {
+                            return false;
+                        }
+                        future.complete(result);
+                        return true;
+                    }
+                }, timeout, 0);
+    }
+
+    /**
+     * Requests a remote async file once, saving it when it's ready.
+     *
+     * While the file is being prepared, the API answers with its status
+     * instead of its content. Once the status is FINISHED, the content is
+     * requested again right away.
+     *
+     * @return the same structure returned by download, or null if the file
+     *          is not ready yet
+     */
+    private JSONObject checkDownload(final String url, final String fileName,
+                                     boolean retryFinished) {
+        int code = HTTP_INTERNAL_SERVER_ERROR;
+
         JSONObject error = new JSONObject();
         String csv = "";
         try {
-            HttpURLConnection connection = Utils.processGET(url + bigmlAuth);
+            HttpResponse response = getTransport().execute("GET",
+                    url + bigmlAuth, null);
 
-            code = connection.getResponseCode();
+            code = response.getCode();
 
-            csv = Utils.inputStreamAsString(connection.getInputStream(), "UTF-8");
+            csv = response.getBody();
 
             if (code == HTTP_OK) {
-
-                try {
-                    JSONObject downloadStatus = (JSONObject) JSONValue.parse(csv);
-
-                    if( downloadStatus != null ) {
-                        if( counter < retries ) {
-                            Number downloadCode = (Number) Utils.getJSONObject(downloadStatus, "status.code");
-                            if( downloadCode.intValue() != FINISHED ) {
-                                try {
-                                    Thread.sleep(1000 * Utils.getExponentialWait(waitTime, counter));
-                                } catch (InterruptedException e) {
-                                }
-
-                                counter += 1;
-                                return downloadAsync(url, fileName, waitTime, retries, counter);
-                            } else {
-                                return downloadAsync(url, fileName, waitTime, retries, retries + 1);
-                            }
-                        } else {
-                            logger.error("The maximum number of retries " +
-                                    " for the download has been " +
-                                    " exceeded. You can retry your " +
-                                    " command again in" +
-                                    " a while.");
-                            return null;
+                Object downloadStatus = JSONValue.parse(csv);
+                if( downloadStatus instanceof JSONObject ) {
+                    Object downloadCode = Utils.getJSONObject(
+                            (JSONObject) downloadStatus, "status.code");
+                    if( downloadCode instanceof Number ) {
+                        if( retryFinished && ((Number) downloadCode).intValue() == FINISHED ) {
+                            return checkDownload(url, fileName, false);
                         }
-                    }
-                } catch(Exception e) {
-                    // This exception will be thrown when we try to parse a JSON
-                    //  response when we finally receive the file content
-                    if( counter < retries ) {
-                        return downloadAsync(url, fileName, waitTime, retries, retries + 1);
+                        return null;
                     }
                 }
 
-
                 if (fileName != null) {
-                    File file = new File(fileName);
-                    if (!file.exists()) {
-
-                    }
                     BufferedWriter output = new BufferedWriter(new FileWriter(
-                            file));
+                            new File(fileName)));
                     output.write(csv);
                     output.close();
                 }
             } else {
                 if (code == HTTP_BAD_REQUEST || code == HTTP_UNAUTHORIZED
                         || code == HTTP_NOT_FOUND) {
-                    error = (JSONObject) JSONValue.parse(Utils
-                            .inputStreamAsString(connection.getInputStream(), "UTF-8"));
+                    error = (JSONObject) JSONValue.parse(response.getBody());
                     logger.info("Error downloading:" + code);
                 } else {
                     logger.info("Unexpected error (" + code + ")");
@@ -923,6 +1189,47 @@ public abstract class AbstractResource {
         result.put("error", error);
         result.put("csv", csv);
         return result;
+    }
+
+    /**
+     * The readiness of a resource, as a view of the future of whenReady
+     */
+    private static class ReadyFuture implements Future<Boolean> {
+        private final ResourceFuture future;
+
+        ReadyFuture(ResourceFuture future) {
+            this.future = future;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        public Boolean get() throws InterruptedException, ExecutionException {
+            try {
+                future.get();
+                return true;
+            } catch (ExecutionException e) {
+                return false;
+            }
+        }
 
+        public Boolean get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                future.get(timeout, unit);
+                return true;
+            } catch (ExecutionException e) {
+                return false;
+            }
+        }
     }
 }
@@ -512,5 +512,36 @@ public class Dataset extends AbstractResource {
         return downloadAsync(url, filename);
     }
 
+    /**
+     * Downloads a dataset without blocking the caller.
+     *
+     * The remote CSV file is requested by the shared ResourcePoller until
+     * it's ready. If a path is given in filename, the contents of the file
+     * are saved locally.
+     *
+     * @param datasetId
+     *            a unique identifier in the form dataset/id where id is a
+     *            string of 24 alpha-numeric chars.
+     * @param filename
+     *            Path to save file locally
+     * @param timeout
+     *            the maximum time to wait, in milliseconds. Zero means
+     *            no limit.
+     * @return the future completed with the same structure returned by
+     *          downloadDataset, or null if the id is wrong
+     */
+    public ResourceFuture whenDatasetDownloaded(final String datasetId,
+            final String filename, final long timeout) {
+
+        if (datasetId == null || datasetId.length() == 0
+                || !datasetId.matches(DATASET_RE)) {
+            logger.info("Wrong dataset id");
+            return null;
+        }
+
+        String url = BIGML_URL + datasetId + DOWNLOAD_DIR;
+        return whenDownloaded(url, filename, timeout);
+    }
+
 
 }
@@ -0,0 +1,161 @@
+package org.bigml.binding.resources;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of waiting for a remote resource to be finished.
+ *
+ * The future is completed by the {@link ResourcePoller} with the same
+ * structure returned by the get methods of the resources (code, resource,
+ * location, object and error) once the resource is FINISHED, or fails
+ * if the resource is FAULTY, cannot be retrieved or the timeout expires.
+ *
+ * Callers may block on get() or register a {@link Listener} that is run
+ * once the future is done, so no thread needs to wait for the resource.
+ */
+public class ResourceFuture implements Future<JSONObject> {
+
+    // Logging
+    static Logger logger = LoggerFactory.getLogger(ResourceFuture.class);
+
+    /**
+     * Callback run once the future is done.
+     */
+    public interface Listener {
+        void done(ResourceFuture future);
+    }
+
+    private final String resourceUrl;
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private JSONObject resource;
+    private Throwable error;
+    private boolean cancelled = false;
+    private boolean done = false;
+
+    private List<Listener> listeners = new ArrayList<Listener>();
+
+    public ResourceFuture(String resourceUrl) {
+        super();
+        this.resourceUrl = resourceUrl;
+    }
+
+    /**
+     * The url of the resource being waited for
+     */
+    public String getResourceUrl() {
+        return resourceUrl;
+    }
+
+    /**
+     * Registers a callback to be run once the future is done. If it is
+     * already done, the callback is run right away in the caller's thread.
+     * Otherwise it's run in the thread that completes the future, so it
+     * should not block.
+     */
+    public void addListener(Listener listener) {
+        synchronized (this) {
+            if( !done ) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    /**
+     * Completes the future with the finished resource.
+     *
+     * @return false if the future was already done
+     */
+    boolean complete(JSONObject resource) {
+        return finish(resource, null, false);
+    }
+
+    /**
+     * Completes the future with an error.
+     *
+     * @return false if the future was already done
+     */
+    boolean fail(Throwable error) {
+        return finish(null, error, false);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, null, true);
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public JSONObject get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getResult();
+    }
+
+    public JSONObject get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if( !latch.await(timeout, unit) ) {
+            throw new TimeoutException(String.format(
+                    "%s is not finished yet", resourceUrl));
+        }
+        return getResult();
+    }
+
+    private synchronized JSONObject getResult() throws ExecutionException {
+        if( cancelled ) {
+            throw new CancellationException();
+        }
+        if( error != null ) {
+            throw new ExecutionException(error);
+        }
+        return resource;
+    }
+
+    private boolean finish(JSONObject resource, Throwable error,
+                           boolean cancelled) {
+        List<Listener> toNotify;
+        synchronized (this) {
+            if( done ) {
+                return false;
+            }
+            this.resource = resource;
+            this.error = error;
+            this.cancelled = cancelled;
+            this.done = true;
+
+            toNotify = listeners;
+            listeners = null;
+        }
+        latch.countDown();
+
+        for (Listener listener : toNotify) {
+            notifyListener(listener);
+        }
+        return true;
+    }
+
+    private void notifyListener(Listener listener) {
+        try {
+            listener.done(this);
+        } catch (Throwable e) {
+            logger.error("Error in the listener of " + resourceUrl, e);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package org.bigml.binding.resources;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Waits for many remote resources to be finished without blocking the
+ * threads that asked for them.
+ *
+ * A single scheduler thread ticks at a fixed interval and, in every tick,
+ * collects all the pending resources whose next check is due and retrieves
+ * them using a small pool of workers. Every resource is checked again after
+ * a wait that doubles up to a maximum, and its {@link ResourceFuture} is
+ * completed as soon as it is FINISHED.
+ *
+ * Besides the status of the resources, any other remote state can be
+ * waited for with a {@link Check}, like the file of a download.
+ *
+ * The threads are daemons and are only started when the first resource
+ * is added.
+ */
+public class ResourcePoller {
+
+    // Logging
+    static Logger logger = LoggerFactory.getLogger(ResourcePoller.class);
+
+    public static final long DEFAULT_TICK_INTERVAL = 500;
+    public static final long DEFAULT_INITIAL_WAIT = 1000;
+    public static final long DEFAULT_MAX_WAIT = 30000;
+    public static final int DEFAULT_WORKERS = 4;
+
+    private static volatile ResourcePoller defaultPoller;
+
+    /**
+     * A single check of something being waited for. It's run by the
+     * workers of the poller.
+     */
+    interface Check {
+        /**
+         * Checks the remote state once and completes or fails the future
+         * when it's done.
+         *
+         * @return true if it does not need to be checked again
+         */
+        boolean check(ResourceFuture future) throws Exception;
+    }
+
+    private final long tickInterval;
+    private final long initialWait;
+    private final long maxWait;
+    private final int workers;
+
+    private final List<Pending> pending = new ArrayList<Pending>();
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService pollers;
+    private boolean shutdown = false;
+
+    public ResourcePoller() {
+        this(DEFAULT_TICK_INTERVAL, DEFAULT_INITIAL_WAIT, DEFAULT_MAX_WAIT,
+                DEFAULT_WORKERS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param tickInterval the time between ticks, in milliseconds
+     * @param initialWait the time before the first check of a resource and
+     *                    between its first two checks, in milliseconds
+     * @param maxWait the maximum time between two checks of a resource,
+     *                in milliseconds
+     * @param workers the number of threads used to retrieve the resources
+     */
+    public ResourcePoller(long tickInterval, long initialWait, long maxWait,
+                          int workers) {
+        super();
+
+        if( tickInterval <= 0 || initialWait < 0 || maxWait < initialWait ) {
+            throw new IllegalArgumentException("Wrong polling intervals.");
+        }
+        if( workers < 1 ) {
+            throw new IllegalArgumentException(
+                    "The number of workers must be positive.");
+        }
+
+        this.tickInterval = tickInterval;
+        this.initialWait = initialWait;
+        this.maxWait = maxWait;
+        this.workers = workers;
+    }
+
+    /**
+     * The poller shared by all the resources. It's created the first
+     * time it's needed.
+     */
+    public static ResourcePoller getDefault() {
+        ResourcePoller result = defaultPoller;
+        if( result == null ) {
+            synchronized (ResourcePoller.class) {
+                if( defaultPoller == null ) {
+                    defaultPoller = new ResourcePoller();
+                }
+                result = defaultPoller;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the poller shared by all the resources. The previous one
+     * keeps checking the resources that were already added to it.
+     *
+     * @param poller the poller or null to use a new default one
+     */
+    public static void setDefault(ResourcePoller poller) {
+        defaultPoller = poller;
+    }
+
+    /**
+     * Starts waiting for a resource to be finished.
+     *
+     * @param handler the resource handler used to retrieve the resource
+     * @param resourceUrl the full url of the resource
+     * @param timeout the maximum time to wait, in milliseconds. Zero or
+     *                negative means no limit.
+     * @return the future completed with the finished resource
+     */
+    public ResourceFuture whenReady(AbstractResource handler,
+                                    String resourceUrl, long timeout) {
+        return whenReady(handler, resourceUrl, timeout, initialWait);
+    }
+
+    /**
+     * Starts waiting for a resource to be finished.
+     *
+     * @param handler the resource handler used to retrieve the resource
+     * @param resourceUrl the full url of the resource
+     * @param timeout the maximum time to wait, in milliseconds. Zero or
+     *                negative means no limit.
+     * @param delay the time before the first check, in milliseconds. Zero
+     *              when the resource may be already finished.
+     * @return the future completed with the finished resource
+     */
+    public ResourceFuture whenReady(final AbstractResource handler,
+                                    String resourceUrl, long timeout, long delay) {
+        return schedule(resourceUrl, new Check() {
+            public boolean check(ResourceFuture future) {
+                return evaluate(future,
+                        handler.getResource(future.getResourceUrl()));
+            }
+        }, timeout, delay);
+    }
+
+    /**
+     * Starts checking a remote url until the check is done.
+     *
+     * @param url the full url being waited for
+     * @param check the check run every time the url is due
+     * @param timeout the maximum time to wait, in milliseconds. Zero or
+     *                negative means no limit.
+     * @param delay the time before the first check, in milliseconds
+     * @return the future completed by the check
+     */
+    ResourceFuture schedule(String url, Check check, long timeout, long delay) {
+        ResourceFuture future = new ResourceFuture(url);
+
+        long now = System.currentTimeMillis();
+        Pending resource = new Pending(check, future, now + Math.max(delay, 0),
+                (timeout > 0 ? now + timeout : 0));
+
+        synchronized (this) {
+            if( shutdown ) {
+                throw new IllegalStateException("The poller has been shut down.");
+            }
+            start();
+            pending.add(resource);
+        }
+        return future;
+    }
+
+    /**
+     * The number of resources not finished yet
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops the threads of the poller. The pending futures are cancelled.
+     */
+    public void shutdown() {
+        List<Pending> cancelled;
+        synchronized (this) {
+            shutdown = true;
+            if( scheduler != null ) {
+                scheduler.shutdownNow();
+                pollers.shutdownNow();
+            }
+            cancelled = new ArrayList<Pending>(pending);
+            pending.clear();
+        }
+
+        for (Pending resource : cancelled) {
+            resource.future.cancel(false);
+        }
+    }
+
+    private void start() {
+        if( scheduler != null ) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("bigml-poller-tick"));
+        pollers = Executors.newFixedThreadPool(workers,
+                new DaemonThreadFactory("bigml-poller"));
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    tick();
+                } catch (Throwable e) {
+                    logger.error("Error checking the pending resources", e);
+                }
+            }
+        }, tickInterval, tickInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks, in a single batch, all the resources whose next check is due
+     */
+    private void tick() {
+        long now = System.currentTimeMillis();
+
+        List<Pending> due = new ArrayList<Pending>();
+        List<Pending> expired = new ArrayList<Pending>();
+        synchronized (this) {
+            Iterator<Pending> iterator = pending.iterator();
+            while( iterator.hasNext() ) {
+                Pending resource = iterator.next();
+                if( resource.future.isDone() ) {
+                    iterator.remove();
+                } else if( resource.deadline > 0 && now >= resource.deadline ) {
+                    iterator.remove();
+                    expired.add(resource);
+                } else if( !resource.inFlight && now >= resource.nextCheck ) {
+                    resource.inFlight = true;
+                    due.add(resource);
+                }
+            }
+        }
+
+        for (Pending resource : expired) {
+            resource.future.fail(new TimeoutException(String.format(
+                    "%s was not finished in time",
+                    resource.future.getResourceUrl())));
+        }
+
+        for (final Pending resource : due) {
+            pollers.execute(new Runnable() {
+                public void run() {
+                    check(resource);
+                }
+            });
+        }
+    }
+
+    private void check(Pending resource) {
+        boolean finished = true;
+        try {
+            finished = resource.check.check(resource.future);
+        } catch (Throwable e) {
+            resource.future.fail(e);
+        }
+
+        synchronized (this) {
+            if( finished ) {
+                pending.remove(resource);
+            } else {
+                resource.wait = Math.min(resource.wait * 2, maxWait);
+                resource.nextCheck = System.currentTimeMillis() + resource.wait;
+                resource.inFlight = false;
+            }
+        }
+    }
+
+    /**
+     * Completes the future if the resource is finished or cannot finish.
+     *
+     * @return true if the resource does not need to be checked again
+     */
+    private boolean evaluate(ResourceFuture future, JSONObject result) {
+        int code = ((Number) result.get("code")).intValue();
+
+        if( code == AbstractResource.HTTP_OK ) {
+            JSONObject object = (JSONObject) result.get("object");
+            JSONObject status = (JSONObject) object.get("status");
+            int statusCode = ((Number) status.get("code")).intValue();
+
+            if( statusCode == AbstractResource.FINISHED ) {
+                future.complete(result);
+                return true;
+            }
+            if( statusCode == AbstractResource.FAULTY ) {
+                future.fail(new IllegalStateException(String.format(
+                        "%s is faulty: %s", future.getResourceUrl(),
+                        status.get("message"))));
+                return true;
+            }
+            return false;
+        }
+
+        if( code == AbstractResource.HTTP_BAD_REQUEST
+                || code == AbstractResource.HTTP_UNAUTHORIZED
+                || code == AbstractResource.HTTP_FORBIDDEN
+                || code == AbstractResource.HTTP_NOT_FOUND ) {
+            future.fail(new IllegalStateException(String.format(
+                    "%s cannot be retrieved (%d): %s", future.getResourceUrl(),
+                    code, result.get("error"))));
+            return true;
+        }
+
+        // Any other error may be transient, so the resource is checked again
+        logger.info(String.format("Error checking %s (%d)",
+                future.getResourceUrl(), code));
+        return false;
+    }
+
+    private class Pending {
+        final Check check;
+        final ResourceFuture future;
+        final long deadline;
+
+        long nextCheck;
+        long wait;
+        boolean inFlight = false;
+
+        Pending(Check check, ResourceFuture future,
+                long nextCheck, long deadline) {
+            this.check = check;
+            this.future = future;
+            this.nextCheck = nextCheck;
+            this.deadline = deadline;
+            this.wait = Math.max(initialWait, 1);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
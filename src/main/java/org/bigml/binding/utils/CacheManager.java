@@ -1,14 +1,35 @@
 package org.bigml.binding.utils;
 
+import org.bigml.binding.LocalPredictiveModel;
+import org.bigml.binding.localmodel.CompiledTreeModel;
+import org.bigml.binding.localmodel.MappedTreeModel;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class will we used to manage the local cache of resource
+ *
+ * The resources are stored as JSON files in the storage folder. The
+ * parsed resources are also kept in a bounded in-memory tier, so the
+ * resources used often are not read and parsed again on every hit. Every
+ * caller gets its own copy of the cached resource, so the local models can
+ * modify it (e.g. renaming repeated fields) without affecting the others.
+ *
+ * The compiled version of the models can also be stored in a binary
+ * file that is memory-mapped when loaded (see loadCompiled). The mapped
+ * models live outside the heap, so they are not kept in the memory tier
+ * and don't use its budget.
+ *
+ * There is no global lock: the files are guarded by a set of striped
+ * locks and the memory tier by its own segments.
  */
 @SuppressWarnings("unused")
 public class CacheManager {
@@ -18,11 +39,42 @@ public class CacheManager {
 
     private static final String TMP_FOLDER_PROPERTY = "java.io.tmpdir";
 
+    public static final long DEFAULT_MEMORY_WEIGHT = 64L * 1024 * 1024;
+    public static final int DEFAULT_MEMORY_ENTRIES = 1024;
+
+    private static final int FILE_LOCKS = 32;
+
     private String storage = null;
 
     private File storageFolder;
 
+    // The parsed resources, weighted by the size of their files
+    private MemoryCache memoryCache;
+
+    private final Object[] fileLocks = new Object[FILE_LOCKS];
+
+    // The mapped compiled models. Their arrays are in the mapped files,
+    // so only their small headers are in the heap
+    private final Map<String, MappedTreeModel> mappedModels =
+            new ConcurrentHashMap<String, MappedTreeModel>();
+
     public CacheManager(String storage) {
+        this(storage, new MemoryCache(DEFAULT_MEMORY_WEIGHT, DEFAULT_MEMORY_ENTRIES));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param storage the folder where the resources are stored
+     * @param memoryCache the in-memory tier or null if the resources
+     *                    should always be read from the files
+     */
+    public CacheManager(String storage, MemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+        for (int i = 0; i < FILE_LOCKS; i++) {
+            fileLocks[i] = new Object();
+        }
+
         this.storage = storage;
         if( storage == null || storage.isEmpty() ) {
             // Get the temporary directory and print it.
@@ -52,25 +104,70 @@ public class CacheManager {
         return storageFolder.getAbsolutePath();
     }
 
+    /**
+     * The in-memory tier, with its hit and miss counts, or null if
+     * there is none
+     */
+    public MemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
     public boolean exists(String resource, String queryString) {
+        if( memoryCache != null &&
+                memoryCache.get(getResourceKey(resource, queryString)) != null ) {
+            return true;
+        }
         return getResourceFile(resource, queryString).exists();
     }
 
-    public synchronized JSONObject get(String resource, String queryString) {
+    /**
+     * The size in bytes of the file where the resource is cached, or -1
+     * if it's not cached
+     */
+    public long getSize(String resource, String queryString) {
+        File resourceFile = getResourceFile(resource, queryString);
+        return (resourceFile.exists() ? resourceFile.length() : -1);
+    }
+
+    /**
+     * Removes the resource from the memory tier, keeping its file. Used
+     * when the resource is kept elsewhere, so it's not held twice.
+     */
+    public void release(String resource, String queryString) {
+        if( memoryCache != null ) {
+            memoryCache.remove(getResourceKey(resource, queryString));
+        }
+    }
+
+    public JSONObject get(String resource, String queryString) {
+        String key = getResourceKey(resource, queryString);
+        if( memoryCache != null ) {
+            JSONObject cached = (JSONObject) memoryCache.get(key);
+            if( cached != null ) {
+                return (JSONObject) copy(cached);
+            }
+        }
+
         try {
-            if( exists(resource, queryString) ) {
-                StringBuilder fileContents = new StringBuilder();
+            synchronized (lockFor(key)) {
                 File resourceFile = getResourceFile(resource, queryString);
-                BufferedReader input = new BufferedReader(new FileReader(
-                        resourceFile));
+                if( resourceFile.exists() ) {
+                    BufferedReader input = new BufferedReader(new FileReader(
+                            resourceFile));
 
-                String sCurrentLine;
-                while ((sCurrentLine = input.readLine()) != null) {
-                    fileContents.append(sCurrentLine);
-                }
+                    // The file is parsed while it's read
+                    JSONObject value;
+                    try {
+                        value = (JSONObject) JSONValue.parse(input);
+                    } finally {
+                        input.close();
+                    }
 
-                input.close();
-                return (JSONObject) JSONValue.parse(fileContents.toString());
+                    if( memoryCache != null && value != null ) {
+                        memoryCache.put(key, copy(value), resourceFile.length());
+                    }
+                    return value;
+                }
             }
         } catch (IOException e) {
             logger.error(String.format("Unable to read the cache file for resource: %s",
@@ -80,27 +177,37 @@ public class CacheManager {
         return null;
     }
 
-    public synchronized boolean put(String resource, String queryString, JSONObject value) {
-        // If exists we first delete the current cached file
-        if( exists(resource, queryString) ) {
-            evict(resource, queryString);
-        }
+    public boolean put(String resource, String queryString, JSONObject value) {
+        synchronized (lockFor(getResourceKey(resource, queryString))) {
+            // If exists we first delete the current cached file
+            if( exists(resource, queryString) ) {
+                evict(resource, queryString);
+            }
 
-        return putIfNotExists(resource, queryString, value);
+            return putIfNotExists(resource, queryString, value);
+        }
     }
 
-    public synchronized boolean putIfNotExists(String resource, String queryString, JSONObject value) {
+    public boolean putIfNotExists(String resource, String queryString, JSONObject value) {
+        String key = getResourceKey(resource, queryString);
         try {
-            if( !exists(resource, queryString) ) {
+            synchronized (lockFor(key)) {
                 File resourceFile = getResourceFile(resource, queryString);
+                if( resourceFile.exists() ) {
+                    return false;
+                }
+
                 BufferedWriter output = new BufferedWriter(new FileWriter(
                         resourceFile));
 
-                output.write(JSONValue.toJSONString(value));
+                JSONValue.writeJSONString(value, output);
 
                 output.flush();
                 output.close();
 
+                if( memoryCache != null ) {
+                    memoryCache.put(key, copy(value), resourceFile.length());
+                }
                 return true;
             }
         } catch (IOException e) {
@@ -111,12 +218,116 @@ public class CacheManager {
         return false;
     }
 
-    public synchronized boolean evict(String resource, String queryString) {
+    /**
+     * Stores the compiled version of a model in binary form, so it can
+     * be mapped later instead of parsing the model again.
+     *
+     * @param resource the id of the model
+     * @param compiled the compiled model, with numeric splits only
+     * @return true if the model was stored
+     */
+    public boolean putCompiled(String resource, CompiledTreeModel compiled) {
+        File compiledFile = getCompiledFile(resource);
+        String key = compiledFile.getName();
         try {
-            // If exists we first delete the current cached file
-            if( exists(resource, queryString) ) {
-                forceDelete(getResourceFile(resource, queryString));
-                return true;
+            synchronized (lockFor(key)) {
+                MappedTreeModel.write(compiled, compiledFile);
+                mappedModels.remove(key);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error(String.format("Unable to write the compiled model file: %s",
+                    compiledFile.getAbsolutePath()));
+        }
+        return false;
+    }
+
+    /**
+     * Maps the compiled version of a model stored by putCompiled.
+     *
+     * @param resource the id of the model
+     * @return the mapped model or null if it was not stored
+     */
+    public MappedTreeModel getCompiled(String resource) {
+        File compiledFile = getCompiledFile(resource);
+        String key = compiledFile.getName();
+        MappedTreeModel mapped = mappedModels.get(key);
+        if( mapped != null ) {
+            return mapped;
+        }
+
+        try {
+            synchronized (lockFor(key)) {
+                mapped = mappedModels.get(key);
+                if( mapped == null && compiledFile.exists() ) {
+                    mapped = MappedTreeModel.map(compiledFile);
+                    mappedModels.put(key, mapped);
+                }
+                return mapped;
+            }
+        } catch (IOException e) {
+            logger.error(String.format("Unable to map the compiled model file: %s",
+                    compiledFile.getAbsolutePath()));
+        }
+        return null;
+    }
+
+    /**
+     * Loads the compiled version of a cached model.
+     *
+     * The binary file of the model is mapped when it exists. Otherwise the
+     * model is built from its cached JSON and compiled, and the binary file
+     * is written so the next load, even in a new process, only maps it.
+     *
+     * @param resource the id of the model
+     * @return the mapped model, or null if the model is not cached or it
+     *          cannot be stored in binary form because it has non-numeric
+     *          splits. The JSON of the model must be used then.
+     */
+    public MappedTreeModel loadCompiled(String resource) {
+        MappedTreeModel mapped = getCompiled(resource);
+        if( mapped != null ) {
+            return mapped;
+        }
+
+        JSONObject model = get(resource, null);
+        if( model == null ) {
+            return null;
+        }
+
+        CompiledTreeModel compiled;
+        try {
+            compiled = new LocalPredictiveModel(model).compile();
+        } catch (Exception e) {
+            logger.error(String.format("Unable to build the model %s", resource), e);
+            return null;
+        }
+        if( !compiled.isNumericOnly() || !putCompiled(resource, compiled) ) {
+            return null;
+        }
+        return getCompiled(resource);
+    }
+    public boolean evict(String resource, String queryString) {
+        String key = getResourceKey(resource, queryString);
+        try {
+            synchronized (lockFor(key)) {
+                if( memoryCache != null ) {
+                    memoryCache.remove(key);
+                }
+
+                // The compiled version is not valid anymore either
+                File compiledFile = getCompiledFile(resource);
+                mappedModels.remove(compiledFile.getName());
+                if( compiledFile.exists() ) {
+                    forceDelete(compiledFile);
+                }
+
+                // If exists we first delete the current cached file
+                File resourceFile = getResourceFile(resource, queryString);
+                if( resourceFile.exists() ) {
+                    forceDelete(resourceFile);
+                    return true;
+                }
             }
         } catch (IOException e) {
             logger.error(String.format("Unable to evict the resource with file: %s",
@@ -126,7 +337,12 @@ public class CacheManager {
         return false;
     }
 
-    public synchronized void cleanCache() throws IOException {
+    public void cleanCache() throws IOException {
+        if( memoryCache != null ) {
+            memoryCache.clear();
+        }
+        mappedModels.clear();
+
         final File[] files = storageFolder.listFiles();
         if( files != null ) {
             for (File file : files) {
@@ -146,6 +362,49 @@ public class CacheManager {
         }
     }
 
+    /**
+     * Deep copy of a JSON structure, so the values in the memory tier are
+     * never shared with the callers. Copying is much cheaper than parsing.
+     */
+    private static Object copy(Object value) {
+        if( value instanceof Map ) {
+            Map source = (Map) value;
+            JSONObject copy = new JSONObject();
+            for (Object entry : source.entrySet()) {
+                Map.Entry field = (Map.Entry) entry;
+                copy.put(field.getKey(), copy(field.getValue()));
+            }
+            return copy;
+        }
+        if( value instanceof List ) {
+            List source = (List) value;
+            JSONArray copy = new JSONArray();
+            for (Object item : source) {
+                copy.add(copy(item));
+            }
+            return copy;
+        }
+        // Strings, numbers and booleans are immutable
+        return value;
+    }
+
+    private Object lockFor(String key) {
+        return fileLocks[(key.hashCode() & 0x7fffffff) % FILE_LOCKS];
+    }
+
+    /**
+     * The key of the resource in the memory tier, which is the name of
+     * its file
+     */
+    protected String getResourceKey(String resource, String queryString) {
+        return getResourceFile(resource, queryString).getName();
+    }
+
+    protected File getCompiledFile(String resource) {
+        return new File(String.format("%s%s%s_compiled", storageFolder.getAbsolutePath(),
+                File.separator, resource.replaceAll("/", "_")));
+    }
+
     protected File getResourceFile(String resource, String queryString) {
         if( queryString != null && queryString.length() > 0 ) {
             queryString = queryString.replaceAll("=","_");
@@ -0,0 +1,78 @@
+package org.bigml.binding.utils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The status code, headers and body of a response read by an
+ * {@link HttpTransport}.
+ *
+ * The content is the body as a String, unless it was read by a
+ * {@link ResponseReader}. In that case it's whatever the reader returned.
+ */
+public class HttpResponse {
+
+    private final int code;
+    private final Map<String, String> headers;
+    private final Object content;
+
+    /**
+     * Constructor
+     *
+     * @param code the HTTP status code
+     * @param headers the headers of the response. Names are case insensitive
+     * @param content the body of the response or the content read from it
+     */
+    public HttpResponse(int code, Map<String, String> headers, Object content) {
+        super();
+
+        this.code = code;
+        this.headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        if( headers != null ) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if( header.getKey() != null ) {
+                    this.headers.put(header.getKey(), header.getValue());
+                }
+            }
+        }
+        this.content = content;
+    }
+
+    public HttpResponse(int code, String body) {
+        this(code, null, body);
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * The value of a header of the response
+     *
+     * @param name the name of the header
+     * @return the value or null if the header is not in the response
+     */
+    public String getHeader(String name) {
+        return (name != null ? headers.get(name) : null);
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * The body of the response as a String
+     *
+     * @return the body or an empty string if it was read by a
+     *          {@link ResponseReader} or there is no body
+     */
+    public String getBody() {
+        return (content instanceof String ? (String) content : "");
+    }
+
+    public Object getContent() {
+        return content;
+    }
+
+}
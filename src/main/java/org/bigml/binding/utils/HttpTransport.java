@@ -0,0 +1,42 @@
+package org.bigml.binding.utils;
+
+import java.io.IOException;
+
+/**
+ * Sends the HTTP requests of the REST resources to the API.
+ *
+ * Implementations must be thread safe, as the same transport is shared
+ * by all the resources of the client.
+ */
+public interface HttpTransport {
+
+    /**
+     * Sends a request and reads the whole response. The body of the
+     * response is always consumed, both for successful and for error
+     * codes, so the connection can be reused.
+     *
+     * @param method the HTTP method: GET, POST, PUT or DELETE
+     * @param url the full url, including the authentication query string
+     * @param body the JSON body to be sent or null if there is none
+     * @return the response
+     * @throws IOException if the request cannot be sent or the response
+     *          cannot be read
+     */
+    HttpResponse execute(String method, String url, String body)
+            throws IOException;
+
+    /**
+     * Sends a request and reads the body of the response with the given
+     * reader while it's received.
+     *
+     * @param method the HTTP method: GET, POST, PUT or DELETE
+     * @param url the full url, including the authentication query string
+     * @param body the JSON body to be sent or null if there is none
+     * @param reader the reader of the body of the response
+     * @return the response, with the content returned by the reader
+     * @throws IOException if the request cannot be sent or the response
+     *          cannot be read
+     */
+    HttpResponse execute(String method, String url, String body,
+                         ResponseReader reader) throws IOException;
+}
@@ -0,0 +1,124 @@
+package org.bigml.binding.utils;
+
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A dotted path to a value nested in a JSON structure, parsed only once.
+ *
+ * The path is split into its keys when it's compiled, so the same path can
+ * be resolved in any number of JSON objects without parsing it again. The
+ * values are resolved as in Utils.getJSONObject: the keys are followed while
+ * the values are JSON objects and the first value that isn't an object is
+ * returned, even if the path has more keys.
+ *
+ * Paths relative to the structure of a field, like "name" or
+ * "term_analysis.token_mode", can be resolved in the fields of a model with
+ * getField without building the full path for every field.
+ *
+ * Example usage:
+ *
+ *  private static final JSONPath TOKEN_MODE =
+ *          JSONPath.compile("term_analysis.token_mode");
+ *  ...
+ *  String tokenMode = (String) TOKEN_MODE.getField(fields, fieldId, "all");
+ */
+public final class JSONPath {
+
+    private final String path;
+    private final String[] keys;
+
+    private JSONPath(String path, String[] keys) {
+        super();
+
+        this.path = path;
+        this.keys = keys;
+    }
+
+    /**
+     * Parses a dotted path.
+     *
+     * @param path the keys of the path separated by dots
+     * @return the compiled path
+     */
+    public static JSONPath compile(String path) {
+        if( path == null || path.length() == 0 ) {
+            throw new IllegalArgumentException("The path cannot be empty.");
+        }
+
+        List<String> keys = new ArrayList<String>();
+        int start = 0;
+        int dot;
+        while( (dot = path.indexOf('.', start)) != -1 ) {
+            keys.add(path.substring(start, dot));
+            start = dot + 1;
+        }
+        keys.add(path.substring(start));
+
+        return new JSONPath(path, keys.toArray(new String[keys.size()]));
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the value of the path in the JSON object, or null if it
+     * isn't found.
+     */
+    public Object get(JSONObject json) {
+        return resolve(json);
+    }
+
+    /**
+     * Returns the value of the path in the JSON object, or the default
+     * value if it isn't found.
+     */
+    public Object get(JSONObject json, Object defaultValue) {
+        Object value = resolve(json);
+        return (value != null ? value : defaultValue);
+    }
+
+    /**
+     * Returns the value of the path in the structure of a field, the same
+     * as compiling fieldId + "." + path, or null if it isn't found.
+     *
+     * @param fields the fields structure, keyed by field id
+     * @param fieldId the id of the field
+     */
+    public Object getField(JSONObject fields, Object fieldId) {
+        Object field = fields.get(fieldId);
+        return (field instanceof JSONObject ? resolve(field) : null);
+    }
+
+    /**
+     * Returns the value of the path in the structure of a field, or the
+     * default value if it isn't found.
+     *
+     * @param fields the fields structure, keyed by field id
+     * @param fieldId the id of the field
+     * @param defaultValue the value returned when the path isn't found
+     */
+    public Object getField(JSONObject fields, Object fieldId, Object defaultValue) {
+        Object value = getField(fields, fieldId);
+        return (value != null ? value : defaultValue);
+    }
+
+    private Object resolve(Object node) {
+        Object value = node;
+        for (int i = 0; i < keys.length; i++) {
+            value = ((JSONObject) value).get(keys[i]);
+            if( !(value instanceof JSONObject) ) {
+                return value;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
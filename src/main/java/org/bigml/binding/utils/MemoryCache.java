@@ -0,0 +1,349 @@
+package org.bigml.binding.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-memory cache with least recently used eviction.
+ *
+ * The entries are spread over several segments, each one an access
+ * ordered LinkedHashMap with its own lock, so concurrent lookups of
+ * different keys rarely wait for each other. Every entry has a weight
+ * (e.g. the size in bytes of the JSON it was parsed from) and the total
+ * weight and number of entries of the whole cache are bounded: when any of
+ * them goes over its maximum, the least recently used entry of all the
+ * segments is evicted, so a single entry can use the whole budget.
+ *
+ * Values heavier than the maximum weight are not cached. They are counted
+ * as rejected puts.
+ */
+public class MemoryCache {
+
+    // Logging
+    static Logger logger = LoggerFactory.getLogger(MemoryCache.class);
+
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    private final long maxWeight;
+    private final int maxEntries;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicInteger count = new AtomicInteger();
+
+    // Orders the accesses to the entries of all the segments
+    private final AtomicLong clock = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param maxWeight the maximum total weight of the entries
+     * @param maxEntries the maximum number of entries
+     */
+    public MemoryCache(long maxWeight, int maxEntries) {
+        this(maxWeight, maxEntries, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxWeight the maximum total weight of the entries
+     * @param maxEntries the maximum number of entries
+     * @param concurrencyLevel the expected number of threads using the
+     *                         cache at the same time. It's rounded up to
+     *                         a power of two to get the number of segments.
+     */
+    public MemoryCache(long maxWeight, int maxEntries, int concurrencyLevel) {
+        super();
+
+        if( maxWeight <= 0 || maxEntries <= 0 ) {
+            throw new IllegalArgumentException(
+                    "The maximum weight and entries must be positive.");
+        }
+
+        this.maxWeight = maxWeight;
+        this.maxEntries = maxEntries;
+
+        int numberOfSegments = 1;
+        while( numberOfSegments < concurrencyLevel &&
+                numberOfSegments < maxEntries ) {
+            numberOfSegments <<= 1;
+        }
+
+        this.segments = new Segment[numberOfSegments];
+        this.segmentMask = numberOfSegments - 1;
+        for (int i = 0; i < numberOfSegments; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the value cached for the key, if any
+     */
+    public Object get(String key) {
+        Object value = segmentFor(key).get(key, clock.incrementAndGet());
+        if( value != null ) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Adds or replaces the value cached for the key. Values heavier than
+     * the maximum weight are not cached and any previous value of the key
+     * is removed.
+     *
+     * @param key the key of the value
+     * @param value the value, not null
+     * @param weight the weight of the value
+     * @return true if the value was cached
+     */
+    public boolean put(String key, Object value, long weight) {
+        if( value == null ) {
+            throw new IllegalArgumentException("Null values cannot be cached.");
+        }
+        weight = Math.max(weight, 0);
+        puts.incrementAndGet();
+
+        if( weight > maxWeight ) {
+            remove(key);
+            rejections.incrementAndGet();
+            logger.warn(String.format("The value of %s weighs %d, more than " +
+                    "the maximum weight of the cache (%d). It will not be cached.",
+                    key, weight, maxWeight));
+            return false;
+        }
+
+        Entry entry = new Entry(value, weight, clock.incrementAndGet());
+        Entry previous = segmentFor(key).put(key, entry);
+        this.weight.addAndGet(weight - (previous != null ? previous.weight : 0));
+        if( previous == null ) {
+            count.incrementAndGet();
+        }
+
+        evict(key);
+        return true;
+    }
+
+    /**
+     * Evicts the least recently used entries of all the segments until
+     * the cache is within its bounds.
+     *
+     * @param protectedKey the key that is never evicted
+     */
+    private void evict(String protectedKey) {
+        while( weight.get() > maxWeight || count.get() > maxEntries ) {
+            // The eldest entry of every segment is its least recently used
+            Segment eldestSegment = null;
+            long eldestStamp = Long.MAX_VALUE;
+            for (Segment segment : segments) {
+                long stamp = segment.getEldestStamp(protectedKey);
+                if( stamp < eldestStamp ) {
+                    eldestStamp = stamp;
+                    eldestSegment = segment;
+                }
+            }
+            if( eldestSegment == null ) {
+                return;
+            }
+
+            Entry evicted = eldestSegment.removeEldest(protectedKey);
+            if( evicted != null ) {
+                weight.addAndGet(-evicted.weight);
+                count.decrementAndGet();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the value cached for the key
+     *
+     * @return the removed value or null if there was none
+     */
+    public Object remove(String key) {
+        Entry entry = segmentFor(key).remove(key);
+        if( entry == null ) {
+            return null;
+        }
+        weight.addAndGet(-entry.weight);
+        count.decrementAndGet();
+        return entry.value;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            for (Entry entry : segment.clear()) {
+                weight.addAndGet(-entry.weight);
+                count.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * The number of cached entries
+     */
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * The total weight of the cached entries
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getPutCount() {
+        return puts.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * The number of values that were not cached because they were
+     * heavier than the maximum weight
+     */
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    /**
+     * The ratio of lookups that found the value in the cache
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        return (lookups == 0 ? 0.0 : (double) hitCount / lookups);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MemoryCache(entries=%d, weight=%d, hits=%d, " +
+                "misses=%d, evictions=%d, rejections=%d)", size(), getWeight(),
+                getHitCount(), getMissCount(), getEvictionCount(),
+                getRejectionCount());
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        // Spread the high bits, as HashMap does
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return segments[hash & segmentMask];
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long weight;
+
+        // The time of the last access, from the cache's clock
+        volatile long stamp;
+
+        Entry(Object value, long weight, long stamp) {
+            this.value = value;
+            this.weight = weight;
+            this.stamp = stamp;
+        }
+    }
+
+    private static final class Segment {
+        // Iterated from the least to the most recently used entry
+        private final LinkedHashMap<String, Entry> entries =
+                new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        synchronized Object get(String key, long stamp) {
+            Entry entry = entries.get(key);
+            if( entry == null ) {
+                return null;
+            }
+            entry.stamp = stamp;
+            return entry.value;
+        }
+
+        /**
+         * @return the replaced entry or null if there was none
+         */
+        synchronized Entry put(String key, Entry entry) {
+            return entries.put(key, entry);
+        }
+
+        /**
+         * The last access time of the least recently used entry, or
+         * Long.MAX_VALUE if the segment has no entry to evict
+         */
+        synchronized long getEldestStamp(String protectedKey) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if( !entry.getKey().equals(protectedKey) ) {
+                    return entry.getValue().stamp;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * @return the evicted entry or null if there was none to evict
+         */
+        synchronized Entry removeEldest(String protectedKey) {
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while( eldest.hasNext() ) {
+                Map.Entry<String, Entry> entry = eldest.next();
+                if( !entry.getKey().equals(protectedKey) ) {
+                    eldest.remove();
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+
+        synchronized Entry remove(String key) {
+            return entries.remove(key);
+        }
+
+        /**
+         * @return the removed entries
+         */
+        synchronized Collection<Entry> clear() {
+            List<Entry> removed = new ArrayList<Entry>(entries.values());
+            entries.clear();
+            return removed;
+        }
+    }
+}
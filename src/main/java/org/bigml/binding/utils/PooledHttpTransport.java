@@ -0,0 +1,279 @@
+package org.bigml.binding.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * HTTP transport that keeps the connections to the API alive and reuses
+ * them between requests.
+ *
+ * The JDK keeps idle persistent connections in a cache keyed by host and
+ * socket factory, but only returns a connection to it once its response
+ * has been fully read and closed. This transport always drains and closes
+ * the input (or error) stream and uses the same SSL socket factory for
+ * every connection, so both the sockets and the TLS sessions are reused.
+ * The factory and the hostname verifier are set on each connection, the
+ * JVM wide defaults of HttpsURLConnection are never changed.
+ *
+ * The number of requests in flight to the same host is limited by the
+ * maxConnectionsPerHost setting. The number of idle connections the JDK
+ * keeps per host is controlled by the http.maxConnections system property
+ * (5 by default) and should be raised to the same value when the limit
+ * is higher.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+    // Headers
+    static String JSON = "application/json; charset=utf-8";
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+    public static final int DEFAULT_READ_TIMEOUT = 120000;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Reads the whole body as a String
+    private static final ResponseReader STRING_READER = new ResponseReader() {
+        public Object read(int code, Reader body) throws IOException {
+            StringBuilder content = new StringBuilder();
+            char[] buffer = new char[BUFFER_SIZE];
+            int read;
+            while( (read = body.read(buffer)) != -1 ) {
+                content.append(buffer, 0, read);
+            }
+            return content.toString();
+        }
+    };
+
+    private final int maxConnectionsPerHost;
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    private final SSLSocketFactory sslSocketFactory;
+    private final HostnameVerifier hostnameVerifier;
+
+    private final ConcurrentMap<String, Semaphore> permits =
+            new ConcurrentHashMap<String, Semaphore>();
+
+    public PooledHttpTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECT_TIMEOUT,
+                DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxConnectionsPerHost the maximum number of requests sent at
+     *                              the same time to the same host
+     * @param connectTimeout the timeout to open a connection, in milliseconds.
+     *                       Zero means no timeout.
+     * @param readTimeout the timeout to read from a connection, in
+     *                    milliseconds. Zero means no timeout.
+     */
+    public PooledHttpTransport(int maxConnectionsPerHost, int connectTimeout,
+                               int readTimeout) {
+        super();
+
+        if( maxConnectionsPerHost < 1 ) {
+            throw new IllegalArgumentException(
+                    "The maximum number of connections per host must be positive.");
+        }
+        if( connectTimeout < 0 || readTimeout < 0 ) {
+            throw new IllegalArgumentException("Timeouts cannot be negative.");
+        }
+
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.sslSocketFactory = createSSLSocketFactory();
+        this.hostnameVerifier = new MockHostnameVerifier();
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public HttpResponse execute(String method, String url, String body)
+            throws IOException {
+        return execute(method, url, body, STRING_READER);
+    }
+
+    public HttpResponse execute(String method, String url, String body,
+                                ResponseReader reader) throws IOException {
+        URL target = new URL(url);
+
+        Semaphore hostPermits = getPermits(target);
+        try {
+            hostPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to "
+                    + target.getHost());
+        }
+
+        try {
+            return send(openConnection(target), method, body, reader);
+        } finally {
+            hostPermits.release();
+        }
+    }
+
+    /**
+     * Opens a connection to the url with the timeouts and, for https
+     * urls, the socket factory of the transport.
+     */
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if( connection instanceof HttpsURLConnection ) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+            ((HttpsURLConnection) connection).setHostnameVerifier(hostnameVerifier);
+        }
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private HttpResponse send(HttpURLConnection connection, String method,
+                              String body, ResponseReader reader)
+            throws IOException {
+        connection.setRequestMethod(method);
+        if( "GET".equals(method) ) {
+            connection.addRequestProperty("Accept", JSON);
+        } else {
+            connection.addRequestProperty("Content-Type", JSON);
+        }
+
+        if( body != null && ("POST".equals(method) || "PUT".equals(method)) ) {
+            byte[] content = Utils.unescapeJSONString(body).getBytes("UTF-8");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(content.length);
+
+            OutputStream output = connection.getOutputStream();
+            try {
+                output.write(content);
+            } finally {
+                output.close();
+            }
+        }
+
+        int code;
+        try {
+            code = connection.getResponseCode();
+        } catch (IOException e) {
+            // The connection cannot be reused unless the error stream
+            // is consumed too
+            drain(connection.getErrorStream());
+            throw e;
+        }
+
+        InputStream stream;
+        try {
+            stream = connection.getInputStream();
+        } catch (IOException e) {
+            // Error codes are read from the error stream
+            stream = connection.getErrorStream();
+        }
+
+        Object content;
+        if( stream == null ) {
+            content = reader.read(code, new StringReader(""));
+        } else {
+            try {
+                content = reader.read(code, new BufferedReader(
+                        new InputStreamReader(stream, "UTF-8"), BUFFER_SIZE));
+            } finally {
+                drain(stream);
+            }
+        }
+
+        return new HttpResponse(code, getHeaders(connection), content);
+    }
+
+    private Semaphore getPermits(URL url) {
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+        Semaphore hostPermits = permits.get(key);
+        if( hostPermits == null ) {
+            hostPermits = new Semaphore(maxConnectionsPerHost, true);
+            Semaphore existing = permits.putIfAbsent(key, hostPermits);
+            if( existing != null ) {
+                hostPermits = existing;
+            }
+        }
+        return hostPermits;
+    }
+
+    private static Map<String, String> getHeaders(HttpURLConnection connection) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header :
+                connection.getHeaderFields().entrySet()) {
+            List<String> values = header.getValue();
+            if( header.getKey() != null && values != null && !values.isEmpty() ) {
+                headers.put(header.getKey(), values.get(0));
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Reads what's left of the stream and closes it, so the connection
+     * goes back to the keep-alive cache.
+     */
+    private static void drain(InputStream stream) throws IOException {
+        if( stream == null ) {
+            return;
+        }
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while( stream.read(buffer) != -1 ) {
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static SSLSocketFactory createSSLSocketFactory() {
+        try {
+            // We need to disable the VERIFY of the certificate until we decide how to use it
+            TrustManager[] trustAllCerts = new TrustManager[] { new MockX509TrustManager() };
+            SSLContext sc = SSLContext.getInstance("SSL");
+            sc.init(null, trustAllCerts, new SecureRandom());
+            return sc.getSocketFactory();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot create the SSL context", e);
+        } catch (KeyManagementException e) {
+            throw new IllegalStateException("Cannot create the SSL context", e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.bigml.binding.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the body of a response as it arrives from the connection, so
+ * the body doesn't need to be copied into a String first.
+ */
+public interface ResponseReader {
+
+    /**
+     * Reads the body of the response. The transport drains and closes
+     * the body after this method returns, so it doesn't need to be read
+     * to the end.
+     *
+     * @param code the HTTP status code of the response
+     * @param body the body of the response, decoded as UTF-8
+     * @return the content of the response
+     * @throws IOException if the body cannot be read
+     */
+    Object read(int code, Reader body) throws IOException;
+}
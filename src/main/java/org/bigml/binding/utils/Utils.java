@@ -29,7 +29,6 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
@@ -182,23 +181,14 @@ public class Utils {
             sslSocketFactory = sc.getSocketFactory();
         }
 
-        // Get a reference to the actual SSL socket factory before change it
-        SSLSocketFactory oldSSLSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
-        // Get a reference to the actual host verifier before change it
-        HostnameVerifier oldHostnameVerifier = HttpsURLConnection.getDefaultHostnameVerifier();
-
-        try {
-            HttpsURLConnection.setDefaultSSLSocketFactory(sslSocketFactory);
-            // Install the all-trusting host verifier
-            HttpsURLConnection.setDefaultHostnameVerifier(new MockHostnameVerifier());
-
-            return (HttpURLConnection) url.openConnection();
-        } finally {
-            // Install the old SSL socket factory
-            HttpsURLConnection.setDefaultSSLSocketFactory(oldSSLSocketFactory);
-            // Install the old host verifier
-            HttpsURLConnection.setDefaultHostnameVerifier(oldHostnameVerifier);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if( connection instanceof HttpsURLConnection ) {
+            // The all-trusting factory and host verifier are only installed
+            // in this connection, the JVM wide defaults are left untouched
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+            ((HttpsURLConnection) connection).setHostnameVerifier(new MockHostnameVerifier());
         }
+        return connection;
     }
 
 
@@ -277,6 +267,8 @@ public class Utils {
     /**
      * Returns JSONObject child.
      *
+     * The path is parsed in every call, use a compiled JSONPath to
+     * resolve the same path repeatedly.
      */
     public static Object getJSONObject(JSONObject json, String path) {
         String field = path;
@@ -320,6 +312,8 @@ public class Utils {
     /**
      * Returns JSONObject child.
      *
+     * The path is parsed in every call, use a compiled JSONPath to
+     * resolve the same path repeatedly.
      */
     public static Object getJSONObject(JSONObject json, String path, Object defaultValue) {
         String field = path;
@@ -465,7 +459,7 @@ public class Utils {
         }
 
         if( field.containsKey("suffix") && value.endsWith((String) field.get("suffix")) ) {
-            value = value.substring( 0, ((String) field.get("prefix")).length());
+            value = value.substring( 0, value.length() - ((String) field.get("suffix")).length());
         }
 
         return value;
@@ -485,32 +479,42 @@ public class Utils {
 
             JSONObject field = (JSONObject) fields.get(fieldId);
 
-            String optType = (String) Utils.getJSONObject(field, "optype");
-
-            if( ("numeric".equals(optType) && value instanceof String) ||
-                    (!"numeric".equals(optType) && !(value instanceof String)) ) {
+            Object castValue = cast(value, field);
+            if( castValue != value ) {
+                // Replacing the value of an existing key is not a
+                // structural change, so the iteration is not affected
+                inputData.put(fieldId, castValue);
+            }
+        }
+    }
 
-                try {
+    /**
+     * Strips affixes for a numeric value and casts it to the type of the field
+     *
+     * @param value the value to be cast
+     * @param field the structure of the field
+     * @return the cast value, or the same value if no cast was needed
+     */
+    public static Object cast(Object value, JSONObject field) {
+        String optType = (String) Utils.getJSONObject(field, "optype");
+        boolean numeric = "numeric".equals(optType);
 
-                    if( "numeric".equals(optType) ) {
-                        value = stripAffixes(value.toString(), field);
-                    }
+        if( (numeric && value instanceof String) ||
+                (!numeric && !(value instanceof String)) ) {
 
-                    if ("numeric".equals(optType)) {
-                        value = Double.parseDouble(value.toString());
-                    } else {
-                        value = value.toString();
-                    }
-                } catch (Exception e) {
-                    throw new IllegalStateException(
-                            String.format("Mismatch input data type in field " +
-                                    "\"%s\" for value %s.", field.get("name"), value.toString()));
+            try {
+                if( numeric ) {
+                    return Double.parseDouble(stripAffixes(value.toString(), field));
                 }
+                return value.toString();
+            } catch (Exception e) {
+                throw new IllegalStateException(
+                        String.format("Mismatch input data type in field " +
+                                "\"%s\" for value %s.", field.get("name"), value.toString()));
             }
         }
 
-//        return inputData;
-
+        return value;
     }
 
     /**
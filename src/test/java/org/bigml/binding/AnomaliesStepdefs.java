@@ -3,6 +3,8 @@ package org.bigml.binding;
 import cucumber.annotation.en.Given;
 import cucumber.annotation.en.Then;
 import cucumber.annotation.en.When;
+import org.bigml.binding.localanomaly.AnomalyTree;
+import org.bigml.binding.localanomaly.CompiledIsolationForest;
 import org.bigml.binding.resources.AbstractResource;
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
@@ -15,6 +17,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 
@@ -34,6 +38,10 @@ public class AnomaliesStepdefs {
     private String sharedHash;
     private String sharedKey;
 
+    private static final String[] CATEGORIES = {"x", "y", "z"};
+    private JSONObject generatedAnomaly;
+    private Random random;
+
     @Given("^I create an anomaly detector from a dataset list$")
     public void I_create_an_anomaly_from_a_dataset_list() throws AuthenticationException {
         JSONObject args = new JSONObject();
@@ -384,6 +392,278 @@ public class AnomaliesStepdefs {
         assertEquals(data, context.anomalyScore.get("score").toString());
     }
 
+    @Then("^the paths of the compiled local anomaly detector for \"(.*)\" by name=(true|false) match its trees$")
+    public void the_paths_of_the_compiled_local_anomaly_detector(String data, String byName)
+            throws Throwable {
+        JSONObject inputData = localAnomaly.filterInputData(
+                (JSONObject) JSONValue.parse(data), new Boolean(byName));
+        Utils.cast(inputData, localAnomaly.getFields());
+
+        assertSamePaths(context.anomaly, Collections.singletonList(inputData));
+    }
+
+    @Given("^I create a local anomaly detector with (\\d+) random trees generated with seed (\\d+)$")
+    public void I_create_a_local_anomaly_detector_with_random_trees(int trees, long seed)
+            throws Throwable {
+        random = new Random(seed);
+
+        JSONArray iforest = new JSONArray();
+        for (int i = 0; i < trees; i++) {
+            JSONObject root = randomNode(0);
+            root.put("predicates", Boolean.TRUE);
+            JSONObject tree = new JSONObject();
+            tree.put("root", root);
+            iforest.add(tree);
+        }
+
+        JSONObject model = new JSONObject();
+        model.put("fields", JSONValue.parse("{"
+                + "\"000000\": {\"name\": \"a\", \"optype\": \"numeric\", \"column_number\": 0},"
+                + "\"000001\": {\"name\": \"b\", \"optype\": \"numeric\", \"column_number\": 1},"
+                + "\"000002\": {\"name\": \"c\", \"optype\": \"categorical\", \"column_number\": 2},"
+                + "\"000003\": {\"name\": \"t\", \"optype\": \"text\", \"column_number\": 3,"
+                + " \"term_analysis\": {\"case_sensitive\": false, \"token_mode\": \"all\"},"
+                + " \"summary\": {\"term_forms\": {}}}}"));
+        model.put("top_anomalies", new JSONArray());
+        model.put("mean_depth", 6.5);
+        model.put("trees", iforest);
+
+        generatedAnomaly = new JSONObject();
+        generatedAnomaly.put("resource", "anomaly/5143a51a37203f2cf7000970");
+        generatedAnomaly.put("sample_size", 128L);
+        generatedAnomaly.put("input_fields", new JSONArray());
+        generatedAnomaly.put("model", model);
+        generatedAnomaly.put("status", JSONValue.parse("{\"code\": 5}"));
+
+        localAnomaly = new LocalAnomaly(generatedAnomaly);
+    }
+
+    @Then("^the paths of the compiled local anomaly detector match its trees for (\\d+) random rows$")
+    public void the_paths_of_the_compiled_local_anomaly_detector_for_random_rows(int rows)
+            throws Throwable {
+        assertSamePaths(generatedAnomaly, randomRows(rows));
+    }
+
+    @Then("^the batches of local anomaly scores match the local anomaly scores for (\\d+) random rows$")
+    public void the_batches_of_local_anomaly_scores_for_random_rows(int rows)
+            throws Throwable {
+        List<JSONObject> inputData = randomRows(rows);
+
+        CompiledIsolationForest compiled = localAnomaly.compile();
+        Object[][] compiledRows = new Object[rows][];
+        double[] expected = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            compiledRows[i] = compiled.toRow(inputData.get(i));
+            expected[i] = localAnomaly.score(new JSONObject(inputData.get(i)), false);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertArrayEquals(expected, localAnomaly.scoreBatch(inputData, false), 0.0);
+            assertArrayEquals(expected, localAnomaly.scoreBatch(inputData, false, executor), 0.0);
+            assertArrayEquals(expected, compiled.scoreBatch(compiledRows), 0.0);
+            assertArrayEquals(expected, compiled.scoreBatch(compiledRows, executor), 0.0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Random rows with the fields of the generated anomaly detector
+     */
+    private List<JSONObject> randomRows(int rows) {
+        List<JSONObject> inputData = new ArrayList<JSONObject>();
+        for (int i = 0; i < rows; i++) {
+            JSONObject row = new JSONObject();
+            if( random.nextInt(5) > 0 ) {
+                row.put("000000", Math.round(random.nextGaussian() * 30) / 10.0);
+            }
+            if( random.nextInt(5) > 0 ) {
+                row.put("000001", random.nextInt(3) == 0 ?
+                        (Object) Long.valueOf(random.nextInt(5) - 2) :
+                        (Object) (Math.round(random.nextGaussian() * 30) / 10.0));
+            }
+            if( random.nextInt(4) > 0 ) {
+                row.put("000002", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            }
+            if( random.nextInt(4) > 0 ) {
+                row.put("000003", random.nextBoolean() ? "alpha gamma" : "beta beta Alpha");
+            }
+            inputData.add(row);
+        }
+        return inputData;
+    }
+
+    /**
+     * Checks that every compiled tree follows the same path and gives the
+     * same depth as the tree built from the anomaly detector
+     */
+    private void assertSamePaths(JSONObject anomaly, List<JSONObject> inputData) {
+        if( anomaly.get("object") instanceof JSONObject ) {
+            anomaly = (JSONObject) anomaly.get("object");
+        }
+
+        List<AnomalyTree> iforest = new ArrayList<AnomalyTree>();
+        for (Object tree : (List) Utils.getJSONObject(anomaly, "model.trees")) {
+            iforest.add(new AnomalyTree((JSONObject) ((JSONObject) tree).get("root"),
+                    null, localAnomaly.getFields()));
+        }
+
+        CompiledIsolationForest compiled = localAnomaly.compile();
+        assertEquals(iforest.size(), compiled.size());
+
+        for (JSONObject data : inputData) {
+            Object[] row = compiled.toRow(data);
+
+            int depthSum = 0;
+            for (int tree = 0; tree < iforest.size(); tree++) {
+                AnomalyTree.AnomalyDepth expected = iforest.get(tree).depth(data);
+                AnomalyTree.AnomalyDepth depth = compiled.getPath(tree, row);
+                assertEquals(expected.getDepth(), depth.getDepth());
+                assertEquals(expected.getPath(), depth.getPath());
+                depthSum += expected.getDepth();
+            }
+            assertEquals(((double) depthSum) / iforest.size(),
+                    compiled.meanDepth(row), 0.0);
+        }
+    }
+
+    private JSONObject randomNode(int depth) {
+        JSONObject node = new JSONObject();
+        JSONArray predicates = new JSONArray();
+        int numberOfPredicates = random.nextInt(3);
+        if( numberOfPredicates == 0 ) {
+            predicates.add(Boolean.TRUE);
+        }
+        for (int i = 0; i < numberOfPredicates; i++) {
+            predicates.add(random.nextInt(5) == 0 ? (Object) Boolean.TRUE :
+                    randomPredicate());
+        }
+        node.put("predicates", predicates);
+
+        if( depth < 6 ) {
+            JSONArray children = new JSONArray();
+            int numberOfChildren = random.nextInt(3) + (depth < 2 ? 1 : 0);
+            for (int i = 0; i < numberOfChildren; i++) {
+                children.add(randomNode(depth + 1));
+            }
+            if( !children.isEmpty() ) {
+                node.put("children", children);
+            }
+        }
+        return node;
+    }
+
+    private JSONObject randomPredicate() {
+        JSONObject predicate = new JSONObject();
+        int kind = random.nextInt(10);
+        if( kind < 6 ) {
+            String[] operators = {"<", "<=", ">", ">=", "<=*", ">*", "=", "!="};
+            predicate.put("field", random.nextBoolean() ? "000000" : "000001");
+            predicate.put("optype", "numeric");
+            predicate.put("op", operators[random.nextInt(operators.length)]);
+            predicate.put("value", Math.round(random.nextGaussian() * 30) / 10.0);
+        } else if( kind < 8 ) {
+            predicate.put("field", "000002");
+            predicate.put("optype", "categorical");
+            predicate.put("op", random.nextBoolean() ? "=" : "!=");
+            predicate.put("value", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+        } else {
+            predicate.put("field", "000003");
+            predicate.put("optype", "text");
+            predicate.put("op", random.nextBoolean() ? ">" : "<=");
+            predicate.put("value", 0L);
+            predicate.put("term", random.nextBoolean() ? "alpha" : "beta");
+        }
+        return predicate;
+    }
+
+    @Then("^the batch of local anomaly scores for \"(.*)\" by name=(true|false) matches the local anomaly score$")
+    public void the_batch_of_local_anomaly_scores_matches(String data, String byName)
+            throws Throwable {
+        List<JSONObject> batch = new ArrayList<JSONObject>();
+        for (int i = 0; i < 3; i++) {
+            batch.add((JSONObject) JSONValue.parse(data));
+        }
+
+        for (double score : localAnomaly.scoreBatch(batch, new Boolean(byName))) {
+            assertEquals(localScore, score, 0.0);
+        }
+    }
+
+    @Then("^the anomaly tracker for \"(.*)\" by name=(true|false) keeps the local anomaly score$")
+    public void the_anomaly_tracker_keeps_the_local_anomaly_score(String data, String byName)
+            throws Throwable {
+        AnomalyTracker tracker = new AnomalyTracker(localAnomaly, 2);
+        for (int i = 0; i < 3; i++) {
+            tracker.add((JSONObject) JSONValue.parse(data), new Boolean(byName));
+        }
+
+        List<AnomalyTracker.ScoredRow> topAnomalies = tracker.getTopAnomalies();
+        assertEquals(2, topAnomalies.size());
+        assertEquals(0, topAnomalies.get(0).getIndex());
+        assertEquals(localScore, topAnomalies.get(0).getScore(), 0.0);
+        assertEquals(localScore, tracker.quantile(0.5), 0.0);
+    }
+
+    @Then("^the anomaly tracker with (\\d+) top anomalies and (\\d+) bins matches a sort of (\\d+) random scores$")
+    public void the_anomaly_tracker_matches_a_sort_of_random_scores(int top, int bins, int rows)
+            throws Throwable {
+        AnomalyTracker tracker = new AnomalyTracker(localAnomaly, top, bins);
+
+        // A third of the scores are rounded, so there are ties among the
+        // top scores
+        final double[] scores = new double[rows];
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (int i = 0; i < rows; i++) {
+            double score = random.nextDouble();
+            scores[i] = (random.nextInt(3) == 0 ? Math.round(score * 50) / 50.0 : score);
+            tracker.add(i, scores[i]);
+            indexes.add(i);
+        }
+
+        // From the highest score to the lowest, the first rows first in ties
+        Collections.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int result = Double.compare(scores[o2], scores[o1]);
+                return (result != 0 ? result : o1.compareTo(o2));
+            }
+        });
+
+        List<AnomalyTracker.ScoredRow> topAnomalies = tracker.getTopAnomalies();
+        assertEquals(Math.min(top, rows), topAnomalies.size());
+        for (int i = 0; i < topAnomalies.size(); i++) {
+            AnomalyTracker.ScoredRow scoredRow = topAnomalies.get(i);
+            assertEquals(indexes.get(i).longValue(), scoredRow.getIndex());
+            assertEquals(indexes.get(i), scoredRow.getRow());
+            assertEquals(scores[indexes.get(i)], scoredRow.getScore(), 0.0);
+        }
+        assertEquals(scores[indexes.get(topAnomalies.size() - 1)], tracker.getThreshold(), 0.0);
+
+        assertEquals(rows, tracker.getCount());
+        assertEquals(scores[indexes.get(0)], tracker.getMaximum(), 0.0);
+        assertEquals(scores[indexes.get(rows - 1)], tracker.getMinimum(), 0.0);
+
+        // Every quantile is inside the bin of the exact one, and the
+        // interpolation inside the bins keeps the mean error well below
+        // the half bin of taking the bounds of the bins
+        double[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        double errors = 0;
+        for (int i = 0; i <= 100; i++) {
+            double quantile = i / 100.0;
+            int rank = (int) Math.ceil(quantile * rows);
+            double expected = sorted[Math.max(0, rank - 1)];
+            double error = Math.abs(tracker.quantile(quantile) - expected);
+            assertTrue(String.format("Quantile %s is off by %s", quantile, error),
+                    error < 1.0 / bins);
+            errors += error;
+        }
+        assertTrue(String.format("Quantiles are off by %s on average", errors / 101),
+                errors / 101 < 0.4 / bins);
+    }
+
     @Then("^the local anomaly score is (.*)$")
     public void the_local_anomaly_score_is(Double expectedScore)
             throws Throwable {
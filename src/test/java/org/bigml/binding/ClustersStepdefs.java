@@ -7,13 +7,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import org.bigml.binding.resources.AbstractResource;
 import org.bigml.binding.utils.Utils;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 import org.slf4j.Logger;
@@ -39,6 +44,13 @@ public class ClustersStepdefs {
 
     private String downloadedFile;
 
+    private static final String[] CATEGORIES = {"x", "y", "z"};
+    private static final String[] TERMS = {"alpha", "beta", "gamma", "delta"};
+    private static final String[] WORDS = {"alpha", "Beta", "gammas", "delta", "omega"};
+
+    private JSONObject generatedCluster;
+    private Random random;
+
     @Given("^I create a cluster with options \"(.*)\"$")
     public void I_create_a_cluster_with_options(String options) throws AuthenticationException {
         String datasetId = (String) context.dataset.get("resource");
@@ -146,6 +158,140 @@ public class ClustersStepdefs {
                 Boolean.TRUE);
     }
 
+    @Then("^the batch of local centroids for \"(.*)\" matches the local centroid$")
+    public void the_batch_of_local_centroids_matches(String inputData) {
+        List<JSONObject> batch = new ArrayList<JSONObject>();
+        batch.add((JSONObject) JSONValue.parse(inputData));
+        batch.add((JSONObject) JSONValue.parse(inputData));
+
+        for (JSONObject centroid : context.localCluster.calculateCentroids(batch, Boolean.TRUE)) {
+            assertEquals(context.localCentroid.get("centroid_id"), centroid.get("centroid_id"));
+            assertEquals(context.localCentroid.get("distance"), centroid.get("distance"));
+        }
+    }
+
+    @Given("^I create a local cluster with (\\d+) random centroids generated with seed (\\d+) and (matching|mismatched) centers$")
+    public void I_create_a_local_cluster_with_random_centroids(int size, long seed, String layout)
+            throws Exception {
+        random = new Random(seed);
+
+        JSONArray clusters = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            JSONObject center = new JSONObject();
+            center.put("000000", random.nextGaussian());
+            center.put("000001", random.nextGaussian() * 10);
+            center.put("000002", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            JSONArray terms = new JSONArray();
+            for (String term : TERMS) {
+                if( random.nextBoolean() ) {
+                    terms.add(term);
+                }
+            }
+            center.put("000003", terms);
+
+            // A center without the categorical component can't be compiled
+            if( "mismatched".equals(layout) && i == size - 1 ) {
+                center.remove("000002");
+            }
+
+            JSONObject centroid = new JSONObject();
+            centroid.put("id", String.format("%06x", i));
+            centroid.put("name", "Cluster " + i);
+            centroid.put("count", 10L);
+            centroid.put("center", center);
+            clusters.add(centroid);
+        }
+
+        JSONObject scales = new JSONObject();
+        scales.put("000000", 1.0);
+        scales.put("000001", 0.1 + random.nextDouble());
+        scales.put("000002", 0.5 + random.nextDouble());
+        scales.put("000003", 0.5 + random.nextDouble());
+
+        JSONObject model = new JSONObject();
+        model.put("fields", JSONValue.parse("{"
+                + "\"000000\": {\"name\": \"a\", \"optype\": \"numeric\", \"column_number\": 0},"
+                + "\"000001\": {\"name\": \"b\", \"optype\": \"numeric\", \"column_number\": 1},"
+                + "\"000002\": {\"name\": \"c\", \"optype\": \"categorical\", \"column_number\": 2},"
+                + "\"000003\": {\"name\": \"t\", \"optype\": \"text\", \"column_number\": 3,"
+                + " \"term_analysis\": {\"case_sensitive\": false, \"token_mode\": \"all\"},"
+                + " \"summary\": {\"term_forms\": {\"gamma\": [\"gammas\"]},"
+                + " \"tag_cloud\": [[\"alpha\", 4], [\"beta\", 3], [\"gamma\", 2], [\"delta\", 1]]}}}"));
+        model.put("clusters", clusters);
+
+        generatedCluster = new JSONObject();
+        generatedCluster.put("resource", "cluster/5143a51a37203f2cf7000980");
+        generatedCluster.put("clusters", model);
+        generatedCluster.put("scales", scales);
+        generatedCluster.put("summary_fields", new JSONArray());
+        generatedCluster.put("status", JSONValue.parse("{\"code\": 5}"));
+
+        context.localCluster = new LocalCluster(generatedCluster);
+    }
+
+    @Then("^the local centroids match the distances of the centroids for (\\d+) random rows$")
+    public void the_local_centroids_match_the_distances_for_random_rows(int rows) {
+        List<LocalCentroid> centroids = new ArrayList<LocalCentroid>();
+        for (Object centroid : (List) Utils.getJSONObject(generatedCluster, "clusters.clusters")) {
+            centroids.add(new LocalCentroid((JSONObject) centroid));
+        }
+        JSONObject scales = (JSONObject) generatedCluster.get("scales");
+
+        // The mismatched centers must take the path of LocalCentroid.distance2
+        boolean mismatched = centroids.get(centroids.size() - 1).getCenter().size() <
+                centroids.get(0).getCenter().size();
+        assertEquals(mismatched, CompiledCentroids.compile(centroids, scales) == null);
+
+        List<JSONObject> inputData = new ArrayList<JSONObject>();
+        for (int i = 0; i < rows; i++) {
+            JSONObject row = new JSONObject();
+            row.put("000000", random.nextGaussian());
+            row.put("000001", random.nextGaussian() * 10);
+            if( random.nextInt(4) > 0 ) {
+                row.put("000002", random.nextInt(5) > 0 ?
+                        CATEGORIES[random.nextInt(CATEGORIES.length)] : "unknown");
+            }
+            if( random.nextInt(4) > 0 ) {
+                StringBuilder text = new StringBuilder();
+                for (int j = random.nextInt(4); j > 0; j--) {
+                    text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+                row.put("000003", text.toString().trim());
+            }
+            inputData.add(row);
+        }
+
+        List<JSONObject> batch = context.localCluster.calculateCentroids(inputData, Boolean.FALSE);
+        assertEquals(inputData.size(), batch.size());
+
+        for (int i = 0; i < inputData.size(); i++) {
+            JSONObject row = inputData.get(i);
+            Map<String, Object> uniqueTerms =
+                    context.localCluster.getUniqueTerms(new JSONObject(row));
+
+            // Full distances to every centroid, with no early exit
+            LocalCentroid expected = null;
+            double expectedDistance2 = Double.POSITIVE_INFINITY;
+            for (LocalCentroid centroid : centroids) {
+                double distance2 = centroid.distance2(row, uniqueTerms, scales, null);
+                if( distance2 < expectedDistance2 ) {
+                    expected = centroid;
+                    expectedDistance2 = distance2;
+                }
+            }
+
+            JSONObject nearest = context.localCluster.calculateCentroid(row, Boolean.FALSE);
+            assertEquals(expected.getCentroidId(), nearest.get("centroid_id"));
+            assertEquals(expected.getName(), nearest.get("centroid_name"));
+            assertEquals(Math.sqrt(expectedDistance2),
+                    ((Number) nearest.get("distance")).doubleValue(), 1e-9);
+
+            assertEquals(nearest.get("centroid_id"), batch.get(i).get("centroid_id"));
+            assertEquals(((Number) nearest.get("distance")).doubleValue(),
+                    ((Number) batch.get(i).get("distance")).doubleValue(), 0.0);
+        }
+    }
+
     @Given("^I check the centroid is ok$")
     public void I_check_the_centroid_is_ok() throws AuthenticationException {
         int secs = 60;
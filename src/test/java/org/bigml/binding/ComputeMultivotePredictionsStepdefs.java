@@ -1,8 +1,12 @@
 package org.bigml.binding;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
@@ -24,6 +28,9 @@ public class ComputeMultivotePredictionsStepdefs {
     MultiVote multivote;
     HashMap<Object, Object> combinedPrediction;
 
+    VoteAccumulator votes = new VoteAccumulator();
+    List<HashMap<Object, Object>> addedVotes = new ArrayList<HashMap<Object, Object>>();
+
     @Given("^I create a MultiVote for the set of predictions in file (.*)$")
     public void i_create_a_multivote(String predictionsFile) throws Throwable {
         try {
@@ -60,6 +67,31 @@ public class ComputeMultivotePredictionsStepdefs {
         }
     }
 
+    @Given("^I create a MultiVote with list distributions for the set of predictions in file (.*)$")
+    public void i_create_a_multivote_with_list_distributions(String predictionsFile) throws Throwable {
+        String json = Utils.readFile(predictionsFile);
+        JSONArray jsonArray = (JSONArray) JSONValue.parse(json);
+
+        // The predictions are kept as the local models return them: the
+        // distribution is a list of [category, instances] pairs and the
+        // counts are longs
+        HashMap<Object, Object>[] exampleArray = (HashMap<Object, Object>[]) new HashMap[jsonArray
+                .size()];
+        for (int i = 0; i < jsonArray.size(); i++) {
+            JSONObject item = (JSONObject) jsonArray.get(i);
+
+            HashMap<Object, Object> prediction = new HashMap<Object, Object>();
+            prediction.put("prediction", item.get("prediction"));
+            prediction.put("confidence", item.get("confidence"));
+            prediction.put("count", item.get("count"));
+            prediction.put("distribution", item.get("distribution"));
+
+            exampleArray[i] = prediction;
+        }
+
+        multivote = new MultiVote(exampleArray);
+    }
+
     @When("^I compute the prediction with confidence using method \"([^\"]*)\"$")
     public void I_compute_the_prediction_with_confidence_using_method(
             String method) throws Throwable {
@@ -72,6 +104,112 @@ public class ComputeMultivotePredictionsStepdefs {
         }
     }
 
+    @When("^I compute the prediction with confidence using method \"([^\"]*)\" with a vote accumulator$")
+    public void I_compute_the_prediction_with_a_vote_accumulator(
+            String method) throws Throwable {
+        PredictionMethod intMethod = PredictionMethod.valueOf(new Integer(method));
+        VoteAccumulator votes = new VoteAccumulator();
+        votes.addAll(multivote);
+        combinedPrediction = votes.combine(intMethod, true,
+                null, null, null, null, null);
+    }
+
+    @Given("^I add the predictions in file (.*) to the vote accumulator$")
+    public void I_add_the_predictions_in_file_to_the_vote_accumulator(String predictionsFile)
+            throws Throwable {
+        I_add_the_predictions_to_the_vote_accumulator(Utils.readFile(predictionsFile));
+    }
+
+    @Given("^I add the predictions (\\[.*\\]) to the vote accumulator$")
+    public void I_add_the_predictions_to_the_vote_accumulator(String predictions)
+            throws Throwable {
+        // The predictions are added as the local models return them
+        for (Object item : (JSONArray) JSONValue.parse(predictions)) {
+            HashMap<Object, Object> prediction = (HashMap<Object, Object>) item;
+            votes.add(prediction);
+            addedVotes.add(prediction);
+        }
+    }
+
+    @When("^I reset the vote accumulator$")
+    public void I_reset_the_vote_accumulator() throws Throwable {
+        votes.reset();
+        addedVotes.clear();
+        assertEquals(0, votes.size());
+    }
+
+    @When("^I combine the votes with method \"([^\"]*)\"$")
+    public void I_combine_the_votes_with_method(String method) throws Throwable {
+        PredictionMethod intMethod = PredictionMethod.valueOf(new Integer(method));
+        combinedPrediction = votes.combine(intMethod, true,
+                null, null, null, null, null);
+    }
+
+    @When("^I combine the votes with method \"([^\"]*)\" adding the median$")
+    public void I_combine_the_votes_with_method_adding_the_median(String method)
+            throws Throwable {
+        PredictionMethod intMethod = PredictionMethod.valueOf(new Integer(method));
+        combinedPrediction = votes.combine(intMethod, true,
+                null, null, null, true, null);
+    }
+
+    @When("^I combine the votes with method \"([^\"]*)\" for category \"([^\"]*)\" with threshold (\\d+)$")
+    public void I_combine_the_votes_with_threshold(String method, String category,
+                                                  int threshold) throws Throwable {
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put("category", category);
+        options.put("threshold", threshold);
+
+        PredictionMethod intMethod = PredictionMethod.valueOf(new Integer(method));
+        combinedPrediction = votes.combine(intMethod, true,
+                null, null, null, null, options);
+    }
+
+    @Then("^the median for the combined prediction is (.*)$")
+    public void the_median_for_the_combined_prediction_is(double median)
+            throws Throwable {
+        String medianValue = String.format("%.12g%n",
+                ((Number) combinedPrediction.get("median")).doubleValue());
+        assertEquals(String.format("%.12g%n", median), medianValue);
+    }
+
+    @Then("^the combined prediction matches the MultiVote with method \"([^\"]*)\"$")
+    public void the_combined_prediction_matches_the_multivote(String method)
+            throws Throwable {
+        assertSameCombination(method, false);
+    }
+
+    @Then("^the combined prediction matches the MultiVote with method \"([^\"]*)\" adding the median$")
+    public void the_combined_prediction_matches_the_multivote_adding_the_median(String method)
+            throws Throwable {
+        assertSameCombination(method, true);
+    }
+
+    /**
+     * Checks that MultiVote combines the votes added to the accumulator
+     * as it did
+     */
+    private void assertSameCombination(String method, boolean addMedian) {
+        HashMap<Object, Object>[] predictions = new HashMap[addedVotes.size()];
+        for (int i = 0; i < predictions.length; i++) {
+            // MultiVote gives the votes their order
+            predictions[i] = new HashMap<Object, Object>(addedVotes.get(i));
+            predictions[i].remove("order");
+        }
+
+        PredictionMethod intMethod = PredictionMethod.valueOf(new Integer(method));
+        HashMap<Object, Object> expected = new MultiVote(predictions).combine(intMethod, true,
+                null, null, null, addMedian, null);
+
+        assertEquals(expected.get("prediction"), combinedPrediction.get("prediction"));
+        assertEquals(((Number) expected.get("confidence")).doubleValue(),
+                ((Number) combinedPrediction.get("confidence")).doubleValue(), 1e-9);
+        if( addMedian ) {
+            assertEquals(((Number) expected.get("median")).doubleValue(),
+                    ((Number) combinedPrediction.get("median")).doubleValue(), 1e-12);
+        }
+    }
+
     @Then("^the combined prediction is \"([^\"]*)\"$")
     public void the_combined_prediction_is(String prediction) throws Throwable {
         assertTrue(combinedPrediction.get("prediction").equals(prediction));
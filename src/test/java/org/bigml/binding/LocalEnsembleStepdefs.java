@@ -2,6 +2,9 @@ package org.bigml.binding;
 
 import cucumber.annotation.en.Given;
 import cucumber.annotation.en.Then;
+import org.bigml.binding.utils.CacheManager;
+import org.bigml.binding.utils.MemoryCache;
+import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
@@ -9,10 +12,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -54,6 +61,63 @@ public class LocalEnsembleStepdefs {
         assertTrue("", predictiveEnsemble != null);
     }
 
+    @Given("^I create a lazy local ensemble with a budget of (\\d+) bytes$")
+    public void I_create_a_lazy_local_ensemble(long budget) throws Exception {
+        predictiveEnsemble = new LocalEnsemble(context.ensemble, null,
+                new MemoryCache(budget, 1024));
+        assertTrue("", predictiveEnsemble != null);
+    }
+
+    @Given("^I create a local ensemble from (\\d+) copies of the JSON of the model in \"(.*)\"$")
+    public void I_create_a_local_ensemble_from_model_jsons(int numberOfModels,
+                                                          String jsonModelFile) throws Exception {
+        List models = new ArrayList();
+        for (int i = 0; i < numberOfModels; i++) {
+            JSONObject model = (JSONObject) JSONValue.parse(Utils.readFile(jsonModelFile));
+            model.put("resource", String.format("model/%024x", i));
+            models.add(model);
+        }
+
+        // The models are given, so none of them is retrieved
+        predictiveEnsemble = new LocalEnsemble(models, null);
+        assertTrue("", predictiveEnsemble != null);
+    }
+
+    @Then("^the local ensemble prediction with method (\\w+) for \"(.*)\" is \"([^\"]*)\"$")
+    public void the_local_ensemble_prediction_with_method_is(String method, String args,
+                                                            String expectedPrediction) throws Exception {
+        JSONObject inputObj = (JSONObject) JSONValue.parse(args);
+        Map<Object, Object> p = predictiveEnsemble
+                .predict(inputObj, true, PredictionMethod.valueOf(method), true);
+        assertEquals(expectedPrediction, p.get("prediction"));
+    }
+
+    @Then("^the local ensemble predictions for \"(.*)\" with an executor of (\\d+) threads match the ones in the calling thread$")
+    public void the_local_ensemble_predictions_with_an_executor_match(String args,
+                                                                      int threads) throws Exception {
+        JSONObject inputObj = (JSONObject) JSONValue.parse(args);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (PredictionMethod method : new PredictionMethod[] {
+                    PredictionMethod.PLURALITY, PredictionMethod.CONFIDENCE,
+                    PredictionMethod.PROBABILITY}) {
+                predictiveEnsemble.setExecutor(null, 1);
+                Map<Object, Object> expected = predictiveEnsemble
+                        .predict(inputObj, true, method, true);
+
+                // Every model is evaluated in parallel
+                predictiveEnsemble.setExecutor(executor, 1);
+                Map<Object, Object> actual = predictiveEnsemble
+                        .predict(inputObj, true, method, true);
+                assertEquals(expected.get("prediction"), actual.get("prediction"));
+                assertEquals(expected.get("confidence"), actual.get("confidence"));
+            }
+        } finally {
+            predictiveEnsemble.setExecutor(null, 1);
+            executor.shutdown();
+        }
+    }
+
     @Then("^the local ensemble prediction for \"(.*)\" is \"([^\"]*)\" with confidence ([\\d,.]+)$")
     public void the_local_prediction_by_name_for_is_with_confidence(String args, String pred, Double expectedConfidence) {
         try {
@@ -129,6 +193,126 @@ public class LocalEnsembleStepdefs {
         }
     }
 
+    /**
+     * A client that reads the models from its cache only and counts
+     * how many of them are retrieved
+     */
+    static class CachedModelsClient extends BigMLClient {
+        private final CacheManager cacheManager;
+        private final AtomicInteger retrieved = new AtomicInteger();
+
+        CachedModelsClient(CacheManager cacheManager) {
+            super();
+            this.cacheManager = cacheManager;
+        }
+
+        @Override
+        public CacheManager getCacheManager() {
+            return cacheManager;
+        }
+
+        @Override
+        public JSONObject getModel(String modelId) {
+            retrieved.incrementAndGet();
+            JSONObject model = new JSONObject();
+            model.put("code", 200);
+            model.put("resource", modelId);
+            model.put("object", cacheManager.get(modelId, null));
+            return model;
+        }
+    }
+
+    CachedModelsClient cachedModelsClient;
+    MemoryCache membersCache;
+    int numberOfLazyModels;
+
+    /**
+     * Stores the copies of the model in the cache of a new
+     * CachedModelsClient
+     */
+    private List<String> cacheModelCopies(int numberOfModels, String jsonModelFile)
+            throws Exception {
+        File storage = new File(System.getProperty("java.io.tmpdir"),
+                "bigml_lazy_ensemble_test");
+        CacheManager cacheManager = new CacheManager(storage.getPath());
+        cacheManager.cleanCache();
+
+        List<String> modelsIds = new ArrayList<String>();
+        for (int i = 0; i < numberOfModels; i++) {
+            // The cache keeps the resources, not the responses
+            JSONObject model = (JSONObject) ((JSONObject) JSONValue.parse(
+                    Utils.readFile(jsonModelFile))).get("object");
+            String modelId = String.format("model/%024x", i);
+            model.put("resource", modelId);
+            cacheManager.put(modelId, null, model);
+            modelsIds.add(modelId);
+        }
+        cachedModelsClient = new CachedModelsClient(cacheManager);
+        return modelsIds;
+    }
+
+    @Given("^I create a lazy local ensemble of (\\d+) copies of the model in \"(.*)\" with room for (\\d+) models$")
+    public void I_create_a_lazy_local_ensemble_of_copies(int numberOfModels,
+                                                         String jsonModelFile,
+                                                         int modelsInBudget) throws Exception {
+        List<String> modelsIds = cacheModelCopies(numberOfModels, jsonModelFile);
+        CacheManager cacheManager = cachedModelsClient.getCacheManager();
+
+        // All the copies have the same size
+        numberOfLazyModels = numberOfModels;
+        long budget = modelsInBudget * cacheManager.getSize(modelsIds.get(0), null);
+        membersCache = new MemoryCache(budget, 1024);
+        predictiveEnsemble = new LocalEnsemble(modelsIds, null, membersCache,
+                cachedModelsClient);
+
+        // The models are retrieved when they are needed
+        assertEquals(0, cachedModelsClient.retrieved.get());
+    }
+
+    @Then("^the lazy local ensemble predicts \"(.*)\" for \"(.*)\" twice retrieving (\\d+) models$")
+    public void the_lazy_local_ensemble_predicts_twice(String expectedPrediction,
+                                                       String args, int retrieved) throws Exception {
+        try {
+            JSONObject inputObj = (JSONObject) JSONValue.parse(args);
+            for (int i = 0; i < 2; i++) {
+                Map<Object, Object> p = predictiveEnsemble
+                        .predict(inputObj, true, PredictionMethod.PLURALITY, true);
+                assertEquals(expectedPrediction, p.get("prediction"));
+            }
+
+            assertEquals(retrieved, cachedModelsClient.retrieved.get());
+            assertTrue(membersCache.getWeight() <= membersCache.getMaxWeight());
+            assertEquals(0, membersCache.getRejectionCount());
+            assertEquals(retrieved > numberOfLazyModels,
+                    membersCache.getEvictionCount() > 0);
+
+            // Only the local models are kept in memory
+            assertEquals(0, cachedModelsClient.getCacheManager().getMemoryCache().size());
+        } finally {
+            cachedModelsClient.getCacheManager().cleanCache();
+        }
+    }
+
+    @Given("^I create a local ensemble of (\\d+) copies of the model in \"(.*)\" read once from the cache of its client$")
+    public void I_create_a_local_ensemble_read_once_from_the_cache(int numberOfModels,
+                                                                   String jsonModelFile) throws Exception {
+        List<String> modelsIds = cacheModelCopies(numberOfModels, jsonModelFile);
+        MemoryCache memoryCache = cachedModelsClient.getCacheManager().getMemoryCache();
+        long lookups = memoryCache.getHitCount() + memoryCache.getMissCount();
+        try {
+            predictiveEnsemble = new LocalEnsemble(modelsIds, null,
+                    cachedModelsClient);
+
+            // The models are read from the cache of the given client,
+            // looking up every model only once
+            assertEquals(0, cachedModelsClient.retrieved.get());
+            assertEquals(lookups + numberOfModels,
+                    memoryCache.getHitCount() + memoryCache.getMissCount());
+        } finally {
+            cachedModelsClient.getCacheManager().cleanCache();
+        }
+    }
+
 //    @Then("^the numerical prediction of proportional missing strategy local prediction for \"(.*)\" is ([\\d,.]+)$")
 //    public void the_numerical_prediction_of_proportional_missing_strategy_local_predictionfor_is(String args, double expectedPrediction) {
 //        try {
@@ -0,0 +1,115 @@
+package org.bigml.binding;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A fake BigML API listening on a local port.
+ *
+ * It answers the requests to the registered paths with the given code
+ * and body, and 404 to any other path. When several responses are
+ * registered for the same path they are used in order, and the last one
+ * is repeated. It also keeps track of the number
+ * of requests and of the client connections they were sent through.
+ */
+public class LocalHttpServer {
+
+    private final HttpServer server;
+
+    private final Map<String, LinkedList<Object[]>> responses =
+            new HashMap<String, LinkedList<Object[]>>();
+    private final Set<Integer> clientPorts = new HashSet<Integer>();
+    private int requests = 0;
+
+    public LocalHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                answer(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * The base url of the fake API, ending in a slash
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Registers a response to the requests to a path.
+     *
+     * @param path the path of the resource, without the leading slash
+     * @param code the status code of the response
+     * @param body the JSON body of the response
+     */
+    public synchronized void respond(String path, int code, String body) {
+        LinkedList<Object[]> pathResponses = responses.get("/" + path);
+        if( pathResponses == null ) {
+            pathResponses = new LinkedList<Object[]>();
+            responses.put("/" + path, pathResponses);
+        }
+        pathResponses.add(new Object[] { code, body });
+    }
+
+    public synchronized int getRequests() {
+        return requests;
+    }
+
+    /**
+     * The number of different client connections used by the requests
+     */
+    public synchronized int getConnections() {
+        return clientPorts.size();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        // Drain the request body, if any
+        InputStream input = exchange.getRequestBody();
+        byte[] buffer = new byte[1024];
+        while( input.read(buffer) != -1 ) {
+        }
+        input.close();
+
+        Object[] response;
+        synchronized (this) {
+            requests++;
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            LinkedList<Object[]> pathResponses =
+                    responses.get(exchange.getRequestURI().getPath());
+            response = null;
+            if( pathResponses != null ) {
+                response = (pathResponses.size() > 1 ?
+                        pathResponses.removeFirst() : pathResponses.getFirst());
+            }
+        }
+
+        int code = (response != null ? (Integer) response[0] : 404);
+        String body = (response != null ? (String) response[1] :
+                "{\"status\": {\"code\": -1201, \"message\": \"Not found\"}}");
+
+        byte[] content = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, content.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(content);
+        output.close();
+    }
+}
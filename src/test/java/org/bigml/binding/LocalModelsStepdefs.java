@@ -3,13 +3,27 @@ package org.bigml.binding;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileReader;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import org.bigml.binding.localmodel.CompiledTreeModel;
+import org.bigml.binding.localmodel.MappedTreeModel;
 import org.bigml.binding.localmodel.Prediction;
+import org.bigml.binding.localmodel.PredictionBatch;
+import org.bigml.binding.utils.CacheManager;
 import org.bigml.binding.utils.Utils;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
@@ -42,6 +56,18 @@ public class LocalModelsStepdefs {
         assertTrue("", predictiveModel != null);
     }
 
+    @Given("^I create a local model from a \"(.*)\" file with the operator \"(.*)\" replaced by \"(.*)\"$")
+    public void I_create_a_local_model_with_the_operator_replaced(String jsonModelFile,
+            String operator, String replacement) throws Exception {
+
+        String jsonModel = Utils.readFile(jsonModelFile).replace(
+                "\"operator\": \"" + operator + "\"", "\"operator\": \"" + replacement + "\"");
+        JSONObject localeModel = (JSONObject) JSONValue.parse(jsonModel);
+
+        predictiveModel = new LocalPredictiveModel(localeModel);
+        assertTrue("", predictiveModel != null);
+    }
+
     @Given("^I create a local model$")
     public void I_create_a_local_model() throws Exception {
         predictiveModel = new LocalPredictiveModel(context.model);
@@ -84,6 +110,30 @@ public class LocalModelsStepdefs {
         }
     }
 
+    @Then("^the proportional missing strategy local predictions for \"(.*)\" don't share their distribution$")
+    public void the_proportional_missing_strategy_local_predictions_dont_share(String args)
+            throws Exception {
+        JSONObject inputObj = (JSONObject) JSONValue.parse(args);
+        Prediction first = predictiveModel.predict(inputObj, true, MissingStrategy.PROPORTIONAL);
+        String distribution = first.getDistribution().toString();
+        int children = (first.getChildren() != null ? first.getChildren().size() : 0);
+
+        ((List) first.getDistribution().get(0)).set(1, -1);
+        first.getDistribution().clear();
+        if( first.getChildren() != null ) {
+            try {
+                first.getChildren().clear();
+            } catch (UnsupportedOperationException e) {
+                // The children of the nodes can't be changed
+            }
+        }
+
+        inputObj = (JSONObject) JSONValue.parse(args);
+        Prediction second = predictiveModel.predict(inputObj, true, MissingStrategy.PROPORTIONAL);
+        assertEquals(distribution, second.getDistribution().toString());
+        assertEquals(children, (second.getChildren() != null ? second.getChildren().size() : 0));
+    }
+
     @Then("^the confidence of the proportional missing strategy local prediction for \"(.*)\" is ([\\d,.]+)$")
     public void the_confidence_of_the_missing_strategy_local_predictionfor_is(String args, double expectedConfidence) {
         try {
@@ -146,6 +196,163 @@ public class LocalModelsStepdefs {
         }
     }
 
+    @Then("^the compiled local prediction for \"(.*)\" is \"([^\"]*)\"$")
+    public void the_compiled_local_prediction_for_is(String args, String pred) {
+        CompiledTreeModel compiledModel = predictiveModel.compile();
+        JSONObject inputObj = (JSONObject) JSONValue.parse(args);
+        Object[] row = compiledModel.toRow(inputObj);
+        assertEquals(pred, compiledModel.predict(row));
+    }
+
+    @Then("^the compiled local prediction for \"(.*)\" matches the local prediction$")
+    public void the_compiled_local_prediction_matches(String args) {
+        try {
+            CompiledTreeModel compiledModel = predictiveModel.compile();
+            JSONObject inputObj = (JSONObject) JSONValue.parse(args);
+            Object[] row = compiledModel.toRow(inputObj);
+            int node = compiledModel.findNode(row);
+
+            Prediction p = predictiveModel.predict(inputObj, false);
+            Prediction compiledPrediction = compiledModel.toPrediction(node);
+            assertEquals(p.getPrediction(), compiledPrediction.getPrediction());
+            assertEquals(p.getConfidence(), compiledPrediction.getConfidence());
+            assertEquals(p.getPath(), compiledPrediction.getPath());
+        } catch (InputDataParseException parseException) {
+            assertTrue("", false);
+        }
+    }
+
+    @Then("^the lean local prediction for \"(.*)\" with missing strategy \"(.*)\" matches the local prediction$")
+    public void the_lean_local_prediction_matches(String args, String strategy) {
+        try {
+            MissingStrategy missingStrategy = MissingStrategy.valueOf(strategy);
+            Prediction p = predictiveModel.predict(
+                    (JSONObject) JSONValue.parse(args), false, missingStrategy);
+            Prediction leanPrediction = predictiveModel.predictLean(
+                    (JSONObject) JSONValue.parse(args), false, missingStrategy);
+            assertEquals(p.getPrediction(), leanPrediction.getPrediction());
+            assertEquals(p.getConfidence(), leanPrediction.getConfidence());
+            assertEquals(p.getCount(), leanPrediction.getCount());
+            assertTrue(!leanPrediction.containsKey("path"));
+            assertEquals(p.getPath(), leanPrediction.getPath());
+            assertEquals(p.getDistribution(), leanPrediction.getDistribution());
+        } catch (InputDataParseException parseException) {
+            assertTrue("", false);
+        }
+    }
+
+    @Then("^the batch predictions for the rows in \"(.*)\" match the local predictions$")
+    public void the_batch_predictions_match(String csvFile) throws Exception {
+        List<Map> rows = new ArrayList<Map>();
+        CSVParser parser = new CSVParser(new FileReader(csvFile),
+                CSVFormat.DEFAULT.withHeader());
+        try {
+            for (CSVRecord record : parser) {
+                rows.add(new HashMap<String, String>(record.toMap()));
+            }
+        } finally {
+            parser.close();
+        }
+
+        PredictionBatch batch = predictiveModel.predictBatch(rows, true);
+        assertEquals(rows.size(), batch.size());
+        for (int i = 0; i < rows.size(); i++) {
+            JSONObject inputObj = new JSONObject();
+            inputObj.putAll(rows.get(i));
+            Prediction p = predictiveModel.predict(inputObj, true);
+            assertEquals(p.getPrediction(), batch.getPrediction(i));
+            assertEquals(p.getConfidence(), batch.getConfidence(i), 0.0);
+        }
+    }
+
+    @Then("^the compiled model loaded from the cached \"(.*)\" predicts like the local model for the rows in \"(.*)\"$")
+    public void the_compiled_model_loaded_from_the_cache_predicts_like_the_local_model(
+            String jsonModelFile, String csvFile) throws Exception {
+        File storage = new File(System.getProperty("java.io.tmpdir"),
+                "bigml_compiled_test");
+        CacheManager cacheManager = new CacheManager(storage.getPath());
+        try {
+            cacheManager.put("model/test", null,
+                    (JSONObject) JSONValue.parse(Utils.readFile(jsonModelFile)));
+
+            // The first load compiles the model and writes its binary file
+            MappedTreeModel built = cacheManager.loadCompiled("model/test");
+            assertTrue(built != null);
+
+            // A new process only maps the binary file
+            MappedTreeModel mapped = new CacheManager(storage.getPath())
+                    .loadCompiled("model/test");
+            assertTrue(mapped != null && mapped != built);
+
+            // Storing the model again doesn't change the mapped ones
+            assertTrue(cacheManager.putCompiled("model/test", predictiveModel.compile()));
+
+            CSVParser parser = new CSVParser(new FileReader(csvFile),
+                    CSVFormat.DEFAULT.withHeader());
+            try {
+                for (CSVRecord record : parser) {
+                    JSONObject inputObj = new JSONObject();
+                    inputObj.putAll(record.toMap());
+                    Prediction p = predictiveModel.predict(inputObj, true);
+
+                    // The same casting done by the local model
+                    JSONObject inputData = predictiveModel.filterInputData(
+                            inputObj, true);
+                    Utils.cast(inputData, predictiveModel.getFields());
+
+                    for (MappedTreeModel model : new MappedTreeModel[] {built, mapped}) {
+                        int node = model.findNode(model.toRow(inputData));
+                        assertEquals(p.getPrediction(), model.getOutput(node));
+                        assertEquals(p.getConfidence(), model.getConfidence(node), 0.0);
+                    }
+                }
+            } finally {
+                parser.close();
+            }
+        } finally {
+            cacheManager.cleanCache();
+        }
+    }
+
+    @Then("^the streamed multi model predictions from \"(.*)\" file for \"(.*)\" match the local predictions$")
+    public void the_streamed_multi_model_predictions_match(String jsonModelFile,
+                                                          String csvFile) throws Exception {
+        List models = new ArrayList();
+        for (int i = 0; i < 3; i++) {
+            JSONObject model = (JSONObject) JSONValue.parse(Utils.readFile(jsonModelFile));
+            model.put("resource", String.format("model/%d", i));
+            models.add(model);
+        }
+        MultiModel multiModel = new MultiModel(models);
+
+        StringWriter output = new StringWriter();
+        long predicted = multiModel.batchPredict(new FileReader(csvFile), output,
+                PredictionMethod.PLURALITY, null, true);
+
+        CSVParser input = new CSVParser(new FileReader(csvFile),
+                CSVFormat.DEFAULT.withHeader());
+        CSVParser predictions = new CSVParser(new StringReader(output.toString()),
+                CSVFormat.DEFAULT.withHeader());
+        try {
+            Iterator<CSVRecord> predictionsIterator = predictions.iterator();
+            long rows = 0;
+            for (CSVRecord record : input) {
+                JSONObject inputObj = new JSONObject();
+                inputObj.putAll(record.toMap());
+                Prediction p = predictiveModel.predict(inputObj, true);
+
+                CSVRecord prediction = predictionsIterator.next();
+                assertEquals(p.getPrediction(), prediction.get("prediction"));
+                assertEquals(p.getPrediction(), prediction.get("model/0"));
+                rows++;
+            }
+            assertEquals(rows, predicted);
+        } finally {
+            input.close();
+            predictions.close();
+        }
+    }
+
     @Then("^\"(.*)\" field\'s name is changed to \"(.*)\"$")
     public void field_name_to_new_name(String fieldId, String newName) {
         JSONObject field = (JSONObject) Utils.getJSONObject(
@@ -38,6 +38,7 @@ import cucumber.junit.Cucumber;
         "src/test/resources/test_30_execution.feature",
         "src/test/resources/test_31_library.feature",
         "src/test/resources/test_32_topic_model_prediction.feature",
+        "src/test/resources/test_33_http_transport.feature",
         "src/test/resources/test_configurations.feature",
         "src/test/resources/delete_all_dev_data.feature" })
 public class RunCukesTest {
@@ -0,0 +1,198 @@
+package org.bigml.binding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.bigml.binding.resources.AbstractResource;
+import org.bigml.binding.resources.Dataset;
+import org.bigml.binding.resources.Model;
+import org.bigml.binding.resources.ResourceFuture;
+import org.bigml.binding.resources.ResourcePoller;
+import org.bigml.binding.utils.PooledHttpTransport;
+import org.bigml.binding.utils.Utils;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cucumber.annotation.After;
+import cucumber.annotation.en.Given;
+import cucumber.annotation.en.Then;
+import cucumber.annotation.en.When;
+
+public class TransportStepdefs {
+
+    // Logging
+    Logger logger = LoggerFactory.getLogger(TransportStepdefs.class);
+
+    private static final String MODEL_PATH = "model/5143a51a37203f2cf7000972";
+    private static final String DATASET_ID = "dataset/5143a51a37203f2cf7000956";
+    private static final String DATASET_CSV = "a,b\n1,2\n";
+
+    private LocalHttpServer server;
+    private JSONObject model;
+    private JSONObject missing;
+    private Throwable missingError;
+    private JSONObject download;
+    private String downloadedFile;
+    private boolean missingReady;
+
+    @Given("^a local server answering with the model in \"(.*)\"$")
+    public void a_local_server_answering_with_the_model_in(String modelFile)
+            throws Throwable {
+        server = new LocalHttpServer();
+        server.respond(MODEL_PATH, 200, readModel(modelFile).toJSONString());
+    }
+
+    @When("^I get the model (\\d+) times through a pooled transport with (\\d+) connections per host$")
+    public void I_get_the_model_through_a_pooled_transport(int times,
+            int connections) throws Throwable {
+        Model resource = new Model("user", "key", false, null);
+        resource.setTransport(new PooledHttpTransport(connections, 5000, 5000));
+
+        for (int i = 0; i < times; i++) {
+            model = resource.getResource(server.getUrl() + MODEL_PATH);
+        }
+        missing = resource.getResource(server.getUrl() + "model/missing");
+    }
+
+    @Then("^the model is retrieved and the missing resource fails with (\\d+)$")
+    public void the_model_is_retrieved_and_the_missing_resource_fails(int code) {
+        assertEquals(AbstractResource.HTTP_OK, model.get("code"));
+        assertNotNull(model.get("object"));
+
+        assertEquals(code, missing.get("code"));
+        assertNotNull(Utils.getJSONObject((JSONObject) missing.get("error"),
+                "status.message"));
+    }
+
+    @Then("^the server received (\\d+) requests through (\\d+) connection$")
+    public void the_server_received_requests_through_connections(int requests,
+            int connections) {
+        assertEquals(requests, server.getRequests());
+        assertEquals(connections, server.getConnections());
+    }
+
+    @Given("^a local server answering with the model in \"(.*)\" after (\\d+) checks$")
+    public void a_local_server_answering_with_the_model_after_checks(
+            String modelFile, int checks) throws Throwable {
+        JSONObject finished = readModel(modelFile);
+
+        JSONObject inProgress = (JSONObject) JSONValue.parse(finished.toJSONString());
+        ((JSONObject) inProgress.get("status")).put("code",
+                (long) AbstractResource.IN_PROGRESS);
+
+        server = new LocalHttpServer();
+        for (int i = 0; i < checks; i++) {
+            server.respond(MODEL_PATH, 200, inProgress.toJSONString());
+        }
+        server.respond(MODEL_PATH, 200, finished.toJSONString());
+    }
+
+    @When("^I wait for the model to be ready using a poller$")
+    public void I_wait_for_the_model_to_be_ready_using_a_poller() throws Throwable {
+        Model resource = new Model("user", "key", false, null);
+        ResourcePoller poller = new ResourcePoller(10, 10, 40, 2);
+        try {
+            ResourceFuture future = poller.whenReady(resource,
+                    server.getUrl() + MODEL_PATH, 10000);
+            model = future.get(10, TimeUnit.SECONDS);
+            missing = poller.whenReady(resource,
+                    server.getUrl() + "model/missing", 10000).get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            missingError = e.getCause();
+        } finally {
+            poller.shutdown();
+        }
+    }
+
+    @Then("^the model is ready after (\\d+) requests and the missing resource fails$")
+    public void the_model_is_ready_after_requests(int requests) {
+        assertEquals(AbstractResource.HTTP_OK, model.get("code"));
+        assertEquals(AbstractResource.FINISHED, ((Number) Utils.getJSONObject(
+                (JSONObject) model.get("object"), "status.code")).intValue());
+
+        assertNull(missing);
+        assertTrue(missingError instanceof IllegalStateException);
+
+        // The missing resource is requested only once
+        assertEquals(requests + 1, server.getRequests());
+    }
+
+    /**
+     * A dataset handler whose requests are sent to the local server
+     */
+    static class LocalDataset extends Dataset {
+        LocalDataset(String url) {
+            super("user", "key", false);
+            BIGML_URL = url;
+        }
+    }
+
+    @Given("^a local server preparing the download of a dataset for (\\d+) checks$")
+    public void a_local_server_preparing_the_download_of_a_dataset(int checks)
+            throws Throwable {
+        server = new LocalHttpServer();
+        String downloadPath = DATASET_ID + Dataset.DOWNLOAD_DIR;
+        for (int i = 0; i < checks; i++) {
+            server.respond(downloadPath, 200, "{\"status\": {\"code\": "
+                    + AbstractResource.IN_PROGRESS + "}}");
+        }
+        server.respond(downloadPath, 200, "{\"status\": {\"code\": "
+                + AbstractResource.FINISHED + "}}");
+        server.respond(downloadPath, 200, DATASET_CSV);
+    }
+
+    @When("^I download the dataset and check the missing one using a poller$")
+    public void I_download_the_dataset_using_a_poller() throws Throwable {
+        Dataset resource = new LocalDataset(server.getUrl());
+        File file = File.createTempFile("bigml_download", ".csv");
+        file.deleteOnExit();
+
+        ResourcePoller poller = new ResourcePoller(10, 10, 40, 2);
+        ResourcePoller.setDefault(poller);
+        try {
+            ResourceFuture future = resource.whenDatasetDownloaded(DATASET_ID,
+                    file.getPath(), 10000);
+            download = future.get(10, TimeUnit.SECONDS);
+            downloadedFile = Utils.readFile(file.getPath());
+            missingReady = resource.isReadyAsync("dataset/5143a51a37203f2cf7000957", 10000)
+                    .get(10, TimeUnit.SECONDS);
+        } finally {
+            ResourcePoller.setDefault(null);
+            poller.shutdown();
+        }
+    }
+
+    @Then("^the dataset is downloaded after (\\d+) requests and the missing one is not ready$")
+    public void the_dataset_is_downloaded_after_requests(int requests) {
+        assertEquals(AbstractResource.HTTP_OK, download.get("code"));
+        assertEquals(DATASET_CSV, download.get("csv"));
+        assertEquals(DATASET_CSV, downloadedFile);
+
+        assertFalse(missingReady);
+        assertEquals(requests + 1, server.getRequests());
+    }
+
+    /**
+     * The model as the API returns it, without the wrapper of the file
+     */
+    private JSONObject readModel(String modelFile) {
+        JSONObject model = (JSONObject) JSONValue.parse(Utils.readFile(modelFile));
+        return (JSONObject) model.get("object");
+    }
+
+    @After
+    public void stopServer() {
+        if( server != null ) {
+            server.stop();
+        }
+    }
+}
@@ -13,6 +13,17 @@ Feature: Create Predictions
       | data/iris_model.json | {"petal length": 0.5}  | Iris-setosa | 0.90594     |
 
 
+    Scenario Outline: Successfully creating a prediction from a local model with unknown operators:
+      Given I create a local model from a "<model>" file with the operator "<operator>" replaced by "<unknown>"
+      And the local prediction for "<data_input>" is "<prediction>"
+      Then delete test data
+
+      Examples:
+      | model                | operator | unknown | data_input                               | prediction      |
+      | data/iris_model.json | >        | ~>      | {"petal length": 0.5}                    | Iris-setosa     |
+      | data/iris_model.json | >        | ~>      | {"petal length": 6, "petal width": 2.5}  | Iris-versicolor |
+
+
     Scenario Outline: Successfully creating a multiple prediction from a local model in a json file:
       Given I create a local model from a "<model>" file
       And the multiple local prediction for "<data_input>" is "<prediction>"
@@ -26,6 +37,88 @@ Feature: Create Predictions
 
 
 
+    Scenario Outline: Successfully creating a prediction from a compiled local model in a json file:
+      Given I create a local model from a "<model>" file
+      And the compiled local prediction for "<data_input>" is "<prediction>"
+      And the compiled local prediction for "<data_input>" matches the local prediction
+      Then delete test data
+
+      Examples:
+      | model                | data_input                                | prediction      |
+      | data/iris_model.json | {"000002": 0.5}                           | Iris-setosa     |
+      | data/iris_model.json | {"000002": 5.5, "000003": 2.0}            | Iris-virginica  |
+      | data/iris_model.json | {"000003": 1.6}                           | Iris-versicolor |
+
+
+    Scenario Outline: Successfully creating a proportional missing strategy prediction from a local model in a json file:
+      Given I create a local model from a "<model>" file
+      Then the proportional missing strategy local prediction for "<data_input>" is "<prediction>"
+      And the confidence of the proportional missing strategy local prediction for "<data_input>" is <confidence>
+      And the proportional missing strategy local predictions for "<data_input>" don't share their distribution
+      Then delete test data
+
+      Examples:
+      | model                | data_input              | prediction  | confidence  |
+      | data/iris_model.json | {}                      | Iris-setosa | 0.2327      |
+      | data/iris_model.json | {"sepal width": 3.5}    | Iris-setosa | 0.2368      |
+      | data/iris_model.json | {"petal length": 1.4}   | Iris-setosa | 0.9059      |
+
+
+    Scenario Outline: Successfully creating a lean prediction from a local model in a json file:
+      Given I create a local model from a "<model>" file
+      Then the lean local prediction for "<data_input>" with missing strategy "<strategy>" matches the local prediction
+      Then delete test data
+
+      Examples:
+      | model                | data_input                     | strategy        |
+      | data/iris_model.json | {"000002": 0.5}                | LAST_PREDICTION |
+      | data/iris_model.json | {"000002": 5.5, "000003": 2.0} | LAST_PREDICTION |
+      | data/iris_model.json | {"000002": 5.5}                | PROPORTIONAL    |
+      | data/iris_model.json | {"000001": 3.5}                | PROPORTIONAL    |
+
+
+    Scenario Outline: Successfully creating batch predictions from a local model in a json file:
+      Given I create a local model from a "<model>" file
+      And the batch predictions for the rows in "<data>" match the local predictions
+      Then delete test data
+
+      Examples:
+      | model                | data                  |
+      | data/iris_model.json | data/iris.csv         |
+      | data/iris_model.json | data/iris_missing.csv |
+
+
+    Scenario Outline: Successfully predicting with a compiled model stored in binary form:
+      Given I create a local model from a "<model>" file
+      Then the compiled model loaded from the cached "<model>" predicts like the local model for the rows in "<data>"
+
+      Examples:
+      | model                | data                  |
+      | data/iris_model.json | data/iris.csv         |
+      | data/iris_model.json | data/iris_missing.csv |
+
+
+    Scenario Outline: Successfully mapping the rows of a csv file to a compiled model:
+      Given I create a local model from a "<model>" file
+      Then the rows in "<data>" mapped to the compiled model predict like the local model
+
+      Examples:
+      | model                | data                   |
+      | data/iris_model.json | data/iris.csv          |
+      | data/iris_model.json | data/iris_missing.csv  |
+
+
+    Scenario Outline: Successfully streaming batch predictions from a local multi model:
+      Given I create a local model from a "<model>" file
+      And the streamed multi model predictions from "<model>" file for "<data>" match the local predictions
+      Then delete test data
+
+      Examples:
+      | model                | data                   |
+      | data/iris_model.json | data/iris.csv          |
+      | data/iris_model.json | data/iris_missing2.csv |
+
+
     Scenario Outline: Successfully creating a prediction from local model
         Given that I use development mode with seed="<seed>"
         Given I create a data source uploading a "<data>" file
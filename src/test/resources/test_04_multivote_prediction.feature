@@ -28,3 +28,119 @@ Feature: Compute MultiVote predictions
           | data/predictions_r.json| 0            | 1.55555556667 | 0.400079152063        |
           | data/predictions_r.json| 1            | 1.59376845074 | 0.248366474212        |
           | data/predictions_r.json| 2            | 1.55555556667 | 0.400079152063        |
+
+
+    Scenario Outline: Successfully computing predictions combinations with list distributions:
+        Given I create a MultiVote with list distributions for the set of predictions in file <predictions>
+        When I compute the prediction with confidence using method "<method>"
+        Then the combined prediction is "<prediction>"
+        And the confidence for the combined prediction is <confidence>
+
+        Examples:
+          | predictions               | method       | prediction    | confidence            |
+          | data/predictions_c.json| 0            | a             | 0.450471270879        |
+          | data/predictions_c.json| 1            | a             | 0.552021302649        |
+          | data/predictions_c.json| 2            | a             | 0.403632421178        |
+
+
+    Scenario Outline: Successfully computing predictions combinations with a vote accumulator:
+        Given I create a MultiVote for the set of predictions in file <predictions>
+        When I compute the prediction with confidence using method "<method>" with a vote accumulator
+        Then the combined prediction is "<prediction>"
+        And the confidence for the combined prediction is <confidence>
+
+        Examples:
+          | predictions               | method       | prediction    | confidence            |
+          | data/predictions_c.json| 0            | a             | 0.450471270879        |
+          | data/predictions_c.json| 1            | a             | 0.552021302649        |
+          | data/predictions_c.json| 2            | a             | 0.403632421178        |
+
+
+    Scenario Outline: Successfully computing numerical predictions combinations with a vote accumulator:
+        Given I create a MultiVote for the set of predictions in file <predictions>
+        When I compute the prediction with confidence using method "<method>" with a vote accumulator
+        Then the numerical combined prediction is <prediction>
+        And the confidence for the combined prediction is <confidence>
+
+        Examples:
+          | predictions               | method       | prediction    | confidence            |
+          | data/predictions_r.json| 0            | 1.55555556667 | 0.400079152063        |
+          | data/predictions_r.json| 1            | 1.59376845074 | 0.248366474212        |
+          | data/predictions_r.json| 2            | 1.55555556667 | 0.400079152063        |
+
+
+    Scenario Outline: Successfully computing threshold combinations with a vote accumulator:
+        Given I add the predictions [{"prediction": "a", "confidence": 0.9}, {"prediction": "a", "confidence": 0.8}, {"prediction": "b", "confidence": 0.7}] to the vote accumulator
+        When I combine the votes with method "3" for category "<category>" with threshold <threshold>
+        Then the combined prediction is "<prediction>"
+        And the confidence for the combined prediction is <confidence>
+
+        # The rest of the votes are combined when the category doesn't
+        # reach the threshold, even if it has more votes than the rest
+        Examples:
+          | category | threshold | prediction | confidence |
+          | a        | 2         | a          | 0.85       |
+          | a        | 3         | b          | 0.7        |
+          | b        | 1         | b          | 0.7        |
+          | b        | 2         | a          | 0.85       |
+          | c        | 1         | a          | 0.85       |
+
+
+    Scenario Outline: Successfully reusing a vote accumulator after a reset:
+        Given I add the predictions in file data/predictions_r.json to the vote accumulator
+        When I combine the votes with method "0"
+        Then the numerical combined prediction is 1.55555556667
+        When I reset the vote accumulator
+        And I add the predictions [{"prediction": "x", "confidence": 0.99, "count": 40, "distribution": [["x", 40]]}, {"prediction": "x", "confidence": 0.99, "count": 40, "distribution": [["x", 40]]}] to the vote accumulator
+        And I combine the votes with method "<method>"
+        Then the combined prediction is "x"
+        When I reset the vote accumulator
+        And I add the predictions in file data/predictions_c.json to the vote accumulator
+        And I combine the votes with method "<method>"
+        Then the combined prediction is "<prediction>"
+        And the confidence for the combined prediction is <confidence>
+        And the combined prediction matches the MultiVote with method "<method>"
+        When I reset the vote accumulator
+        And I add the predictions in file data/predictions_r.json to the vote accumulator
+        And I combine the votes with method "0"
+        Then the numerical combined prediction is 1.55555556667
+
+        Examples:
+          | method       | prediction    | confidence            |
+          | 0            | a             | 0.450471270879        |
+          | 1            | a             | 0.552021302649        |
+          | 2            | a             | 0.403632421178        |
+
+
+    Scenario Outline: Successfully computing the median of numerical combinations with a vote accumulator:
+        Given I add the predictions [{"prediction": 1.5, "confidence": 0.2, "median": 1.4, "count": 10, "distribution": [[1, 5], [2, 5]]}, {"prediction": 2, "confidence": 0.3, "median": 2.1, "count": 20, "distribution": [[1, 5], [2, 15]]}] to the vote accumulator
+        When I combine the votes with method "<method>" adding the median
+        Then the numerical combined prediction is <prediction>
+        And the median for the combined prediction is <median>
+        And the combined prediction matches the MultiVote with method "<method>" adding the median
+
+        Examples:
+          | method | prediction     | median          |
+          | 0      | 1.75           | 1.75            |
+          | 1      | 1.50002269893  | 1.40003177851   |
+
+
+    Scenario Outline: Successfully combining a numerical vote followed by categorical votes with a vote accumulator:
+        Given I add the predictions [{"prediction": 1.5, "confidence": 0.9, "count": 10, "distribution": [[1.5, 10]]}, {"prediction": "a", "confidence": 0.3, "count": 10, "distribution": [["a", 8], ["b", 2]]}, {"prediction": "a", "confidence": 0.4, "count": 10, "distribution": [["a", 5], ["b", 5]]}] to the vote accumulator
+        When I combine the votes with method "<method>"
+        Then the combined prediction is "<prediction>"
+        And the confidence for the combined prediction is <confidence>
+
+        # MultiVote can't weight the probabilities of numerical categories
+        Examples:
+          | method | prediction | confidence      |
+          | 0      | a          | 0.35            |
+          | 2      | a          | 0.273772374306  |
+
+
+    Scenario: Successfully combining a numerical vote followed by categorical votes by confidence with a vote accumulator:
+        Given I add the predictions [{"prediction": 1.5, "confidence": 0.9, "count": 10, "distribution": [[1.5, 10]]}, {"prediction": "a", "confidence": 0.3, "count": 10, "distribution": [["a", 8], ["b", 2]]}, {"prediction": "a", "confidence": 0.4, "count": 10, "distribution": [["a", 5], ["b", 5]]}] to the vote accumulator
+        When I combine the votes with method "1"
+        Then the combined prediction matches the MultiVote with method "1"
+        And the numerical combined prediction is 1.5
+        And the confidence for the combined prediction is 0.9
@@ -114,6 +114,7 @@ Feature: Create Predictions
     Then the centroid is "<centroid>" with distance <distance>
     And I create a local centroid for "<data_input>"
     Then the local centroid is "<centroid>" with distance <distance>
+    And the batch of local centroids for "<data_input>" matches the local centroid
     Then delete test data
 
     Examples:
@@ -151,6 +152,16 @@ Feature: Create Predictions
       | data/iris.csv | BigML |20      | 20     | 30     | {"summary_fields": ["sepal width"]} |{"petal length": 1, "petal width": 1, "sepal length": 1, "species": "Iris-setosa"}             | Cluster 2   | 1.1643644909783857   |
 
 
+  Scenario Outline: Successfully comparing the compiled centroids of a cluster with their distances:
+    Given I create a local cluster with <centroids> random centroids generated with seed <seed> and <layout> centers
+    Then the local centroids match the distances of the centroids for <rows> random rows
+
+    Examples:
+      | centroids | seed | layout     | rows  |
+      | 16        | 5    | matching   | 20000 |
+      | 16        | 5    | mismatched | 2000  |
+
+
   Scenario Outline: Successfully comparing predictions with proportional missing strategy for missing_splits models:
     Given that I use production mode with seed="<seed>"
     Given I create a data source uploading a "<data>" file
@@ -188,7 +199,32 @@ Feature: Create Predictions
     Then the anomaly score is "<score>"
     And I create a local anomaly score for "<data_input>" by name=<by_name>
     Then the local anomaly score is <score>
+    And the paths of the compiled local anomaly detector for "<data_input>" by name=<by_name> match its trees
+    And the batch of local anomaly scores for "<data_input>" by name=<by_name> matches the local anomaly score
+    And the anomaly tracker for "<data_input>" by name=<by_name> keeps the local anomaly score
 
   Examples:
     | data                 |  seed  | time_1  | time_2 | time_3 | by_name | data_input    | score    |
-    | data/tiny_kdd.csv    | BigML  | 20      | 20     | 30     | false   | {"000020": 255.0, "000004": 183.0, "000016": 4.0, "000024": 0.04, "000025": 0.01, "000026": 0.0, "000019": 0.25, "000017": 4.0, "000018": 0.25, "00001e": 0.0, "000005": 8654.0, "000009": "0", "000023": 0.01, "00001f": 123.0}         | 0.69802  |
\ No newline at end of file
+    | data/tiny_kdd.csv    | BigML  | 20      | 20     | 30     | false   | {"000020": 255.0, "000004": 183.0, "000016": 4.0, "000024": 0.04, "000025": 0.01, "000026": 0.0, "000019": 0.25, "000017": 4.0, "000018": 0.25, "00001e": 0.0, "000005": 8654.0, "000009": "0", "000023": 0.01, "00001f": 123.0}         | 0.69802  |
+
+
+  Scenario Outline: Successfully comparing the paths and the batch scores of a compiled anomaly detector:
+    Given I create a local anomaly detector with <trees> random trees generated with seed <seed>
+    Then the paths of the compiled local anomaly detector match its trees for <rows> random rows
+    And the batches of local anomaly scores match the local anomaly scores for <batch_rows> random rows
+
+  Examples:
+    | trees | seed | rows  | batch_rows |
+    | 64    | 3    | 20000 | 1000       |
+
+
+  Scenario Outline: Successfully comparing an anomaly tracker with a sort of the scores:
+    Given I create a local anomaly detector with <trees> random trees generated with seed <seed>
+    Then the anomaly tracker with <top> top anomalies and <bins> bins matches a sort of <rows> random scores
+
+  Examples:
+    | trees | seed | top | bins | rows  |
+    | 64    | 3    | 100 | 100  | 20000 |
+    | 64    | 7    | 10  | 1000 | 20000 |
+    | 64    | 11   | 50  | 16   | 20000 |
+    | 64    | 13   | 50  | 16   | 30    |
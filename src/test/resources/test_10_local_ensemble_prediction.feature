@@ -22,6 +22,56 @@ Feature: Create Predictions locally from Ensembles
       | data/iris.csv | BigML |  10      | 10     | 50     | 5                | 1     | {"petal width": 0.5} | Iris-versicolor | 0.3687 |
 
 
+  Scenario Outline: Successfully creating a local prediction from an Ensemble built lazily:
+    Given that I use production mode with seed="<seed>"
+    Given I create a data source uploading a "<data>" file
+    And I wait until the source is ready less than <time_1> secs
+    And I add the unitTest tag to the data source waiting less than <time_1> secs
+    And I create a dataset
+    And I wait until the dataset is ready less than <time_2> secs
+    And I create an ensemble of <number_of_models> models and <tlp> tlp
+    And I wait until the ensemble is ready less than <time_3> secs
+    And I create a lazy local ensemble with a budget of <budget> bytes
+    When the local ensemble prediction for "<data_input>" is "<prediction>"
+    Then delete test data
+
+    Examples:
+      | data             | seed      |  time_1  | time_2 | time_3 | number_of_models | tlp   | budget |  data_input    |prediction  |
+      | data/iris.csv | BigML |  10      | 10     | 50     | 5                | 1     | 10000  | {"petal width": 0.5} | Iris-versicolor |
+
+
+  Scenario Outline: Successfully evicting and reloading the models of a lazy local Ensemble:
+    Given I create a lazy local ensemble of <number_of_models> copies of the model in "<model>" with room for <models_in_budget> models
+    Then the lazy local ensemble predicts "<prediction>" for "<data_input>" twice retrieving <retrieved> models
+
+    Examples:
+      | model                | number_of_models | models_in_budget | data_input             | prediction  | retrieved |
+      | data/iris_model.json | 5                | 5                | {"petal length": 0.5}  | Iris-setosa | 5         |
+      | data/iris_model.json | 5                | 2                | {"petal length": 0.5}  | Iris-setosa | 10        |
+
+
+  Scenario Outline: Successfully creating a local prediction from an Ensemble read from the cache of its client:
+    Given I create a local ensemble of <number_of_models> copies of the model in "<model>" read once from the cache of its client
+    Then the local ensemble prediction with method <method> for "<data_input>" is "<prediction>"
+
+    Examples:
+      | model                | number_of_models | method      | data_input                               | prediction      |
+      | data/iris_model.json | 5                | PLURALITY   | {"petal length": 0.5}                    | Iris-setosa     |
+      | data/iris_model.json | 5                | PROBABILITY | {"petal length": 6, "petal width": 2.5}  | Iris-virginica  |
+
+
+  Scenario Outline: Successfully creating a local prediction from an Ensemble of model JSONs:
+    Given I create a local ensemble from <number_of_models> copies of the JSON of the model in "<model>"
+    Then the local ensemble prediction with method <method> for "<data_input>" is "<prediction>"
+    And the local ensemble predictions for "<data_input>" with an executor of 2 threads match the ones in the calling thread
+
+    Examples:
+      | model                | number_of_models | method      | data_input                               | prediction      |
+      | data/iris_model.json | 3                | PLURALITY   | {"petal length": 0.5}                    | Iris-setosa     |
+      | data/iris_model.json | 3                | CONFIDENCE  | {"petal length": 0.5}                    | Iris-setosa     |
+      | data/iris_model.json | 3                | PROBABILITY | {"petal length": 6, "petal width": 2.5}  | Iris-virginica  |
+
+
   Scenario Outline: Successfully obtaining field importance from an Ensemble:
     Given that I use production mode with seed="<seed>"
     Given I create a data source uploading a "<data>" file
@@ -0,0 +1,31 @@
+Feature: Send the requests and wait for the resources efficiently
+          In order to avoid opening a new connection for every request
+          I need to reuse the connections to the API
+
+  Scenario Outline: Successfully retrieving resources through a pooled transport:
+    Given a local server answering with the model in "<data>"
+    When I get the model <times> times through a pooled transport with <connections> connections per host
+    Then the model is retrieved and the missing resource fails with 404
+    And the server received <requests> requests through 1 connection
+
+  Examples:
+    | data                 | times | connections | requests |
+    | data/iris_model.json | 10    | 2           | 11       |
+
+  Scenario Outline: Successfully waiting for resources without blocking:
+    Given a local server answering with the model in "<data>" after <checks> checks
+    When I wait for the model to be ready using a poller
+    Then the model is ready after <requests> requests and the missing resource fails
+
+  Examples:
+    | data                 | checks | requests |
+    | data/iris_model.json | 3      | 4        |
+
+  Scenario Outline: Successfully downloading a dataset without blocking:
+    Given a local server preparing the download of a dataset for <checks> checks
+    When I download the dataset and check the missing one using a poller
+    Then the dataset is downloaded after <requests> requests and the missing one is not ready
+
+  Examples:
+    | checks | requests |
+    | 3      | 5        |